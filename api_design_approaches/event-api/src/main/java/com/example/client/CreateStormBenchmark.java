@@ -0,0 +1,238 @@
+package com.example.client;
+
+import com.example.client.EventApiClient.Endpoint;
+import com.example.eventapi.dto.UserDTO;
+import com.example.eventapi.event.ErrorEvent;
+import com.example.eventapi.event.UserCreatedEvent;
+import com.example.eventapi.event.UserEvent;
+import com.example.eventapi.event.UserPersistedEvent;
+import com.example.eventapi.metrics.LatencyHistogram;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Throughput of users.create as fast as a few sessions can send them.
+ *
+ * Each sender keeps up to window creates in flight on its own session, sending the next
+ * one as soon as the broadcast of an earlier one arrives on /topic/users. Against a
+ * write-behind server each create is also confirmed once it is committed, by a
+ * USER_PERSISTED event that may cover several creates; the run ends when every create is broadcast and, with write-behind,
+ * persisted. The report gives creates per second until the last broadcast and the last
+ * persisted event, the latency of both, how many commits the server made, from
+ * GET /persistence/stats, and the server's CPU time per create, from GET /jvm/stats.
+ * A quarter-size run goes first, unreported, to warm up.
+ *
+ * Usage: CreateStormBenchmark [senders=4] [creates=20000] [window=64] [server=ws://localhost:8080]
+ */
+public class CreateStormBenchmark {
+	private static final Logger logger = Logger.getLogger(CreateStormBenchmark.class.getName());
+
+	private static final long DRAIN_TIMEOUT_SECONDS = 60;
+
+	private final String server;
+	private final String statsUrl;
+	private final String jvmStatsUrl;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	public CreateStormBenchmark(String server) {
+		this.server = server;
+		this.statsUrl = server.replaceFirst("^ws", "http") + "/persistence/stats";
+		this.jvmStatsUrl = server.replaceFirst("^ws", "http") + "/jvm/stats";
+	}
+
+	public static void main(String[] args) throws Exception {
+		int senders = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int creates = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		int window = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+		String server = args.length > 3 ? args[3] : "ws://localhost:8080";
+
+		CreateStormBenchmark benchmark = new CreateStormBenchmark(server);
+		// Warm-up, reported to nobody
+		benchmark.run(senders, Math.max(senders, creates / 4), window);
+		logger.info("\n" + benchmark.run(senders, creates, window));
+	}
+
+	private String run(int senders, int creates, int window) throws Exception {
+		boolean writeBehind = Boolean.TRUE.equals(stats().get("writeBehind"));
+		long commitsBefore = ((Number) stats().get("commits")).longValue();
+		Run run = new Run(creates, writeBehind);
+
+		List<WebSocketStompClient> clients = new ArrayList<>();
+		List<StompSession> sessions = new ArrayList<>();
+		for (int s = 0; s < senders; s++) {
+			WebSocketStompClient stompClient = new WebSocketStompClient(
+					EventApiClient.webSocketClient(Endpoint.NATIVE, new StandardWebSocketClient()));
+			stompClient.setMessageConverter(EventApiClient.messageConverter());
+			StompSession session = stompClient.connect(server + "/ws-native", new StompSessionHandlerAdapter() {
+			}).get(10, TimeUnit.SECONDS);
+			StompFrameHandler handler = run.handler("s" + s + "-");
+			session.subscribe("/topic/users", handler);
+			session.subscribe("/user/queue/users", handler);
+			clients.add(stompClient);
+			sessions.add(session);
+		}
+		// The subscriptions have to reach the broker before the broadcasts do
+		Thread.sleep(200);
+
+		List<Thread> threads = new ArrayList<>();
+		long serverCpuStart = serverCpuNanos();
+		long start = System.nanoTime();
+		for (int s = 0; s < senders; s++) {
+			final int sender = s;
+			final int count = creates / senders + (s < creates % senders ? 1 : 0);
+			Thread thread = new Thread(() -> run.send(sessions.get(sender), "s" + sender + "-", count, window),
+					"create-storm-" + s);
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		boolean drained = run.broadcast.await(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+				&& run.persisted.await(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		long commits = ((Number) stats().get("commits")).longValue() - commitsBefore;
+		double serverCpu = (serverCpuNanos() - serverCpuStart) / 1000.0 / creates;
+
+		for (int s = 0; s < senders; s++) {
+			sessions.get(s).disconnect();
+			clients.get(s).stop();
+		}
+
+		double broadcastSeconds = (run.lastBroadcastNanos.get() - start) / 1e9;
+		StringBuilder summary = new StringBuilder();
+		summary.append(String.format("%s, %d senders, %d creates, window %d%s%n",
+				writeBehind ? "write-behind" : "synchronous", senders, creates, window,
+				drained ? "" : " (timed out waiting for the last events)"));
+		summary.append(String.format("%-10s %9s %10s %10s %10s%n", "", "creates/s", "p50(ms)", "p99(ms)", "max(ms)"));
+		summary.append(row("broadcast", creates / broadcastSeconds, run.broadcastLatency));
+		if (writeBehind) {
+			double persistedSeconds = (run.lastPersistedNanos.get() - start) / 1e9;
+			summary.append(row("persisted", creates / persistedSeconds, run.persistedLatency));
+			summary.append(String.format("%d USER_PERSISTED events, %.1f creates each%n", run.persistedEvents.get(),
+					(double) creates / Math.max(1, run.persistedEvents.get())));
+		}
+		summary.append(String.format("%d commits, %.1f creates per commit, server %.0fus CPU per create, %d errors%n",
+				commits, commits > 0 ? (double) creates / commits : 0, serverCpu, run.errors.get()));
+		return summary.toString();
+	}
+
+	private static String row(String name, double rate, LatencyHistogram latency) {
+		return String.format("%-10s %9.0f %10.2f %10.2f %10.2f%n", name, rate, latency.getPercentile(50) / 1e6,
+				latency.getPercentile(99) / 1e6, latency.getMax() / 1e6);
+	}
+
+	private Map<?, ?> stats() throws IOException {
+		return objectMapper.readValue(new URL(statsUrl), Map.class);
+	}
+
+	private long serverCpuNanos() throws IOException {
+		Map<?, ?> stats = objectMapper.readValue(new URL(jvmStatsUrl), Map.class);
+		return ((Number) stats.get("processCpuNanos")).longValue();
+	}
+
+	// State of one run, shared by its senders
+	private static final class Run {
+		// Send time of every create, by correlation id
+		private final Map<String, Long> sentAt = new ConcurrentHashMap<>();
+		// Window of each sender, by correlation id prefix
+		private final Map<String, Semaphore> windows = new ConcurrentHashMap<>();
+		private final LatencyHistogram broadcastLatency = new LatencyHistogram();
+		private final LatencyHistogram persistedLatency = new LatencyHistogram();
+		private final CountDownLatch broadcast;
+		private final CountDownLatch persisted;
+		private final AtomicLong lastBroadcastNanos = new AtomicLong();
+		private final AtomicLong lastPersistedNanos = new AtomicLong();
+		private final AtomicLong persistedEvents = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+
+		Run(int creates, boolean writeBehind) {
+			this.broadcast = new CountDownLatch(creates);
+			this.persisted = new CountDownLatch(writeBehind ? creates : 0);
+		}
+
+		// Every sender sees every broadcast; each one only counts its own creates
+		StompFrameHandler handler(String prefix) {
+			return new StompFrameHandler() {
+				@Override
+				public Type getPayloadType(StompHeaders headers) {
+					return UserEvent.class;
+				}
+
+				@Override
+				public void handleFrame(StompHeaders headers, Object payload) {
+					// Sent to this session alone, and may cover many of its creates
+					if (payload instanceof UserPersistedEvent) {
+						persistedEvents.incrementAndGet();
+						for (String correlationId : ((UserPersistedEvent) payload).getRequests()) {
+							onEvent((UserEvent) payload, prefix, correlationId);
+						}
+						return;
+					}
+					String correlationId = headers.getFirst("correlation-id");
+					if (correlationId != null && correlationId.startsWith(prefix)) {
+						onEvent((UserEvent) payload, prefix, correlationId);
+					}
+				}
+			};
+		}
+
+		void send(StompSession session, String prefix, int count, int window) {
+			Semaphore inFlight = new Semaphore(window);
+			windows.put(prefix, inFlight);
+			try {
+				for (int i = 0; i < count; i++) {
+					inFlight.acquire();
+					String correlationId = prefix + i;
+					StompHeaders headers = new StompHeaders();
+					headers.setDestination("/app/users.create");
+					headers.set("correlation-id", correlationId);
+					sentAt.put(correlationId, System.nanoTime());
+					session.send(headers, new UserDTO("Storm " + correlationId, correlationId + "@example.com"));
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		void onEvent(UserEvent event, String prefix, String correlationId) {
+			Long sent = sentAt.get(correlationId);
+			if (sent == null) {
+				return;
+			}
+			long now = System.nanoTime();
+			if (event instanceof UserCreatedEvent) {
+				broadcastLatency.record(now - sent);
+				lastBroadcastNanos.accumulateAndGet(now, Math::max);
+				windows.get(prefix).release();
+				broadcast.countDown();
+			} else if (event instanceof UserPersistedEvent) {
+				persistedLatency.record(now - sent);
+				lastPersistedNanos.accumulateAndGet(now, Math::max);
+				persisted.countDown();
+			} else if (event instanceof ErrorEvent) {
+				errors.incrementAndGet();
+				windows.get(prefix).release();
+				broadcast.countDown();
+				logger.warning("Create " + correlationId + " failed: " + ((ErrorEvent) event).getMessage());
+			}
+		}
+	}
+}
@@ -1,376 +1,834 @@
-package com.example.client;
-
-import com.example.eventapi.dto.UpdateUserRequest;
-import com.example.eventapi.dto.UserDTO;
-import com.example.eventapi.dto.UserIdRequest;
-import com.example.eventapi.event.*;
-import com.example.eventapi.model.User;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.springframework.messaging.converter.MappingJackson2MessageConverter;
-import org.springframework.messaging.simp.stomp.*;
-import org.springframework.web.socket.WebSocketHttpHeaders;
-import org.springframework.web.socket.client.standard.StandardWebSocketClient;
-import org.springframework.web.socket.messaging.WebSocketStompClient;
-import org.springframework.web.socket.sockjs.client.SockJsClient;
-import org.springframework.web.socket.sockjs.client.Transport;
-import org.springframework.web.socket.sockjs.client.WebSocketTransport;
-
-import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Scanner;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
-import java.util.logging.Logger;
-
-public class EventApiClient {
-	private static final Logger logger = Logger.getLogger(EventApiClient.class.getName());
-	private final WebSocketStompClient stompClient;
-	private StompSession stompSession;
-	private final String serverUrl;
-	private final ObjectMapper objectMapper = new ObjectMapper();
-
-	public EventApiClient(String serverUrl) {
-		this.serverUrl = serverUrl;
-
-		// Set up WebSocket client
-		List<Transport> transports = new ArrayList<>();
-		transports.add(new WebSocketTransport(new StandardWebSocketClient()));
-		SockJsClient sockJsClient = new SockJsClient(transports);
-
-		this.stompClient = new WebSocketStompClient(sockJsClient);
-		this.stompClient.setMessageConverter(new MappingJackson2MessageConverter());
-	}
-
-	/**
-	 * Connect to the WebSocket server
-	 */
-	public void connect() throws InterruptedException, ExecutionException, TimeoutException {
-		logger.info("Connecting to WebSocket server at " + serverUrl);
-
-		final CountDownLatch connectLatch = new CountDownLatch(1);
-
-		StompSessionHandler sessionHandler = new StompSessionHandlerAdapter() {
-			@Override
-			public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
-				logger.info("Connected to WebSocket server");
-				connectLatch.countDown();
-			}
-
-			@Override
-			public void handleException(StompSession session, StompCommand command, StompHeaders headers,
-					byte[] payload, Throwable exception) {
-				logger.severe("Error: " + exception.getMessage());
-				exception.printStackTrace();
-			}
-		};
-
-		stompSession = stompClient.connect(serverUrl, new WebSocketHttpHeaders(), sessionHandler).get(5,
-				TimeUnit.SECONDS);
-
-		// Wait for connection to be established
-		connectLatch.await(5, TimeUnit.SECONDS);
-
-		// Subscribe to user events
-		// Create a custom message handler that properly handles the JSON response
-		stompSession.subscribe("/topic/users", new StompFrameHandler() {
-			@Override
-			public Type getPayloadType(StompHeaders headers) {
-				return Map.class; // Deserialize as a generic Map instead of String
-			}
-
-			@Override
-			public void handleFrame(StompHeaders headers, Object payload) {
-				try {
-					// Cast the payload to a Map
-					@SuppressWarnings("unchecked")
-					Map<String, Object> eventMap = (Map<String, Object>) payload;
-
-					// Get the event type
-					String eventType = (String) eventMap.get("type");
-					logger.info("Received event: " + eventType);
-
-					switch (eventType) {
-					case "USER_LIST":
-						@SuppressWarnings("unchecked")
-						List<Map<String, Object>> userMaps = (List<Map<String, Object>>) eventMap.get("users");
-						List<User> users = new ArrayList<>();
-
-						for (Map<String, Object> userMap : userMaps) {
-							User user = new User();
-							user.setId(((Number) userMap.get("id")).longValue());
-							user.setName((String) userMap.get("name"));
-							user.setEmail((String) userMap.get("email"));
-							users.add(user);
-						}
-
-						displayUsers(users);
-						break;
-
-					case "USER_CREATED":
-					case "USER_UPDATED":
-					case "GET_USER":
-						@SuppressWarnings("unchecked")
-						Map<String, Object> userMap = (Map<String, Object>) eventMap.get("user");
-						User user = new User();
-						user.setId(((Number) userMap.get("id")).longValue());
-						user.setName((String) userMap.get("name"));
-						user.setEmail((String) userMap.get("email"));
-
-						if (eventType.equals("USER_CREATED")) {
-							logger.info("User created: " + user.getName() + " (" + user.getEmail() + ")");
-						} else if (eventType.equals("USER_UPDATED")) {
-							logger.info("User updated: " + user.getName() + " (" + user.getEmail() + ")");
-						} else {
-							logger.info("User details: " + user.getName() + " (" + user.getEmail() + ")");
-						}
-						break;
-
-					case "USER_DELETED":
-						Number userId = (Number) eventMap.get("userId");
-						logger.info("User deleted: ID " + userId.longValue());
-						break;
-
-					case "ERROR":
-						String message = (String) eventMap.get("message");
-						Number code = (Number) eventMap.get("code");
-						logger.severe("Error (" + code + "): " + message);
-						break;
-
-					default:
-						logger.warning("Unknown event type: " + eventType);
-					}
-				} catch (Exception e) {
-					logger.severe("Error handling message: " + e.getMessage());
-					e.printStackTrace();
-				}
-			}
-		});
-	}
-
-	/**
-	 * Display a list of users
-	 */
-	private void displayUsers(List<User> users) {
-		logger.info("=== Users ===");
-		for (User user : users) {
-			logger.info(user.getId() + ": " + user.getName() + " (" + user.getEmail() + ")");
-		}
-		logger.info("============");
-	}
-
-	/**
-	 * Get all users
-	 */
-	public void getAllUsers() {
-		if (isConnected()) {
-			logger.info("Requesting all users...");
-			Map<String, Object> emptyRequest = new HashMap<>();
-			stompSession.send("/app/users.getAll", emptyRequest);
-		} else {
-			logger.warning("Not connected to WebSocket server");
-		}
-	}
-
-	/**
-	 * Get a user by ID
-	 */
-	public void getUser(Long id) {
-		if (isConnected()) {
-			logger.info("Requesting user with ID: " + id);
-			UserIdRequest request = new UserIdRequest(id);
-			stompSession.send("/app/users.get", request);
-		} else {
-			logger.warning("Not connected to WebSocket server");
-		}
-	}
-
-	/**
-	 * Create a new user
-	 */
-	public void createUser(String name, String email) {
-		if (isConnected()) {
-			logger.info("Creating user: " + name + " (" + email + ")");
-			UserDTO userDTO = new UserDTO(name, email);
-			stompSession.send("/app/users.create", userDTO);
-		} else {
-			logger.warning("Not connected to WebSocket server");
-		}
-	}
-
-	/**
-	 * Update an existing user
-	 */
-	public void updateUser(Long id, String name, String email) {
-		if (isConnected()) {
-			logger.info("Updating user with ID: " + id);
-			UserDTO userDTO = new UserDTO(name, email);
-			UpdateUserRequest request = new UpdateUserRequest(id, userDTO);
-			stompSession.send("/app/users.update", request);
-		} else {
-			logger.warning("Not connected to WebSocket server");
-		}
-	}
-
-	/**
-	 * Delete a user
-	 */
-	public void deleteUser(Long id) {
-		if (isConnected()) {
-			logger.info("Deleting user with ID: " + id);
-			UserIdRequest request = new UserIdRequest(id);
-			stompSession.send("/app/users.delete", request);
-		} else {
-			logger.warning("Not connected to WebSocket server");
-		}
-	}
-
-	/**
-	 * Check if connected to WebSocket server
-	 */
-	private boolean isConnected() {
-		return stompSession != null && stompSession.isConnected();
-	}
-
-	/**
-	 * Disconnect from WebSocket server
-	 */
-	public void disconnect() {
-		if (isConnected()) {
-			stompSession.disconnect();
-			logger.info("Disconnected from WebSocket server");
-		}
-	}
-
-	/**
-	 * Main method to run the client
-	 */
-	public static void main(String[] args) {
-		EventApiClient client = new EventApiClient("ws://localhost:8080/ws");
-
-		try {
-			// Connect to server
-			client.connect();
-
-			// Get all users to show current state
-			client.getAllUsers();
-
-			// Wait a moment for data to load
-			Thread.sleep(1000);
-
-			// Create a new user
-			client.createUser("Imran Gul", "imrangul@example.com");
-
-			// Wait for creation to complete
-			Thread.sleep(1000);
-
-			// Get all users to see the new user
-			client.getAllUsers();
-
-			// Wait a moment
-			Thread.sleep(1000);
-
-			// Update user with ID 2 (assuming it exists)
-			client.updateUser(2L, "Jane Wilson", "jane.wilson@example.com");
-
-			// Wait for update to complete
-			Thread.sleep(1000);
-
-			// Get the updated user
-			client.getUser(2L);
-
-			// Wait a moment
-			Thread.sleep(1000);
-
-			// Delete user with ID 3 (assuming it exists)
-			client.deleteUser(3L);
-
-			// Wait for deletion to complete
-			Thread.sleep(1000);
-
-			// Get all users to see the result
-			client.getAllUsers();
-
-			// Wait a moment for data to load
-			Thread.sleep(1000);
-
-			// Interactive mode
-			Scanner scanner = new Scanner(System.in);
-			String command = "";
-
-			System.out.println("\nEnter commands (or 'exit' to quit):");
-			System.out.println("- list : List all users");
-			System.out.println("- get [id] : Get a user by ID");
-			System.out.println("- create [name] [email] : Create a new user");
-			System.out.println("- update [id] [name] [email] : Update a user");
-			System.out.println("- delete [id] : Delete a user");
-
-			while (!command.equals("exit")) {
-				System.out.print("> ");
-				command = scanner.nextLine();
-
-				if (command.equals("list")) {
-					client.getAllUsers();
-				} else if (command.startsWith("get ")) {
-					String[] parts = command.split(" ", 2);
-					if (parts.length > 1) {
-						try {
-							Long id = Long.parseLong(parts[1]);
-							client.getUser(id);
-						} catch (NumberFormatException e) {
-							System.out.println("Invalid ID format");
-						}
-					}
-				} else if (command.startsWith("create ")) {
-					String[] parts = command.split(" ", 3);
-					if (parts.length > 2) {
-						client.createUser(parts[1], parts[2]);
-					} else {
-						System.out.println("Usage: create [name] [email]");
-					}
-				} else if (command.startsWith("update ")) {
-					String[] parts = command.split(" ", 4);
-					if (parts.length > 3) {
-						try {
-							Long id = Long.parseLong(parts[1]);
-							client.updateUser(id, parts[2], parts[3]);
-						} catch (NumberFormatException e) {
-							System.out.println("Invalid ID format");
-						}
-					} else {
-						System.out.println("Usage: update [id] [name] [email]");
-					}
-				} else if (command.startsWith("delete ")) {
-					String[] parts = command.split(" ", 2);
-					if (parts.length > 1) {
-						try {
-							Long id = Long.parseLong(parts[1]);
-							client.deleteUser(id);
-						} catch (NumberFormatException e) {
-							System.out.println("Invalid ID format");
-						}
-					}
-				} else if (!command.equals("exit")) {
-					System.out.println("Unknown command: " + command);
-				}
-
-				// Wait a moment for response
-				Thread.sleep(500);
-			}
-
-			scanner.close();
-
-		} catch (Exception e) {
-			logger.severe("Error: " + e.getMessage());
-			e.printStackTrace();
-		} finally {
-			// Disconnect
-			client.disconnect();
-		}
-	}
+package com.example.client;
+
+import com.example.eventapi.dto.ImportUsersRequest;
+import com.example.eventapi.dto.UpdateUserRequest;
+import com.example.eventapi.dto.UserDTO;
+import com.example.eventapi.dto.UserIdRequest;
+import com.example.eventapi.event.*;
+import com.example.eventapi.model.User;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.stomp.*;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.Transport;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import javax.websocket.ContainerProvider;
+import javax.websocket.WebSocketContainer;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+public class EventApiClient {
+	private static final Logger logger = Logger.getLogger(EventApiClient.class.getName());
+	public static final String SOCKJS_URL = "ws://localhost:8080/ws";
+	public static final String NATIVE_URL = "ws://localhost:8080/ws-native";
+	private static final int RECONNECT_ATTEMPTS = 30;
+	private static final long RECONNECT_DELAY_MILLIS = 1000;
+	// Same as the server's default eventapi.websocket.messageSizeLimit
+	static final int MESSAGE_SIZE_LIMIT = 1024 * 1024;
+	private final WebSocketStompClient stompClient;
+	private StompSession stompSession;
+	private final String serverUrl;
+	// Asks the server for CBOR payloads, which need a raw WebSocket rather than SockJS
+	private final boolean binary;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	// Sent with every request and echoed on the reply or broadcast it caused. Broadcasts
+	// reach every client, so the ids start with a prefix unique to this one.
+	private final String correlationPrefix = UUID.randomUUID().toString().substring(0, 8) + "-";
+	private final AtomicLong nextCorrelationId = new AtomicLong();
+	// Requests waiting for their response, by correlation id
+	private final Map<String, CompletableFuture<UserEvent>> inFlight = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "event-api-timeouts");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private volatile long requestTimeoutMillis = 10000;
+	// A WebSocket session takes one message at a time
+	private final Object sendLock = new Object();
+	// Local copy of all users, kept current from the change feed after followChanges()
+	private final Map<Long, User> view = new TreeMap<>();
+	// Seq the view reflects, or -1 while a snapshot is on its way (guarded by view)
+	private long viewSeq = -1;
+	// Changes that arrived before the snapshot or replay they follow (guarded by view)
+	private final List<UserEvent> pendingChanges = new ArrayList<>();
+	// Set while missed changes are replayed after a reconnect (guarded by view)
+	private boolean replaying;
+	private volatile boolean following;
+	private volatile boolean closing;
+	private final AtomicBoolean reconnecting = new AtomicBoolean();
+
+	/**
+	 * SockJS connects to /ws, after an info request, and wraps every frame in a JSON array.
+	 * NATIVE connects straight to /ws-native with a plain WebSocket, or to the raw WebSocket
+	 * the SockJS endpoint serves under /ws/websocket.
+	 */
+	public enum Endpoint { SOCKJS, NATIVE }
+
+	public EventApiClient(String serverUrl) {
+		this(serverUrl, false);
+	}
+
+	public EventApiClient(String serverUrl, boolean binary) {
+		// SockJS only carries text; its endpoint serves a raw WebSocket under /websocket
+		this(binary ? serverUrl + "/websocket" : serverUrl, binary ? Endpoint.NATIVE : Endpoint.SOCKJS, binary);
+	}
+
+	public EventApiClient(String serverUrl, Endpoint endpoint, boolean binary) {
+		if (binary && endpoint == Endpoint.SOCKJS) {
+			throw new IllegalArgumentException("CBOR payloads need the native endpoint; SockJS only carries text");
+		}
+		this.serverUrl = serverUrl;
+		this.binary = binary;
+		this.stompClient = new WebSocketStompClient(webSocketClient(endpoint, standardWebSocketClient()));
+		this.stompClient.setMessageConverter(messageConverter());
+		this.stompClient.setInboundMessageSizeLimit(MESSAGE_SIZE_LIMIT);
+	}
+
+	/**
+	 * The given WebSocket client, behind a SockJS client for the SockJS endpoint
+	 */
+	static WebSocketClient webSocketClient(Endpoint endpoint, WebSocketClient webSocketClient) {
+		if (endpoint == Endpoint.NATIVE) {
+			return webSocketClient;
+		}
+		List<Transport> transports = new ArrayList<>();
+		transports.add(new WebSocketTransport(webSocketClient));
+		return new SockJsClient(transports);
+	}
+
+	/**
+	 * A plain WebSocket client that takes messages up to MESSAGE_SIZE_LIMIT. Tomcat's client
+	 * closes the connection on a message over 8 KB, which a large user list, snapshot or
+	 * imported chunk is.
+	 */
+	static StandardWebSocketClient standardWebSocketClient() {
+		WebSocketContainer container = ContainerProvider.getWebSocketContainer();
+		container.setDefaultMaxTextMessageBufferSize(MESSAGE_SIZE_LIMIT);
+		container.setDefaultMaxBinaryMessageBufferSize(MESSAGE_SIZE_LIMIT);
+		return new StandardWebSocketClient(container);
+	}
+
+	/**
+	 * JSON for requests and for JSON replies; CBOR for replies sent as binary frames
+	 */
+	static MessageConverter messageConverter() {
+		MappingJackson2MessageConverter cbor = new MappingJackson2MessageConverter(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+		cbor.setObjectMapper(CBORMapper.builder().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES).build());
+		return new CompositeMessageConverter(Arrays.<MessageConverter>asList(new MappingJackson2MessageConverter(), cbor));
+	}
+
+	/**
+	 * Connect to the WebSocket server
+	 */
+	public void connect() throws InterruptedException, ExecutionException, TimeoutException {
+		logger.info("Connecting to WebSocket server at " + serverUrl);
+
+		final CountDownLatch connectLatch = new CountDownLatch(1);
+
+		StompSessionHandler sessionHandler = new StompSessionHandlerAdapter() {
+			@Override
+			public void afterConnected(StompSession session, StompHeaders connectedHeaders) {
+				logger.info("Connected to WebSocket server");
+				connectLatch.countDown();
+			}
+
+			@Override
+			public void handleException(StompSession session, StompCommand command, StompHeaders headers,
+					byte[] payload, Throwable exception) {
+				logger.severe("Error: " + exception.getMessage());
+				exception.printStackTrace();
+			}
+
+			@Override
+			public void handleTransportError(StompSession session, Throwable exception) {
+				// Responses to requests sent on this session will not arrive
+				failInFlight(new IllegalStateException("Connection lost", exception));
+				if (!closing) {
+					logger.warning("Connection lost: " + exception.getMessage());
+					scheduleReconnect();
+				}
+			}
+		};
+
+		StompHeaders connectHeaders = new StompHeaders();
+		if (binary) {
+			connectHeaders.set("accept-content-type", "application/cbor");
+		}
+		stompSession = stompClient.connect(serverUrl, new WebSocketHttpHeaders(), connectHeaders, sessionHandler)
+				.get(5, TimeUnit.SECONDS);
+
+		// Wait for connection to be established
+		connectLatch.await(5, TimeUnit.SECONDS);
+
+		// Create a custom message handler that properly handles the JSON response
+		StompFrameHandler eventHandler = new StompFrameHandler() {
+			@Override
+			public Type getPayloadType(StompHeaders headers) {
+				return UserEvent.class; // The type property picks the subclass
+			}
+
+			@Override
+			public void handleFrame(StompHeaders headers, Object payload) {
+				try {
+					onEvent((UserEvent) payload, headers.getFirst("correlation-id"));
+				} catch (Exception e) {
+					logger.severe("Error handling message: " + e.getMessage());
+					e.printStackTrace();
+				}
+			}
+		};
+
+		// Mutations made by any client are broadcast on the topic; query results and
+		// errors come back on this session's own queue
+		stompSession.subscribe("/topic/users", eventHandler);
+		stompSession.subscribe("/user/queue/users", eventHandler);
+
+		if (following) {
+			resumeChanges();
+		}
+	}
+
+	/**
+	 * Time allowed for each request's response before its future fails with a TimeoutException
+	 */
+	public void setRequestTimeout(long timeout, TimeUnit unit) {
+		this.requestTimeoutMillis = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Handle one event from the topic or this session's queue, completing the request it
+	 * answers, if it answers one of ours
+	 */
+	private void onEvent(UserEvent event, String correlationId) {
+		// Get the event type
+		String eventType = event.getType();
+		logger.info("Received event: " + eventType
+				+ (correlationId != null ? " (request " + correlationId + ")" : ""));
+
+		switch (eventType) {
+		case "USER_EVENT_BATCH":
+			// Several broadcasts coalesced by the server, at most one per user
+			UserEventBatch batch = (UserEventBatch) event;
+			logger.info("Batch of " + batch.getEvents().size() + " events for requests " + batch.getRequests().keySet());
+			for (UserEvent batched : batch.getEvents()) {
+				onEvent(batched, null);
+			}
+			// Each request gets the net change to its user, or the batch if nothing is left of it
+			for (Map.Entry<String, Long> request : batch.getRequests().entrySet()) {
+				UserEvent change = changeTo(batch, request.getValue());
+				complete(request.getKey(), change != null ? change : batch);
+			}
+			break;
+
+		case "USER_LIST":
+			displayUsers(((UserListEvent) event).getUsers());
+			break;
+
+		case "USER_SNAPSHOT":
+			UserSnapshotEvent snapshot = (UserSnapshotEvent) event;
+			onSnapshot(snapshot.getSeq(), snapshot.getUsers());
+			break;
+
+		case "USER_CREATED":
+			User created = ((UserCreatedEvent) event).getUser();
+			logger.info("User created: " + created.getName() + " (" + created.getEmail() + ")");
+			break;
+
+		case "USER_UPDATED":
+			User updated = ((UserUpdatedEvent) event).getUser();
+			logger.info("User updated: " + updated.getName() + " (" + updated.getEmail() + ")");
+			break;
+
+		case "GET_USER":
+			User user = ((GetUserEvent) event).getUser();
+			logger.info("User details: " + user.getName() + " (" + user.getEmail() + ")");
+			break;
+
+		case "USER_DELETED":
+			logger.info("User deleted: ID " + ((UserDeletedEvent) event).getUserId());
+			break;
+
+		case "USER_IMPORT_PROGRESS":
+			UserImportProgressEvent progress = (UserImportProgressEvent) event;
+			logger.info("Import " + progress.getImportId() + ": " + progress.getImported() + " users in "
+					+ progress.getChunks() + " chunks" + (progress.isDone() ? ", done" : ""));
+			break;
+
+		case "USER_IMPORT_COMPLETED":
+			// One broadcast per bulk import; the users themselves are on the change feed
+			UserImportCompletedEvent completed = (UserImportCompletedEvent) event;
+			logger.info("Import " + completed.getImportId() + " completed: " + completed.getImported() + " users");
+			break;
+
+		case "USER_PERSISTED":
+			// Write-behind servers confirm changes once they are in the database
+			UserPersistedEvent persisted = (UserPersistedEvent) event;
+			logger.info("Changes up to " + persisted.getSeq() + " persisted for requests " + persisted.getRequests());
+			break;
+
+		case "ERROR":
+			ErrorEvent error = (ErrorEvent) event;
+			logger.severe("Error (" + error.getCode() + "): " + error.getMessage());
+			break;
+
+		default:
+			logger.warning("Unknown event type: " + eventType);
+		}
+		complete(correlationId, event);
+	}
+
+	private void complete(String correlationId, UserEvent event) {
+		// Unknown ids belong to other clients' requests, or to ones that already timed out
+		CompletableFuture<UserEvent> future = correlationId != null ? inFlight.get(correlationId) : null;
+		if (future == null) {
+			return;
+		}
+		if (event instanceof ErrorEvent) {
+			ErrorEvent error = (ErrorEvent) event;
+			future.completeExceptionally(new RequestFailedException(error.getCode(), error.getMessage()));
+		} else {
+			future.complete(event);
+		}
+	}
+
+	private void failInFlight(Throwable cause) {
+		for (CompletableFuture<UserEvent> future : inFlight.values()) {
+			future.completeExceptionally(cause);
+		}
+	}
+
+	private static UserEvent changeTo(UserEventBatch batch, Long userId) {
+		for (UserEvent change : batch.getEvents()) {
+			if (change instanceof UserCreatedEvent && ((UserCreatedEvent) change).getUser().getId().equals(userId)
+					|| change instanceof UserUpdatedEvent && ((UserUpdatedEvent) change).getUser().getId().equals(userId)
+					|| change instanceof UserDeletedEvent && ((UserDeletedEvent) change).getUserId().equals(userId)) {
+				return change;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reconnect in the background after the connection drops; the change feed resumes
+	 * with a replay of what was missed
+	 */
+	private void scheduleReconnect() {
+		if (closing || !reconnecting.compareAndSet(false, true)) {
+			return;
+		}
+		Thread thread = new Thread(() -> {
+			try {
+				for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS && !closing; attempt++) {
+					Thread.sleep(RECONNECT_DELAY_MILLIS);
+					try {
+						connect();
+						return;
+					} catch (Exception e) {
+						logger.warning("Reconnect attempt " + attempt + " failed: " + e.getMessage());
+					}
+				}
+				logger.severe("Giving up reconnecting to " + serverUrl);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				reconnecting.set(false);
+			}
+		}, "event-api-reconnect");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Send a request and return a future for its response, which fails with a
+	 * RequestFailedException on an ERROR response and a TimeoutException if none arrives
+	 */
+	private CompletableFuture<UserEvent> request(String destination, Object payload) {
+		CompletableFuture<UserEvent> future = new CompletableFuture<>();
+		if (!isConnected()) {
+			future.completeExceptionally(new IllegalStateException("Not connected to WebSocket server"));
+			return future;
+		}
+
+		String correlationId = nextCorrelationId();
+		long timeoutMillis = requestTimeoutMillis;
+		inFlight.put(correlationId, future);
+		ScheduledFuture<?> timeout = timeouts.schedule(() -> future.completeExceptionally(
+				new TimeoutException("No response to " + destination + " within " + timeoutMillis + "ms")),
+				timeoutMillis, TimeUnit.MILLISECONDS);
+		future.whenComplete((event, failure) -> {
+			inFlight.remove(correlationId);
+			timeout.cancel(false);
+		});
+
+		try {
+			send(destination, payload, correlationId);
+		} catch (RuntimeException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Send a request tagged with a fresh correlation id, without waiting for its response
+	 */
+	private void send(String destination, Object payload) {
+		send(destination, payload, nextCorrelationId());
+	}
+
+	private void send(String destination, Object payload, String correlationId) {
+		StompHeaders headers = new StompHeaders();
+		headers.setDestination(destination);
+		headers.set("correlation-id", correlationId);
+		synchronized (sendLock) {
+			stompSession.send(headers, payload);
+		}
+	}
+
+	private String nextCorrelationId() {
+		return correlationPrefix + nextCorrelationId.incrementAndGet();
+	}
+
+	/**
+	 * Keep a local view of all users: load one snapshot, then apply numbered changes
+	 */
+	public void followChanges() {
+		if (isConnected()) {
+			logger.info("Following the change feed...");
+			following = true;
+			resumeChanges();
+		} else {
+			logger.warning("Not connected to WebSocket server");
+		}
+	}
+
+	/**
+	 * Subscribe to the change feed on the current session, then load a snapshot or, after
+	 * a reconnect, replay the changes missed since the view's seq
+	 */
+	private void resumeChanges() {
+		stompSession.subscribe("/topic/users.changes", new StompFrameHandler() {
+			@Override
+			public Type getPayloadType(StompHeaders headers) {
+				return UserEvent.class;
+			}
+
+			@Override
+			public void handleFrame(StompHeaders headers, Object payload) {
+				synchronized (view) {
+					if (viewSeq < 0 || replaying) {
+						pendingChanges.add((UserEvent) payload);
+					} else {
+						applyChange((UserEvent) payload, false);
+					}
+				}
+			}
+		});
+		stompSession.subscribe("/user/queue/users.replay", new StompFrameHandler() {
+			@Override
+			public Type getPayloadType(StompHeaders headers) {
+				return UserEvent.class;
+			}
+
+			@Override
+			public void handleFrame(StompHeaders headers, Object payload) {
+				onReplayed((UserEvent) payload);
+			}
+		});
+
+		// Subscribed first, so no change between the snapshot or replay and the live feed is missed
+		synchronized (view) {
+			if (viewSeq < 0) {
+				send("/app/users.snapshot", new HashMap<String, Object>());
+			} else {
+				logger.info("Replaying changes after seq " + viewSeq);
+				replaying = true;
+				Map<String, Object> request = new HashMap<>();
+				request.put("afterSeq", viewSeq);
+				send("/app/users.replay", request);
+			}
+		}
+	}
+
+	private void onSnapshot(long seq, List<User> users) {
+		synchronized (view) {
+			view.clear();
+			for (User user : users) {
+				view.put(user.getId(), user);
+			}
+			viewSeq = seq;
+			replaying = false;
+			logger.info("Loaded snapshot at seq " + seq + " with " + users.size() + " users");
+			applyPending();
+		}
+	}
+
+	private void onReplayed(UserEvent event) {
+		synchronized (view) {
+			String type = event.getType();
+			if (type.equals("ERROR")) {
+				// Too far behind, or the server restarted
+				logger.warning("Replay failed: " + ((ErrorEvent) event).getMessage() + ", reloading");
+				replaying = false;
+				viewSeq = -1;
+				send("/app/users.snapshot", new HashMap<String, Object>());
+			} else if (viewSeq < 0) {
+				// A gap during the replay already asked for a snapshot
+				replaying = false;
+			} else if (type.equals("REPLAY_END")) {
+				logger.info("Replayed changes up to seq " + ((ReplayEndEvent) event).getSeq());
+				replaying = false;
+				applyPending();
+			} else {
+				applyChange(event, true);
+			}
+		}
+	}
+
+	/**
+	 * Apply the changes buffered during a snapshot or replay; the caller holds the view lock
+	 */
+	private void applyPending() {
+		List<UserEvent> buffered = new ArrayList<>(pendingChanges);
+		pendingChanges.clear();
+		for (UserEvent change : buffered) {
+			applyChange(change, true);
+			if (viewSeq < 0) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Apply one change to the view; the caller holds the view lock
+	 */
+	private void applyChange(UserEvent change, boolean buffered) {
+		long seq = seqOf(change);
+		if (buffered && seq <= viewSeq) {
+			// Already part of the snapshot or replay
+			return;
+		}
+		if (seq != viewSeq + 1) {
+			// Missed or reordered changes, or a restarted server: start over from a snapshot
+			logger.warning("Change feed gap: expected seq " + (viewSeq + 1) + " but got " + seq + ", reloading");
+			viewSeq = -1;
+			replaying = false;
+			pendingChanges.clear();
+			send("/app/users.snapshot", new HashMap<String, Object>());
+			return;
+		}
+
+		String type = change.getType();
+		if (change instanceof UserDeletedEvent) {
+			view.remove(((UserDeletedEvent) change).getUserId());
+		} else if (change instanceof UserCreatedEvent) {
+			User user = ((UserCreatedEvent) change).getUser();
+			view.put(user.getId(), user);
+		} else if (change instanceof UsersImportedEvent) {
+			for (User user : ((UsersImportedEvent) change).getUsers()) {
+				view.put(user.getId(), user);
+			}
+		} else {
+			User user = ((UserUpdatedEvent) change).getUser();
+			view.put(user.getId(), user);
+		}
+		viewSeq = seq;
+		logger.info("Applied change " + seq + " (" + type + "), view has " + view.size() + " users");
+	}
+
+	private static long seqOf(UserEvent change) {
+		if (change instanceof UserCreatedEvent) {
+			return ((UserCreatedEvent) change).getSeq();
+		} else if (change instanceof UserUpdatedEvent) {
+			return ((UserUpdatedEvent) change).getSeq();
+		} else if (change instanceof UsersImportedEvent) {
+			return ((UsersImportedEvent) change).getSeq();
+		}
+		return ((UserDeletedEvent) change).getSeq();
+	}
+
+	/**
+	 * Display a list of users
+	 */
+	private void displayUsers(List<User> users) {
+		logger.info("=== Users ===");
+		for (User user : users) {
+			logger.info(user.getId() + ": " + user.getName() + " (" + user.getEmail() + ")");
+		}
+		logger.info("============");
+	}
+
+	/**
+	 * Get all users
+	 */
+	public CompletableFuture<List<User>> getAllUsers() {
+		logger.info("Requesting all users...");
+		Map<String, Object> emptyRequest = new HashMap<>();
+		return request("/app/users.getAll", emptyRequest)
+				.thenApply(event -> ((UserListEvent) event).getUsers());
+	}
+
+	/**
+	 * Get a user by ID; fails with a RequestFailedException (404) if there is none
+	 */
+	public CompletableFuture<User> getUser(Long id) {
+		logger.info("Requesting user with ID: " + id);
+		UserIdRequest request = new UserIdRequest(id);
+		return request("/app/users.get", request)
+				.thenApply(event -> ((GetUserEvent) event).getUser());
+	}
+
+	/**
+	 * Create a new user and return it with its ID
+	 */
+	public CompletableFuture<User> createUser(String name, String email) {
+		logger.info("Creating user: " + name + " (" + email + ")");
+		UserDTO userDTO = new UserDTO(name, email);
+		return request("/app/users.create", userDTO).thenApply(EventApiClient::userOf);
+	}
+
+	/**
+	 * Update an existing user; fails with a RequestFailedException (404) if there is none
+	 */
+	public CompletableFuture<User> updateUser(Long id, String name, String email) {
+		logger.info("Updating user with ID: " + id);
+		UserDTO userDTO = new UserDTO(name, email);
+		UpdateUserRequest request = new UpdateUserRequest(id, userDTO);
+		return request("/app/users.update", request).thenApply(EventApiClient::userOf);
+	}
+
+	/**
+	 * Delete a user; fails with a RequestFailedException (404) if there is none
+	 */
+	public CompletableFuture<Void> deleteUser(Long id) {
+		logger.info("Deleting user with ID: " + id);
+		UserIdRequest request = new UserIdRequest(id);
+		return request("/app/users.delete", request).thenApply(event -> null);
+	}
+
+	/**
+	 * Import users in chunks of chunkSize, each sent once the one before is applied, and
+	 * return how many were imported. A failed chunk fails the import; the chunks before it
+	 * stay imported.
+	 */
+	public CompletableFuture<Long> importUsers(List<UserDTO> users, int chunkSize) {
+		String importId = nextCorrelationId();
+		logger.info("Importing " + users.size() + " users as " + importId);
+		return importChunk(importId, users, chunkSize, 0);
+	}
+
+	private CompletableFuture<Long> importChunk(String importId, List<UserDTO> users, int chunkSize, int from) {
+		int to = Math.min(users.size(), from + chunkSize);
+		boolean last = to == users.size();
+		ImportUsersRequest request = new ImportUsersRequest(importId, new ArrayList<>(users.subList(from, to)), last);
+		return request("/app/users.import", request).thenCompose(event -> last
+				? CompletableFuture.completedFuture(((UserImportProgressEvent) event).getImported())
+				: importChunk(importId, users, chunkSize, to));
+	}
+
+	/**
+	 * The user as a create or update left it; null if a coalesced broadcast shows it
+	 * deleted again by the time it was sent
+	 */
+	private static User userOf(UserEvent event) {
+		if (event instanceof UserCreatedEvent) {
+			return ((UserCreatedEvent) event).getUser();
+		} else if (event instanceof UserUpdatedEvent) {
+			return ((UserUpdatedEvent) event).getUser();
+		}
+		return null;
+	}
+
+	/**
+	 * Check if connected to WebSocket server
+	 */
+	private boolean isConnected() {
+		return stompSession != null && stompSession.isConnected();
+	}
+
+	/**
+	 * Disconnect from WebSocket server
+	 */
+	public void disconnect() {
+		closing = true;
+		failInFlight(new IllegalStateException("Disconnected"));
+		timeouts.shutdownNow();
+		if (isConnected()) {
+			stompSession.disconnect();
+			logger.info("Disconnected from WebSocket server");
+		}
+	}
+
+	/**
+	 * Main method to run the client
+	 *
+	 * Usage: EventApiClient [url] [json|cbor] [sockjs|native]. CBOR defaults to the native
+	 * endpoint, and the url to the one of the endpoint chosen.
+	 */
+	public static void main(String[] args) {
+		boolean cbor = args.length > 1 && args[1].equals("cbor");
+		Endpoint endpoint = args.length > 2 ? Endpoint.valueOf(args[2].toUpperCase())
+				: cbor ? Endpoint.NATIVE : Endpoint.SOCKJS;
+		String url = args.length > 0 ? args[0] : endpoint == Endpoint.NATIVE ? NATIVE_URL : SOCKJS_URL;
+		EventApiClient client = new EventApiClient(url, endpoint, cbor);
+
+		try {
+			// Connect to server
+			client.connect();
+
+			// Keep a local view current from the change feed
+			client.followChanges();
+
+			// Each step waits for the server's answer to the one before
+
+			// Get all users to show current state
+			await(client.getAllUsers());
+
+			// Create a new user
+			await(client.createUser("Imran Gul", "imrangul@example.com"));
+
+			// Get all users to see the new user
+			await(client.getAllUsers());
+
+			// Update user with ID 2 (assuming it exists)
+			await(client.updateUser(2L, "Jane Wilson", "jane.wilson@example.com"));
+
+			// Get the updated user
+			await(client.getUser(2L));
+
+			// Delete user with ID 3 (assuming it exists)
+			await(client.deleteUser(3L));
+
+			// Get all users to see the result
+			await(client.getAllUsers());
+
+			// Interactive mode
+			Scanner scanner = new Scanner(System.in);
+			String command = "";
+
+			System.out.println("\nEnter commands (or 'exit' to quit):");
+			System.out.println("- list : List all users");
+			System.out.println("- get [id] : Get a user by ID");
+			System.out.println("- create [name] [email] : Create a new user");
+			System.out.println("- update [id] [name] [email] : Update a user");
+			System.out.println("- delete [id] : Delete a user");
+			System.out.println("- import [count] : Import that many generated users, 1000 per chunk");
+
+			while (!command.equals("exit")) {
+				System.out.print("> ");
+				command = scanner.nextLine();
+				CompletableFuture<?> response = null;
+
+				if (command.equals("list")) {
+					response = client.getAllUsers();
+				} else if (command.startsWith("get ")) {
+					String[] parts = command.split(" ", 2);
+					if (parts.length > 1) {
+						try {
+							Long id = Long.parseLong(parts[1]);
+							response = client.getUser(id);
+						} catch (NumberFormatException e) {
+							System.out.println("Invalid ID format");
+						}
+					}
+				} else if (command.startsWith("create ")) {
+					String[] parts = command.split(" ", 3);
+					if (parts.length > 2) {
+						response = client.createUser(parts[1], parts[2]);
+					} else {
+						System.out.println("Usage: create [name] [email]");
+					}
+				} else if (command.startsWith("update ")) {
+					String[] parts = command.split(" ", 4);
+					if (parts.length > 3) {
+						try {
+							Long id = Long.parseLong(parts[1]);
+							response = client.updateUser(id, parts[2], parts[3]);
+						} catch (NumberFormatException e) {
+							System.out.println("Invalid ID format");
+						}
+					} else {
+						System.out.println("Usage: update [id] [name] [email]");
+					}
+				} else if (command.startsWith("delete ")) {
+					String[] parts = command.split(" ", 2);
+					if (parts.length > 1) {
+						try {
+							Long id = Long.parseLong(parts[1]);
+							response = client.deleteUser(id);
+						} catch (NumberFormatException e) {
+							System.out.println("Invalid ID format");
+						}
+					}
+				} else if (command.startsWith("import ")) {
+					try {
+						int count = Integer.parseInt(command.substring("import ".length()).trim());
+						List<UserDTO> users = new ArrayList<>();
+						for (int i = 1; i <= count; i++) {
+							users.add(new UserDTO("Imported " + i, "imported" + i + "@example.com"));
+						}
+						response = client.importUsers(users, 1000);
+					} catch (NumberFormatException e) {
+						System.out.println("Usage: import [count]");
+					}
+				} else if (!command.equals("exit")) {
+					System.out.println("Unknown command: " + command);
+				}
+
+				if (response != null) {
+					await(response);
+				}
+			}
+
+			scanner.close();
+
+		} catch (Exception e) {
+			logger.severe("Error: " + e.getMessage());
+			e.printStackTrace();
+		} finally {
+			// Disconnect
+			client.disconnect();
+		}
+	}
+
+	/**
+	 * Wait for a response; a failed request is logged rather than ending the session
+	 */
+	private static <T> T await(CompletableFuture<T> response) throws InterruptedException {
+		try {
+			return response.get();
+		} catch (ExecutionException e) {
+			logger.severe("Request failed: " + e.getCause().getMessage());
+			return null;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+package com.example.client;
+
+import com.example.eventapi.dto.UserDTO;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.Transport;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Frames and bytes delivered to many sessions when each of them queries at once.
+ *
+ * Every session subscribes the way EventApiClient does, to /topic/users and
+ * /user/queue/users. In the first phase every session sends the given number of
+ * users.getAll requests; in the second, one session creates users. Each phase reports
+ * the frames and STOMP frame bytes (command, headers and body) received over all
+ * sessions and the time until the last one arrived. With per-session replies the first phase delivers sessions x requests
+ * frames; broadcasting the replies would deliver sessions x sessions x requests.
+ *
+ * Usage: FanOutBenchmark [sessions=200] [requests=2] [creates=5] [url=ws://localhost:8080/ws]
+ */
+public class FanOutBenchmark {
+	private static final Logger logger = Logger.getLogger(FanOutBenchmark.class.getName());
+
+	// A phase ends once no frame has arrived for this long
+	private static final long QUIET_NANOS = TimeUnit.SECONDS.toNanos(2);
+	private static final long PHASE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+	private final AtomicLong frames = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong lastFrameNanos = new AtomicLong();
+
+	private final StompFrameHandler counter = new StompFrameHandler() {
+		@Override
+		public Type getPayloadType(StompHeaders headers) {
+			return Map.class;
+		}
+
+		@Override
+		public void handleFrame(StompHeaders headers, Object payload) {
+			frames.incrementAndGet();
+			bytes.addAndGet(frameBytes(headers));
+			lastFrameNanos.set(System.nanoTime());
+		}
+	};
+
+	public static void main(String[] args) throws Exception {
+		int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		int creates = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		String url = args.length > 3 ? args[3] : "ws://localhost:8080/ws";
+
+		new FanOutBenchmark().run(url, sessions, requests, creates);
+	}
+
+	private void run(String url, int sessionCount, int requests, int creates) throws Exception {
+		List<Transport> transports = new ArrayList<>();
+		transports.add(new WebSocketTransport(new StandardWebSocketClient()));
+		WebSocketStompClient stompClient = new WebSocketStompClient(new SockJsClient(transports));
+		stompClient.setMessageConverter(new MappingJackson2MessageConverter());
+		stompClient.setInboundMessageSizeLimit(16 * 1024 * 1024);
+
+		List<StompSession> sessions = new ArrayList<>();
+		long connectStart = System.nanoTime();
+		for (int i = 0; i < sessionCount; i++) {
+			StompSession session = stompClient.connect(url, new WebSocketHttpHeaders(), new StompSessionHandlerAdapter() {
+			}).get(10, TimeUnit.SECONDS);
+			session.subscribe("/topic/users", counter);
+			session.subscribe("/user/queue/users", counter);
+			sessions.add(session);
+		}
+		logger.info("Connected " + sessionCount + " sessions in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart) + "ms");
+		// Subscriptions are not acknowledged; give the broker time to register them
+		Thread.sleep(1000);
+
+		StringBuilder summary = new StringBuilder("\n");
+		summary.append(String.format("%-28s %10s %12s %14s %10s%n",
+				"phase", "frames", "bytes", "frames/session", "ms"));
+		try {
+			long start = startPhase();
+			for (int r = 0; r < requests; r++) {
+				for (StompSession session : sessions) {
+					session.send("/app/users.getAll", Collections.emptyMap());
+				}
+			}
+			endPhase(summary, sessionCount + " x " + requests + " users.getAll", sessionCount, start);
+
+			start = startPhase();
+			for (int c = 0; c < creates; c++) {
+				sessions.get(0).send("/app/users.create", new UserDTO("Fan Out " + c, "fanout" + c + "@example.com"));
+			}
+			endPhase(summary, creates + " users.create", sessionCount, start);
+		} finally {
+			for (StompSession session : sessions) {
+				session.disconnect();
+			}
+			stompClient.stop();
+		}
+		logger.info(summary.toString());
+	}
+
+	// Size of the MESSAGE frame as the broker encoded it: command, header lines, blank line, body and NUL
+	private static long frameBytes(StompHeaders headers) {
+		long size = "MESSAGE\n\n".length() + Math.max(0, headers.getContentLength()) + 1;
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			for (String value : header.getValue()) {
+				size += header.getKey().length() + 1 + value.length() + 1;
+			}
+		}
+		return size;
+	}
+
+	private long startPhase() {
+		frames.set(0);
+		bytes.set(0);
+		long now = System.nanoTime();
+		lastFrameNanos.set(now);
+		return now;
+	}
+
+	private void endPhase(StringBuilder summary, String phase, int sessionCount, long start) throws InterruptedException {
+		while (System.nanoTime() - lastFrameNanos.get() < QUIET_NANOS && System.nanoTime() - start < PHASE_TIMEOUT_NANOS) {
+			Thread.sleep(100);
+		}
+		summary.append(String.format("%-28s %10d %12d %14.1f %10d%n",
+				phase, frames.get(), bytes.get(), (double) frames.get() / sessionCount,
+				TimeUnit.NANOSECONDS.toMillis(lastFrameNanos.get() - start)));
+	}
+}
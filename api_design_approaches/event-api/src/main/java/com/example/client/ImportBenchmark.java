@@ -0,0 +1,221 @@
+package com.example.client;
+
+import com.example.client.EventApiClient.Endpoint;
+import com.example.eventapi.dto.ImportUsersRequest;
+import com.example.eventapi.dto.UserDTO;
+import com.example.eventapi.event.ErrorEvent;
+import com.example.eventapi.event.UserEvent;
+import com.example.eventapi.event.UserImportProgressEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Bulk loading users with users.create one at a time against users.import in chunks.
+ *
+ * One session loads the users while a few listener sessions follow /topic/users and the
+ * change feed on /topic/users.changes, as other clients would. Creates are sent with up
+ * to 64 in flight; import chunks one after another, each once the progress event of the
+ * one before is back. For every method the report gives users per second, the server's
+ * CPU time per user, read from GET /jvm/stats, and the frames each listener got on the
+ * topic and on the change feed. A quarter-size run of each method goes first, unreported.
+ *
+ * Usage: ImportBenchmark [users=20000] [methods=create,100,1000] [listeners=4] [server=ws://localhost:8080]
+ */
+public class ImportBenchmark {
+	private static final Logger logger = Logger.getLogger(ImportBenchmark.class.getName());
+
+	private static final int CREATE_WINDOW = 64;
+	private static final long REPLY_TIMEOUT_SECONDS = 30;
+
+	private final String server;
+	private final String statsUrl;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final AtomicLong topicFrames = new AtomicLong();
+	private final AtomicLong changeFrames = new AtomicLong();
+	private final AtomicLong nextRun = new AtomicLong();
+
+	public ImportBenchmark(String server) {
+		this.server = server;
+		this.statsUrl = server.replaceFirst("^ws", "http") + "/jvm/stats";
+	}
+
+	public static void main(String[] args) throws Exception {
+		int users = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		String[] methods = (args.length > 1 ? args[1] : "create,100,1000").split(",");
+		int listeners = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		String server = args.length > 3 ? args[3] : "ws://localhost:8080";
+
+		ImportBenchmark benchmark = new ImportBenchmark(server);
+		List<WebSocketStompClient> clients = new ArrayList<>();
+		for (int i = 0; i < listeners; i++) {
+			WebSocketStompClient stompClient = stompClient();
+			StompSession session = connect(stompClient, server);
+			session.subscribe("/topic/users", benchmark.counter(benchmark.topicFrames));
+			session.subscribe("/topic/users.changes", benchmark.counter(benchmark.changeFrames));
+			clients.add(stompClient);
+		}
+
+		StringBuilder summary = new StringBuilder(String.format("%n%d users, %d listeners%n", users, listeners));
+		summary.append(String.format("%-12s %9s %12s %14s %15s%n",
+				"method", "users/s", "server(us)/u", "topic frames/l", "change frames/l"));
+		WebSocketStompClient stompClient = stompClient();
+		StompSession session = connect(stompClient, server);
+		try {
+			for (String method : methods) {
+				// Warm-up, reported to nobody
+				benchmark.load(session, method, Math.max(1, users / 4));
+				summary.append(benchmark.measure(session, method, users, listeners));
+			}
+		} finally {
+			session.disconnect();
+			stompClient.stop();
+			for (WebSocketStompClient client : clients) {
+				client.stop();
+			}
+		}
+		logger.info(summary.toString());
+	}
+
+	private String measure(StompSession session, String method, int users, int listeners) throws Exception {
+		// Let the listeners finish with the warm-up before counting
+		Thread.sleep(1000);
+		topicFrames.set(0);
+		changeFrames.set(0);
+		long serverCpuStart = serverCpuNanos();
+		long start = System.nanoTime();
+		load(session, method, users);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		double serverCpu = (serverCpuNanos() - serverCpuStart) / 1000.0 / users;
+		Thread.sleep(1000);
+		return String.format("%-12s %9.0f %12.1f %14.1f %15.1f%n", method.equals("create") ? "create" : "import " + method,
+				users / seconds, serverCpu, (double) topicFrames.get() / listeners, (double) changeFrames.get() / listeners);
+	}
+
+	// Returns once the server has answered for every user
+	private void load(StompSession session, String method, int users) throws Exception {
+		String prefix = "r" + nextRun.incrementAndGet() + "-";
+		BlockingQueue<UserEvent> replies = new LinkedBlockingQueue<>();
+		Semaphore inFlight = new Semaphore(CREATE_WINDOW);
+		StompSession.Subscription topic = session.subscribe("/topic/users", new StompFrameHandler() {
+			@Override
+			public Type getPayloadType(StompHeaders headers) {
+				return UserEvent.class;
+			}
+
+			@Override
+			public void handleFrame(StompHeaders headers, Object payload) {
+				String correlationId = headers.getFirst("correlation-id");
+				if (correlationId != null && correlationId.startsWith(prefix)) {
+					inFlight.release();
+				}
+			}
+		});
+		StompSession.Subscription queue = session.subscribe("/user/queue/users", new StompFrameHandler() {
+			@Override
+			public Type getPayloadType(StompHeaders headers) {
+				return UserEvent.class;
+			}
+
+			@Override
+			public void handleFrame(StompHeaders headers, Object payload) {
+				// Not USER_PERSISTED, which a write-behind server sends as well
+				if (payload instanceof UserImportProgressEvent || payload instanceof ErrorEvent) {
+					replies.add((UserEvent) payload);
+				}
+			}
+		});
+		// The subscriptions have to reach the broker before the replies do
+		Thread.sleep(200);
+
+		try {
+			if (method.equals("create")) {
+				for (int i = 0; i < users; i++) {
+					inFlight.acquire();
+					send(session, "/app/users.create", prefix + i, user(prefix, i));
+				}
+				if (!inFlight.tryAcquire(CREATE_WINDOW, REPLY_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+					throw new IllegalStateException("Not every create was broadcast");
+				}
+				return;
+			}
+
+			int chunkSize = Integer.parseInt(method);
+			for (int from = 0, chunk = 0; from < users; from += chunkSize, chunk++) {
+				List<UserDTO> chunkUsers = new ArrayList<>();
+				for (int i = from; i < Math.min(users, from + chunkSize); i++) {
+					chunkUsers.add(user(prefix, i));
+				}
+				boolean last = from + chunkSize >= users;
+				send(session, "/app/users.import", prefix + chunk, new ImportUsersRequest(prefix, chunkUsers, last));
+				UserEvent reply = replies.poll(REPLY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+				if (reply == null || reply instanceof ErrorEvent) {
+					throw new IllegalStateException("Chunk " + chunk + " failed: "
+							+ (reply == null ? "no reply" : ((ErrorEvent) reply).getMessage()));
+				}
+			}
+		} finally {
+			topic.unsubscribe();
+			queue.unsubscribe();
+		}
+	}
+
+	private static UserDTO user(String prefix, int i) {
+		return new UserDTO("Bulk " + prefix + i, "bulk" + prefix + i + "@example.com");
+	}
+
+	private static void send(StompSession session, String destination, String correlationId, Object payload) {
+		StompHeaders headers = new StompHeaders();
+		headers.setDestination(destination);
+		headers.set("correlation-id", correlationId);
+		session.send(headers, payload);
+	}
+
+	private StompFrameHandler counter(AtomicLong frames) {
+		return new StompFrameHandler() {
+			@Override
+			public Type getPayloadType(StompHeaders headers) {
+				return UserEvent.class;
+			}
+
+			@Override
+			public void handleFrame(StompHeaders headers, Object payload) {
+				frames.incrementAndGet();
+			}
+		};
+	}
+
+	private static WebSocketStompClient stompClient() {
+		WebSocketStompClient stompClient = new WebSocketStompClient(
+				EventApiClient.webSocketClient(Endpoint.NATIVE, EventApiClient.standardWebSocketClient()));
+		stompClient.setMessageConverter(EventApiClient.messageConverter());
+		stompClient.setInboundMessageSizeLimit(EventApiClient.MESSAGE_SIZE_LIMIT);
+		return stompClient;
+	}
+
+	private static StompSession connect(WebSocketStompClient stompClient, String server) throws Exception {
+		return stompClient.connect(server + "/ws-native", new StompSessionHandlerAdapter() {
+		}).get(10, TimeUnit.SECONDS);
+	}
+
+	private long serverCpuNanos() throws IOException {
+		Map<?, ?> stats = objectMapper.readValue(new URL(statsUrl), Map.class);
+		return ((Number) stats.get("processCpuNanos")).longValue();
+	}
+}
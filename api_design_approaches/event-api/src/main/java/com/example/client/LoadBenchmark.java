@@ -0,0 +1,340 @@
+package com.example.client;
+
+import com.example.eventapi.dto.UpdateUserRequest;
+import com.example.eventapi.dto.UserDTO;
+import com.example.eventapi.dto.UserIdRequest;
+import com.example.eventapi.metrics.LatencyHistogram;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.converter.AbstractMessageConverter;
+import org.springframework.messaging.converter.CompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.converter.MessageConverter;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.Transport;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.lang.reflect.Type;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Broadcast latency and server load with many sessions, at rising request rates.
+ *
+ * Opens the given number of sessions, all subscribed to /topic/users and their own
+ * /user/queue/users, then runs one step per target rate. During a step a few of the
+ * sessions send a mix of 20% users.create, 60% users.update and 20% users.get at that
+ * rate. Every request carries a correlation id, which the server copies onto the
+ * broadcast or reply it causes; the time from sending a request to each session
+ * receiving its broadcast is the publish-to-receive latency. users.get replies are
+ * timed separately. Server heap and threads are sampled from GET /jvm/stats each second.
+ *
+ * The knee is the highest rate before the first step that delivers less than 95% of
+ * the expected frames, or whose p99 latency is over three times that of the first step
+ * and over 50ms; steps stop there. Run the server without coalescing: batches carry no
+ * correlation header.
+ *
+ * Usage: LoadBenchmark [sessions=1000] [rates=50,100,200,400,800] [stepSeconds=10]
+ *                      [transport=sockjs|raw] [url=ws://localhost:8080/ws]
+ */
+public class LoadBenchmark {
+	private static final Logger logger = Logger.getLogger(LoadBenchmark.class.getName());
+
+	private static final int DRIVERS = 10;
+	private static final int SEED_USERS = 100;
+	private static final long TICK_MILLIS = 10;
+	private static final long QUIET_NANOS = TimeUnit.SECONDS.toNanos(2);
+	private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final String statsUrl;
+	// Send time of every request of the current step, by correlation id
+	private final Map<String, Long> sentAt = new ConcurrentHashMap<>();
+	private final AtomicLong nextCorrelationId = new AtomicLong();
+	// Ids of users this run created, for updates and gets to pick from
+	private final List<Long> userIds = new CopyOnWriteArrayList<>();
+	private final LatencyHistogram broadcastLatency = new LatencyHistogram();
+	private final LatencyHistogram getLatency = new LatencyHistogram();
+	private final AtomicLong frames = new AtomicLong();
+	private final AtomicLong lastFrameNanos = new AtomicLong();
+
+	private LoadBenchmark(String url) {
+		this.statsUrl = url.replaceFirst("^ws", "http").replaceFirst("/ws$", "") + "/jvm/stats";
+	}
+
+	public static void main(String[] args) throws Exception {
+		int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		String rates = args.length > 1 ? args[1] : "50,100,200,400,800";
+		int stepSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		boolean raw = args.length > 3 && args[3].equals("raw");
+		String url = args.length > 4 ? args[4] : "ws://localhost:8080/ws";
+
+		new LoadBenchmark(url).run(url, sessions, rates.split(","), stepSeconds, raw);
+	}
+
+	private void run(String url, int sessionCount, String[] rates, int stepSeconds, boolean raw) throws Exception {
+		WebSocketStompClient stompClient;
+		String target = url;
+		if (raw) {
+			stompClient = new WebSocketStompClient(new StandardWebSocketClient());
+			target = url + "/websocket";
+		} else {
+			List<Transport> transports = new ArrayList<>();
+			transports.add(new WebSocketTransport(new StandardWebSocketClient()));
+			stompClient = new WebSocketStompClient(new SockJsClient(transports));
+		}
+		stompClient.setMessageConverter(new CompositeMessageConverter(
+				Arrays.<MessageConverter>asList(new RawPayloadConverter(), new MappingJackson2MessageConverter())));
+		stompClient.setInboundMessageSizeLimit(16 * 1024 * 1024);
+
+		List<StompSession> sessions = connect(stompClient, target, sessionCount);
+		try {
+			// Subscriptions are not acknowledged; give the broker time to register them
+			Thread.sleep(1000);
+			seed(sessions);
+
+			StringBuilder summary = new StringBuilder("\n");
+			summary.append(String.format("%d sessions over %s, %ds per step%n", sessionCount,
+					raw ? "raw WebSocket" : "SockJS", stepSeconds));
+			summary.append(String.format("%7s %8s %9s %9s %8s %8s %8s %8s %8s %9s %8s %8s%n", "rate", "sent/s",
+					"expected", "received", "deliver", "p50(ms)", "p99(ms)", "p999(ms)", "max(ms)", "get99(ms)",
+					"heap(MB)", "threads"));
+
+			Double firstP99 = null;
+			String knee = null;
+			String lastGood = null;
+			for (String rate : rates) {
+				Step step = runStep(sessions, Integer.parseInt(rate.trim()), stepSeconds);
+				double p99 = broadcastLatency.getPercentile(99) / 1e6;
+				double delivered = step.expected == 0 ? 1 : (double) frames.get() / step.expected;
+				summary.append(String.format("%7s %8.0f %9d %9d %7.1f%% %8.1f %8.1f %8.1f %8.1f %9.1f %8d %8d%n",
+						rate.trim(), step.sentPerSecond, step.expected, frames.get(), delivered * 100,
+						broadcastLatency.getPercentile(50) / 1e6, p99, broadcastLatency.getPercentile(99.9) / 1e6,
+						broadcastLatency.getMax() / 1e6, getLatency.getPercentile(99) / 1e6,
+						step.maxHeapBytes / (1024 * 1024), step.maxThreads));
+
+				if (firstP99 == null) {
+					firstP99 = p99;
+				}
+				// Stop here: a later step would mostly measure the backlog this one left
+				if (delivered < 0.95 || (p99 > firstP99 * 3 && p99 > 50)) {
+					knee = lastGood != null ? lastGood : "below " + rate.trim();
+					break;
+				}
+				lastGood = rate.trim();
+			}
+			summary.append(knee != null ? "Knee: " + knee + " requests/s"
+					: "No knee up to " + lastGood + " requests/s; try higher rates");
+			logger.info(summary.toString());
+		} finally {
+			for (StompSession session : sessions) {
+				if (session.isConnected()) {
+					session.disconnect();
+				}
+			}
+			stompClient.stop();
+		}
+	}
+
+	private List<StompSession> connect(WebSocketStompClient stompClient, String target, int sessionCount)
+			throws Exception {
+		StompFrameHandler handler = new StompFrameHandler() {
+			@Override
+			public Type getPayloadType(StompHeaders headers) {
+				return byte[].class;
+			}
+
+			@Override
+			public void handleFrame(StompHeaders headers, Object payload) {
+				onFrame(headers);
+			}
+		};
+		StompFrameHandler creations = new StompFrameHandler() {
+			@Override
+			public Type getPayloadType(StompHeaders headers) {
+				return Map.class;
+			}
+
+			@Override
+			public void handleFrame(StompHeaders headers, Object payload) {
+				onFrame(headers);
+				Map<?, ?> event = (Map<?, ?>) payload;
+				if ("USER_CREATED".equals(event.get("type"))) {
+					userIds.add(((Number) ((Map<?, ?>) event.get("user")).get("id")).longValue());
+				}
+			}
+		};
+
+		List<StompSession> sessions = new ArrayList<>();
+		long start = System.nanoTime();
+		// Connect in batches, so thousands of handshakes do not all wait at once
+		for (int i = 0; i < sessionCount; i += 50) {
+			List<ListenableFuture<StompSession>> pending = new ArrayList<>();
+			for (int j = i; j < Math.min(sessionCount, i + 50); j++) {
+				pending.add(stompClient.connect(target, new WebSocketHttpHeaders(), new StompSessionHandlerAdapter() {
+				}));
+			}
+			for (ListenableFuture<StompSession> future : pending) {
+				StompSession session = future.get(30, TimeUnit.SECONDS);
+				// The first session also reads created users, which the others need not decode
+				session.subscribe("/topic/users", sessions.isEmpty() ? creations : handler);
+				session.subscribe("/user/queue/users", handler);
+				sessions.add(session);
+			}
+		}
+		logger.info("Connected " + sessionCount + " sessions in "
+				+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+		return sessions;
+	}
+
+	private void onFrame(StompHeaders headers) {
+		long now = System.nanoTime();
+		frames.incrementAndGet();
+		lastFrameNanos.set(now);
+		String correlationId = headers.getFirst("correlation-id");
+		Long sent = correlationId != null ? sentAt.get(correlationId) : null;
+		if (sent == null) {
+			return;
+		}
+		if (correlationId.startsWith("g")) {
+			getLatency.record(now - sent);
+		} else {
+			broadcastLatency.record(now - sent);
+		}
+	}
+
+	private void seed(List<StompSession> sessions) throws InterruptedException {
+		String run = Long.toString(System.currentTimeMillis(), 36);
+		for (int i = 0; i < SEED_USERS; i++) {
+			send(sessions.get(0), "/app/users.create", new UserDTO("Load " + run + " " + i,
+					"load-" + run + "-" + i + "@example.com"), "s");
+		}
+		long start = System.nanoTime();
+		while (userIds.size() < SEED_USERS && System.nanoTime() - start < DRAIN_TIMEOUT_NANOS) {
+			Thread.sleep(100);
+		}
+		if (userIds.isEmpty()) {
+			throw new IllegalStateException("No users were created; is the server running without coalescing?");
+		}
+		// The other sessions may still be receiving the seed broadcasts
+		lastFrameNanos.set(System.nanoTime());
+		while (System.nanoTime() - lastFrameNanos.get() < QUIET_NANOS) {
+			Thread.sleep(100);
+		}
+	}
+
+	private Step runStep(List<StompSession> sessions, int rate, int stepSeconds) throws Exception {
+		sentAt.clear();
+		broadcastLatency.reset();
+		getLatency.reset();
+		frames.set(0);
+		Step step = new Step();
+		String run = Long.toString(System.currentTimeMillis(), 36);
+
+		int drivers = Math.min(DRIVERS, sessions.size());
+		long mutations = 0;
+		long gets = 0;
+		long start = System.nanoTime();
+		long end = start + TimeUnit.SECONDS.toNanos(stepSeconds);
+		long nextSample = start;
+		long sent = 0;
+		while (System.nanoTime() < end) {
+			// Catch up to where the target rate says this step should be
+			long due = (System.nanoTime() - start) * rate / TimeUnit.SECONDS.toNanos(1);
+			for (; sent < due; sent++) {
+				StompSession session = sessions.get((int) (sent % drivers));
+				int kind = ThreadLocalRandom.current().nextInt(10);
+				if (kind < 2) {
+					send(session, "/app/users.create", new UserDTO("Load " + run + " " + sent,
+							"load-" + run + "-" + sent + "@example.com"), "c");
+					mutations++;
+				} else if (kind < 8) {
+					long id = userIds.get(ThreadLocalRandom.current().nextInt(userIds.size()));
+					send(session, "/app/users.update", new UpdateUserRequest(id, new UserDTO("Load " + run + " " + sent,
+							"load-" + id + "@example.com")), "u");
+					mutations++;
+				} else {
+					long id = userIds.get(ThreadLocalRandom.current().nextInt(userIds.size()));
+					send(session, "/app/users.get", new UserIdRequest(id), "g");
+					gets++;
+				}
+			}
+			if (System.nanoTime() >= nextSample) {
+				sampleServer(step);
+				nextSample += TimeUnit.SECONDS.toNanos(1);
+			}
+			Thread.sleep(TICK_MILLIS);
+		}
+		step.sentPerSecond = sent * 1e9 / (System.nanoTime() - start);
+		step.expected = mutations * sessions.size() + gets;
+
+		long drainStart = System.nanoTime();
+		while (frames.get() < step.expected && System.nanoTime() - lastFrameNanos.get() < QUIET_NANOS
+				&& System.nanoTime() - drainStart < DRAIN_TIMEOUT_NANOS) {
+			Thread.sleep(100);
+		}
+		sampleServer(step);
+		return step;
+	}
+
+	// Prefix c, u or g tells the kind of request, s a seed
+	private void send(StompSession session, String destination, Object payload, String prefix) {
+		String correlationId = prefix + nextCorrelationId.incrementAndGet();
+		StompHeaders headers = new StompHeaders();
+		headers.setDestination(destination);
+		headers.set("correlation-id", correlationId);
+		sentAt.put(correlationId, System.nanoTime());
+		session.send(headers, payload);
+	}
+
+	private void sampleServer(Step step) {
+		try {
+			Map<?, ?> stats = objectMapper.readValue(new URL(statsUrl), Map.class);
+			step.maxHeapBytes = Math.max(step.maxHeapBytes, ((Number) stats.get("heapUsedBytes")).longValue());
+			step.maxThreads = Math.max(step.maxThreads, ((Number) stats.get("threads")).intValue());
+		} catch (Exception e) {
+			logger.warning("Could not read " + statsUrl + ": " + e.getMessage());
+		}
+	}
+
+	private static final class Step {
+		private double sentPerSecond;
+		private long expected;
+		private long maxHeapBytes;
+		private int maxThreads;
+	}
+
+	// Hands frames over as received, so sessions that only need headers do not parse JSON
+	private static final class RawPayloadConverter extends AbstractMessageConverter {
+		RawPayloadConverter() {
+			super(new ArrayList<>());
+		}
+
+		@Override
+		protected boolean supports(Class<?> clazz) {
+			return byte[].class == clazz;
+		}
+
+		@Override
+		protected Object convertFromInternal(Message<?> message, Class<?> targetClass, Object conversionHint) {
+			return message.getPayload();
+		}
+	}
+}
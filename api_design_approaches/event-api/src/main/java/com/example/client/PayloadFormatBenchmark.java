@@ -0,0 +1,219 @@
+package com.example.client;
+
+import com.example.eventapi.config.PayloadFormatInterceptor;
+import com.example.eventapi.dto.UserDTO;
+import com.example.eventapi.event.UserCreatedEvent;
+import com.example.eventapi.event.UserEvent;
+import com.example.eventapi.event.UserEventBatch;
+import com.example.eventapi.event.UserListEvent;
+import com.example.eventapi.model.User;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+import org.springframework.web.socket.sockjs.client.SockJsClient;
+import org.springframework.web.socket.sockjs.client.Transport;
+import org.springframework.web.socket.sockjs.client.WebSocketTransport;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Bytes and CPU per message of CBOR payloads against JSON.
+ *
+ * Part one encodes and decodes typical events in process: a single USER_CREATED, a
+ * coalesced batch of 50 and a USER_LIST of 1000 users. It reports the size in each
+ * format, the server's cost to serialize the JSON and to re-encode it as CBOR, and the
+ * client's cost to decode it into a Map (the old client) or typed UserEvents.
+ *
+ * Part two connects sessions to a running server as JSON over SockJS, JSON over the raw
+ * WebSocket and CBOR over the raw WebSocket, has one of them create users, and reports
+ * the STOMP frame bytes per message and this process's CPU time per message received.
+ *
+ * Usage: PayloadFormatBenchmark [sessions=50] [creates=200] [url=ws://localhost:8080/ws]
+ */
+public class PayloadFormatBenchmark {
+	private static final Logger logger = Logger.getLogger(PayloadFormatBenchmark.class.getName());
+
+	private static final long QUIET_NANOS = TimeUnit.SECONDS.toNanos(2);
+	private static final long PHASE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+	private final AtomicLong frames = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong lastFrameNanos = new AtomicLong();
+
+	public static void main(String[] args) throws Exception {
+		int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		int creates = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+		String url = args.length > 2 ? args[2] : "ws://localhost:8080/ws";
+
+		StringBuilder summary = new StringBuilder("\n");
+		codecTable(summary);
+		summary.append('\n');
+		new PayloadFormatBenchmark().endToEnd(summary, url, sessions, creates);
+		logger.info(summary.toString());
+	}
+
+	private static void codecTable(StringBuilder summary) throws Exception {
+		ObjectMapper json = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+		ObjectMapper cbor = CBORMapper.builder().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES).build();
+		PayloadFormatInterceptor transcoder = new PayloadFormatInterceptor(json);
+
+		List<UserEvent> batch = new ArrayList<>();
+		for (int i = 1; i <= 50; i++) {
+			batch.add(new UserCreatedEvent(user(i), i));
+		}
+		List<User> users = new ArrayList<>();
+		for (int i = 1; i <= 1000; i++) {
+			users.add(user(i));
+		}
+		String[] names = {"USER_CREATED", "batch of 50", "USER_LIST of 1000"};
+		UserEvent[] events = {new UserCreatedEvent(user(1), 1), new UserEventBatch(batch, Collections.<String, Long>emptyMap()),
+				new UserListEvent(users)};
+
+		summary.append(String.format("%-18s %9s %9s %11s %11s %11s %11s %11s%n", "event", "json(B)", "cbor(B)",
+				"toJson(us)", "toCbor(us)", "jsonMap(us)", "jsonType(us)", "cborType(us)"));
+		for (int e = 0; e < events.length; e++) {
+			final UserEvent event = events[e];
+			final byte[] jsonBytes = json.writeValueAsBytes(event);
+			final byte[] cborBytes = transcoder.transcode(jsonBytes);
+			// Enough repetitions for roughly 50MB of JSON, at least 20
+			int reps = Math.max(20, 50_000_000 / jsonBytes.length);
+
+			double toJson = time(reps, () -> json.writeValueAsBytes(event));
+			double toCbor = time(reps, () -> transcoder.transcode(jsonBytes));
+			double jsonMap = time(reps, () -> json.readValue(jsonBytes, Map.class));
+			double jsonType = time(reps, () -> json.readValue(jsonBytes, UserEvent.class));
+			double cborType = time(reps, () -> cbor.readValue(cborBytes, UserEvent.class));
+			summary.append(String.format("%-18s %9d %9d %11.2f %11.2f %11.2f %11.2f %11.2f%n", names[e],
+					jsonBytes.length, cborBytes.length, toJson, toCbor, jsonMap, jsonType, cborType));
+		}
+	}
+
+	private interface Work {
+		Object run() throws Exception;
+	}
+
+	// Microseconds per run, after a warm-up of a quarter as many runs
+	private static double time(int reps, Work work) throws Exception {
+		Object sink = null;
+		for (int i = 0; i < reps / 4; i++) {
+			sink = work.run();
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < reps; i++) {
+			sink = work.run();
+		}
+		double micros = (System.nanoTime() - start) / 1000.0 / reps;
+		return sink != null ? micros : -1;
+	}
+
+	private void endToEnd(StringBuilder summary, String url, int sessionCount, int creates) throws Exception {
+		summary.append(String.format("%-14s %10s %12s %12s %14s%n",
+				"transport", "frames", "bytes/frame", "cpu(us)/frame", "binary frames"));
+		com.sun.management.OperatingSystemMXBean os =
+				(com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+		String[] modes = {"json-sockjs", "json-raw", "cbor-raw"};
+		for (String mode : modes) {
+			WebSocketClient webSocketClient = new StandardWebSocketClient();
+			WebSocketStompClient stompClient;
+			String target = url;
+			if (mode.equals("json-sockjs")) {
+				List<Transport> transports = new ArrayList<>();
+				transports.add(new WebSocketTransport(webSocketClient));
+				stompClient = new WebSocketStompClient(new SockJsClient(transports));
+			} else {
+				stompClient = new WebSocketStompClient(webSocketClient);
+				target = url + "/websocket";
+			}
+			stompClient.setMessageConverter(EventApiClient.messageConverter());
+
+			StompHeaders connectHeaders = new StompHeaders();
+			if (mode.startsWith("cbor")) {
+				connectHeaders.set(PayloadFormatInterceptor.ACCEPT_HEADER, "application/cbor");
+			}
+			final AtomicLong binaryFrames = new AtomicLong();
+			StompFrameHandler handler = new StompFrameHandler() {
+				@Override
+				public Type getPayloadType(StompHeaders headers) {
+					return UserEvent.class;
+				}
+
+				@Override
+				public void handleFrame(StompHeaders headers, Object payload) {
+					frames.incrementAndGet();
+					bytes.addAndGet(frameBytes(headers));
+					if ("application/octet-stream".equals(String.valueOf(headers.getContentType()))) {
+						binaryFrames.incrementAndGet();
+					}
+					lastFrameNanos.set(System.nanoTime());
+				}
+			};
+
+			List<StompSession> sessions = new ArrayList<>();
+			try {
+				for (int i = 0; i < sessionCount; i++) {
+					StompSession session = stompClient.connect(target, new WebSocketHttpHeaders(), connectHeaders,
+							new StompSessionHandlerAdapter() {
+							}).get(10, TimeUnit.SECONDS);
+					session.subscribe("/topic/users", handler);
+					sessions.add(session);
+				}
+				Thread.sleep(1000);
+
+				frames.set(0);
+				bytes.set(0);
+				long start = System.nanoTime();
+				lastFrameNanos.set(start);
+				long cpuStart = os.getProcessCpuTime();
+				for (int c = 0; c < creates; c++) {
+					sessions.get(0).send("/app/users.create",
+							new UserDTO("Format " + mode + " " + c, mode + c + "@example.com"));
+				}
+				while (System.nanoTime() - lastFrameNanos.get() < QUIET_NANOS
+						&& System.nanoTime() - start < PHASE_TIMEOUT_NANOS) {
+					Thread.sleep(100);
+				}
+				long cpu = os.getProcessCpuTime() - cpuStart;
+				long received = Math.max(1, frames.get());
+				summary.append(String.format("%-14s %10d %12.1f %12.1f %14d%n", mode, frames.get(),
+						(double) bytes.get() / received, cpu / 1000.0 / received, binaryFrames.get()));
+			} finally {
+				for (StompSession session : sessions) {
+					session.disconnect();
+				}
+				stompClient.stop();
+			}
+		}
+	}
+
+	// Size of the MESSAGE frame as the broker encoded it: command, header lines, blank line, body and NUL
+	private static long frameBytes(StompHeaders headers) {
+		long size = "MESSAGE\n\n".length() + Math.max(0, headers.getContentLength()) + 1;
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			for (String value : header.getValue()) {
+				size += header.getKey().length() + 1 + value.length() + 1;
+			}
+		}
+		return size;
+	}
+
+	private static User user(long id) {
+		return new User(id, "Bulk User " + id, "bulk" + id + "@example.com");
+	}
+}
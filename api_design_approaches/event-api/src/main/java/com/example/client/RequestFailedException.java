@@ -0,0 +1,20 @@
+package com.example.client;
+
+/**
+ * The server answered a request with an ERROR event
+ */
+public class RequestFailedException extends RuntimeException {
+	private final int code;
+
+	public RequestFailedException(int code, String message) {
+		super("Error (" + code + "): " + message);
+		this.code = code;
+	}
+
+	/**
+	 * HTTP-style status code, such as 404 for an unknown user
+	 */
+	public int getCode() {
+		return code;
+	}
+}
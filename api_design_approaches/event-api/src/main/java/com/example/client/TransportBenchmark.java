@@ -0,0 +1,241 @@
+package com.example.client;
+
+import com.example.client.EventApiClient.Endpoint;
+import com.example.eventapi.dto.UserDTO;
+import com.example.eventapi.dto.UserIdRequest;
+import com.example.eventapi.event.UserCreatedEvent;
+import com.example.eventapi.event.UserEvent;
+import com.example.eventapi.metrics.LatencyHistogram;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.messaging.simp.stomp.StompFrameHandler;
+import org.springframework.messaging.simp.stomp.StompHeaders;
+import org.springframework.messaging.simp.stomp.StompSession;
+import org.springframework.messaging.simp.stomp.StompSessionHandlerAdapter;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.WebSocketClient;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+import org.springframework.web.socket.messaging.WebSocketStompClient;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Type;
+import java.net.URI;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Connect time and per-message overhead of the SockJS endpoint against plain WebSockets.
+ *
+ * Three ways in are compared: SockJS on /ws, the raw WebSocket the SockJS endpoint serves
+ * on /ws/websocket, and the native endpoint /ws-native. Part one connects and disconnects
+ * one session at a time, each with a new client as a new page would be, and reports the
+ * time until the STOMP CONNECTED frame; a new SockJS client first asks /ws/info over HTTP.
+ *
+ * Part two sends users.get requests one at a time on one session and reports the round
+ * trip, the WebSocket payload bytes each way per request, counted beneath SockJS, and the
+ * CPU time per request of this process and of the server, read from GET /jvm/stats.
+ * Every endpoint is run once unmeasured first, so the JIT has warmed up for all of them.
+ *
+ * Usage: TransportBenchmark [connects=200] [requests=5000] [server=ws://localhost:8080]
+ */
+public class TransportBenchmark {
+	private static final Logger logger = Logger.getLogger(TransportBenchmark.class.getName());
+
+	private static final String[] NAMES = {"sockjs", "sockjs-raw", "native"};
+	private static final String[] PATHS = {"/ws", "/ws/websocket", "/ws-native"};
+	private static final Endpoint[] ENDPOINTS = {Endpoint.SOCKJS, Endpoint.NATIVE, Endpoint.NATIVE};
+	private static final long REPLY_TIMEOUT_SECONDS = 5;
+
+	private final String server;
+	private final String statsUrl;
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final WebSocketClient webSocketClient = new CountingWebSocketClient();
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+
+	public TransportBenchmark(String server) {
+		this.server = server;
+		this.statsUrl = server.replaceFirst("^ws", "http") + "/jvm/stats";
+	}
+
+	public static void main(String[] args) throws Exception {
+		int connects = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int requests = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+		String server = args.length > 2 ? args[2] : "ws://localhost:8080";
+
+		TransportBenchmark benchmark = new TransportBenchmark(server);
+		StringBuilder summary = new StringBuilder("\n");
+		// Warm-up, reported to nobody
+		benchmark.connectTable(new StringBuilder(), Math.max(1, connects / 4));
+		benchmark.requestTable(new StringBuilder(), Math.max(1, requests / 4));
+
+		benchmark.connectTable(summary, connects);
+		summary.append('\n');
+		benchmark.requestTable(summary, requests);
+		logger.info(summary.toString());
+	}
+
+	private void connectTable(StringBuilder summary, int connects) throws Exception {
+		summary.append(String.format("%-12s %9s %9s %9s %9s %9s%n",
+				"endpoint", "connects", "mean(ms)", "p50(ms)", "p99(ms)", "max(ms)"));
+		for (int e = 0; e < NAMES.length; e++) {
+			LatencyHistogram connectTime = new LatencyHistogram();
+			for (int i = 0; i < connects; i++) {
+				WebSocketStompClient stompClient = stompClient(ENDPOINTS[e]);
+				long start = System.nanoTime();
+				StompSession session = connect(stompClient, PATHS[e]);
+				connectTime.record(System.nanoTime() - start);
+				session.disconnect();
+				stompClient.stop();
+			}
+			summary.append(String.format("%-12s %9d %9.2f %9.2f %9.2f %9.2f%n", NAMES[e], connects,
+					connectTime.getMean() / 1e6, connectTime.getPercentile(50) / 1e6,
+					connectTime.getPercentile(99) / 1e6, connectTime.getMax() / 1e6));
+		}
+	}
+
+	private void requestTable(StringBuilder summary, int requests) throws Exception {
+		summary.append(String.format("%-12s %9s %10s %10s %11s %11s %12s %12s%n", "endpoint", "requests",
+				"rtt50(us)", "rtt99(us)", "sent(B)/req", "recv(B)/req", "client(us)/req", "server(us)/req"));
+		com.sun.management.OperatingSystemMXBean os =
+				(com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+		for (int e = 0; e < NAMES.length; e++) {
+			WebSocketStompClient stompClient = stompClient(ENDPOINTS[e]);
+			StompSession session = connect(stompClient, PATHS[e]);
+			try {
+				final Semaphore replies = new Semaphore(0);
+				session.subscribe("/user/queue/users", new StompFrameHandler() {
+					@Override
+					public Type getPayloadType(StompHeaders headers) {
+						return UserEvent.class;
+					}
+
+					@Override
+					public void handleFrame(StompHeaders headers, Object payload) {
+						replies.release();
+					}
+				});
+				// Same length for every endpoint, so the replies are too
+				UserIdRequest request = new UserIdRequest(createUser(session, "Transport " + e));
+
+				LatencyHistogram roundTrip = new LatencyHistogram();
+				bytesSent.set(0);
+				bytesReceived.set(0);
+				long clientCpuStart = os.getProcessCpuTime();
+				long serverCpuStart = serverCpuNanos();
+				for (int i = 0; i < requests; i++) {
+					long start = System.nanoTime();
+					session.send("/app/users.get", request);
+					if (!replies.tryAcquire(REPLY_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+						throw new IllegalStateException("No reply to users.get on " + NAMES[e]);
+					}
+					roundTrip.record(System.nanoTime() - start);
+				}
+				double clientCpu = (os.getProcessCpuTime() - clientCpuStart) / 1000.0 / requests;
+				double serverCpu = (serverCpuNanos() - serverCpuStart) / 1000.0 / requests;
+				summary.append(String.format("%-12s %9d %10.1f %10.1f %11.1f %11.1f %12.1f %12.1f%n", NAMES[e], requests,
+						roundTrip.getPercentile(50) / 1e3, roundTrip.getPercentile(99) / 1e3,
+						(double) bytesSent.get() / requests, (double) bytesReceived.get() / requests,
+						clientCpu, serverCpu));
+			} finally {
+				session.disconnect();
+				stompClient.stop();
+			}
+		}
+	}
+
+	// A new client each time: a SockJS client caches the server info it asked for
+	private WebSocketStompClient stompClient(Endpoint endpoint) {
+		WebSocketStompClient stompClient = new WebSocketStompClient(EventApiClient.webSocketClient(endpoint, webSocketClient));
+		stompClient.setMessageConverter(EventApiClient.messageConverter());
+		return stompClient;
+	}
+
+	private StompSession connect(WebSocketStompClient stompClient, String path) throws Exception {
+		return stompClient.connect(server + path, new StompSessionHandlerAdapter() {
+		}).get(10, TimeUnit.SECONDS);
+	}
+
+	// Id of a new user to ask for, taken from the broadcast of its creation
+	private long createUser(StompSession session, String name) throws Exception {
+		final CompletableFuture<Long> created = new CompletableFuture<>();
+		StompSession.Subscription subscription = session.subscribe("/topic/users", new StompFrameHandler() {
+			@Override
+			public Type getPayloadType(StompHeaders headers) {
+				return UserEvent.class;
+			}
+
+			@Override
+			public void handleFrame(StompHeaders headers, Object payload) {
+				if (payload instanceof UserCreatedEvent && name.equals(((UserCreatedEvent) payload).getUser().getName())) {
+					created.complete(((UserCreatedEvent) payload).getUser().getId());
+				}
+			}
+		});
+		// The subscription has to reach the broker before the broadcast does
+		Thread.sleep(200);
+		session.send("/app/users.create", new UserDTO(name, name + "@example.com"));
+		try {
+			return created.get(REPLY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} finally {
+			subscription.unsubscribe();
+		}
+	}
+
+	private long serverCpuNanos() throws IOException {
+		Map<?, ?> stats = objectMapper.readValue(new URL(statsUrl), Map.class);
+		return ((Number) stats.get("processCpuNanos")).longValue();
+	}
+
+	// Counts WebSocket payload bytes each way; under SockJS that includes its framing
+	private final class CountingWebSocketClient implements WebSocketClient {
+		private final WebSocketClient delegate = new StandardWebSocketClient();
+
+		@Override
+		public ListenableFuture<WebSocketSession> doHandshake(WebSocketHandler handler, String uriTemplate,
+				Object... uriVariables) {
+			return delegate.doHandshake(new CountingHandler(handler), uriTemplate, uriVariables);
+		}
+
+		@Override
+		public ListenableFuture<WebSocketSession> doHandshake(WebSocketHandler handler, WebSocketHttpHeaders headers,
+				URI uri) {
+			return delegate.doHandshake(new CountingHandler(handler), headers, uri);
+		}
+	}
+
+	private final class CountingHandler extends WebSocketHandlerDecorator {
+		CountingHandler(WebSocketHandler delegate) {
+			super(delegate);
+		}
+
+		@Override
+		public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+			super.afterConnectionEstablished(new WebSocketSessionDecorator(session) {
+				@Override
+				public void sendMessage(WebSocketMessage<?> message) throws IOException {
+					bytesSent.addAndGet(message.getPayloadLength());
+					super.sendMessage(message);
+				}
+			});
+		}
+
+		@Override
+		public void handleMessage(WebSocketSession session, WebSocketMessage<?> message) throws Exception {
+			bytesReceived.addAndGet(message.getPayloadLength());
+			super.handleMessage(session, message);
+		}
+	}
+}
@@ -1,12 +1,12 @@
-package com.example.eventapi;
-
-import org.springframework.boot.SpringApplication;
-import org.springframework.boot.autoconfigure.SpringBootApplication;
-
-@SpringBootApplication
-public class EventApiApplication {
-    
-    public static void main(String[] args) {
-        SpringApplication.run(EventApiApplication.class, args);
-    }
+package com.example.eventapi;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+@SpringBootApplication
+public class EventApiApplication {
+    
+    public static void main(String[] args) {
+        SpringApplication.run(EventApiApplication.class, args);
+    }
 }
\ No newline at end of file
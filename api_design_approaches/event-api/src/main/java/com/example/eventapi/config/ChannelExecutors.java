@@ -0,0 +1,114 @@
+package com.example.eventapi.config;
+
+import com.example.eventapi.dto.ChannelStats;
+import com.example.eventapi.metrics.ChannelExecutorMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executors of the client inbound, client outbound and broker channels, sized from
+ * eventapi.channels.{inbound,outbound,broker}.{corePoolSize,maxPoolSize,queueCapacity,keepAliveSeconds}.
+ *
+ * Queues are bounded, unlike Spring's defaults: once a queue is full, the thread that
+ * sends to the channel runs the task itself, so a burst slows down the connections
+ * producing it instead of piling up in memory. With eventapi.channels.virtualThreads=true
+ * the inbound and outbound pools run on virtual threads, where the JVM has them.
+ *
+ * The broker channel has no pool unless broker.maxPoolSize is set: the broker then runs
+ * on the thread that published, which keeps the change feed in seq order. With more than
+ * one broker thread, messages published in order may reach the broker out of order.
+ */
+@Component
+public class ChannelExecutors {
+    private static final Logger logger = LoggerFactory.getLogger(ChannelExecutors.class);
+    
+    private static final String PREFIX = "eventapi.channels.";
+    
+    private final Environment environment;
+    private final ThreadFactory virtualThreadFactory;
+    private final ChannelExecutorMetrics inbound;
+    private final ChannelExecutorMetrics outbound;
+    // Null when the broker runs on the publishing thread
+    private final ChannelExecutorMetrics broker;
+    
+    @Autowired
+    public ChannelExecutors(Environment environment) {
+        this.environment = environment;
+        this.virtualThreadFactory = environment.getProperty(PREFIX + "virtualThreads", Boolean.class, false)
+            ? virtualThreadFactory() : null;
+        
+        int defaultPoolSize = virtualThreadFactory != null ? 256 : Runtime.getRuntime().availableProcessors() * 2;
+        this.inbound = create("inbound", "clientInboundChannel-", defaultPoolSize, virtualThreadFactory);
+        this.outbound = create("outbound", "clientOutboundChannel-", defaultPoolSize, virtualThreadFactory);
+        // Broker threads stay platform threads: the broker holds locks while it delivers
+        this.broker = environment.getProperty(PREFIX + "broker.maxPoolSize", Integer.class, 0) > 0
+            ? create("broker", "brokerChannel-", 1, null) : null;
+    }
+    
+    public ThreadPoolTaskExecutor getInbound() {
+        return inbound.getExecutor();
+    }
+    
+    public ThreadPoolTaskExecutor getOutbound() {
+        return outbound.getExecutor();
+    }
+    
+    public ThreadPoolTaskExecutor getBroker() {
+        return broker != null ? broker.getExecutor() : null;
+    }
+    
+    public List<ChannelStats> getStats() {
+        List<ChannelStats> stats = new ArrayList<>();
+        stats.add(inbound.snapshot());
+        stats.add(outbound.snapshot());
+        if (broker != null) {
+            stats.add(broker.snapshot());
+        }
+        return stats;
+    }
+    
+    // Not initialized here: the executor is registered as a bean, which initializes it
+    private ChannelExecutorMetrics create(String channel, String threadNamePrefix, int defaultPoolSize, ThreadFactory threadFactory) {
+        String prefix = PREFIX + channel + ".";
+        int maxPoolSize = environment.getProperty(prefix + "maxPoolSize", Integer.class, defaultPoolSize);
+        int corePoolSize = environment.getProperty(prefix + "corePoolSize", Integer.class, maxPoolSize);
+        int queueCapacity = environment.getProperty(prefix + "queueCapacity", Integer.class, 1000);
+        int keepAliveSeconds = environment.getProperty(prefix + "keepAliveSeconds", Integer.class, 60);
+        
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setCorePoolSize(corePoolSize);
+        executor.setMaxPoolSize(maxPoolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setKeepAliveSeconds(keepAliveSeconds);
+        executor.setAllowCoreThreadTimeOut(true);
+        if (threadFactory != null) {
+            executor.setThreadFactory(threadFactory);
+        }
+        logger.info("Channel " + channel + ": " + corePoolSize + "-" + maxPoolSize + " "
+            + (threadFactory != null ? "virtual" : "platform") + " threads, queue capacity " + queueCapacity);
+        return new ChannelExecutorMetrics(channel, executor, threadFactory != null);
+    }
+    
+    // Looked up reflectively, since this code still targets Java 8
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "channel-virtual-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            logger.warn("Virtual threads are not available on Java " + System.getProperty("java.version")
+                + "; channels use platform threads");
+            return null;
+        }
+    }
+}
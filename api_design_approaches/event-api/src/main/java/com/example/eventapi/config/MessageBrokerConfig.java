@@ -0,0 +1,37 @@
+package com.example.eventapi.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.support.AbstractSubscribableChannel;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.config.annotation.DelegatingWebSocketMessageBrokerConfiguration;
+import org.springframework.web.socket.messaging.SubProtocolWebSocketHandler;
+
+/**
+ * What @EnableWebSocketMessageBroker would import, applying the {@link WebSocketConfig}
+ * settings, except that sessions are decorated by the {@link SlowConsumerGuard} instead
+ * of Spring's ConcurrentWebSocketSessionDecorator. Stacking the guard under Spring's
+ * decorator would only ever hand it one frame at a time.
+ */
+@Configuration
+public class MessageBrokerConfig extends DelegatingWebSocketMessageBrokerConfiguration {
+    
+    @Autowired
+    private SlowConsumerGuard slowConsumerGuard;
+    
+    @Bean
+    @Override
+    public WebSocketHandler subProtocolWebSocketHandler(
+            @Qualifier("clientInboundChannel") AbstractSubscribableChannel clientInboundChannel,
+            @Qualifier("clientOutboundChannel") AbstractSubscribableChannel clientOutboundChannel) {
+        return new SubProtocolWebSocketHandler(clientInboundChannel, clientOutboundChannel) {
+            @Override
+            protected WebSocketSession decorateSession(WebSocketSession session) {
+                return slowConsumerGuard.decorate(session, getSendTimeLimit(), getSendBufferSizeLimit());
+            }
+        };
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.eventapi.config;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.messaging.support.MessageHeaderAccessor;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends CBOR instead of JSON to sessions that ask for it.
+ *
+ * A client asks by sending accept-content-type:application/cbor with its CONNECT frame,
+ * which this interceptor notes on the client inbound channel. Its encoder() goes on the
+ * client outbound channel. Messages are still converted to JSON once, for every subscriber; on the way out to a
+ * CBOR session the JSON is re-encoded token by token. The broker hands every subscriber
+ * of a topic the same payload array, so recent encodings are kept and a broadcast is
+ * encoded once, not once per session.
+ *
+ * Spring only sends a STOMP frame as a binary WebSocket message when its content-type is
+ * application/octet-stream and the session is not SockJS, which carries text only. CBOR
+ * frames are therefore labelled application/octet-stream, and only sessions on /ws-native
+ * or the raw WebSocket URL under /ws get them: JSON content stays labelled application/json.
+ */
+@Component
+public class PayloadFormatInterceptor implements ChannelInterceptor {
+    
+    public static final String ACCEPT_HEADER = "accept-content-type";
+    public static final MimeType APPLICATION_CBOR = new MimeType("application", "cbor");
+    
+    private static final int ENCODED_CACHE_SIZE = 64;
+    
+    private final ObjectMapper objectMapper;
+    private final CBORFactory cborFactory = new CBORFactory();
+    private final Set<String> cborSessions = ConcurrentHashMap.newKeySet();
+    // JSON payload to its CBOR encoding; arrays compare by identity
+    private final Map<byte[], byte[]> encoded = Collections.synchronizedMap(
+            new LinkedHashMap<byte[], byte[]>(ENCODED_CACHE_SIZE * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<byte[], byte[]> eldest) {
+                    return size() > ENCODED_CACHE_SIZE;
+                }
+            });
+    
+    @Autowired
+    public PayloadFormatInterceptor(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+    
+    // Inbound: requests from CBOR sessions are still JSON and pass through as they are
+    @Override
+    public Message<?> preSend(Message<?> message, MessageChannel channel) {
+        MessageHeaders headers = message.getHeaders();
+        SimpMessageType type = SimpMessageHeaderAccessor.getMessageType(headers);
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+        if (type == SimpMessageType.CONNECT
+                && acceptsCbor(SimpMessageHeaderAccessor.getFirstNativeHeader(ACCEPT_HEADER, headers))) {
+            cborSessions.add(sessionId);
+        } else if (type == SimpMessageType.DISCONNECT && sessionId != null) {
+            cborSessions.remove(sessionId);
+        }
+        return message;
+    }
+    
+    public ChannelInterceptor encoder() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                MessageHeaders headers = message.getHeaders();
+                String sessionId = SimpMessageHeaderAccessor.getSessionId(headers);
+                if (SimpMessageHeaderAccessor.getMessageType(headers) == SimpMessageType.MESSAGE
+                        && sessionId != null && cborSessions.contains(sessionId)
+                        && message.getPayload() instanceof byte[] && isJson(headers)) {
+                    return toCbor(message);
+                }
+                return message;
+            }
+        };
+    }
+    
+    private Message<?> toCbor(Message<?> message) {
+        byte[] json = (byte[]) message.getPayload();
+        byte[] cbor = encoded.get(json);
+        if (cbor == null) {
+            try {
+                cbor = transcode(json);
+            } catch (IOException e) {
+                // Better JSON the client can still read than no message at all
+                return message;
+            }
+            encoded.put(json, cbor);
+        }
+        MessageHeaderAccessor accessor = MessageHeaderAccessor.getMutableAccessor(message);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_OCTET_STREAM);
+        return MessageBuilder.createMessage(cbor, accessor.getMessageHeaders());
+    }
+    
+    public byte[] transcode(byte[] json) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length);
+        try (JsonParser parser = objectMapper.getFactory().createParser(json);
+             JsonGenerator generator = cborFactory.createGenerator(out)) {
+            parser.nextToken();
+            generator.copyCurrentStructure(parser);
+        }
+        return out.toByteArray();
+    }
+    
+    private static boolean acceptsCbor(String accept) {
+        if (accept == null) {
+            return false;
+        }
+        List<MimeType> types = MimeTypeUtils.parseMimeTypes(accept);
+        for (MimeType accepted : types) {
+            if (accepted.equalsTypeAndSubtype(APPLICATION_CBOR)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static boolean isJson(MessageHeaders headers) {
+        Object contentType = headers.get(MessageHeaders.CONTENT_TYPE);
+        if (contentType == null) {
+            return false;
+        }
+        MimeType mimeType = contentType instanceof MimeType
+                ? (MimeType) contentType : MimeTypeUtils.parseMimeType(contentType.toString());
+        return MimeTypeUtils.APPLICATION_JSON.isCompatibleWith(mimeType);
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.eventapi.config;
+
+import com.example.eventapi.dto.SlowConsumerStats;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import javax.websocket.Session;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Keeps a session that reads too slowly from holding up the others, or the heap.
+ *
+ * Decorates every session in place of Spring's ConcurrentWebSocketSessionDecorator, which
+ * it extends so ordered delivery still works, and sends the same way: the thread that
+ * finds a session idle writes its frames, and while it does, frames other threads send to
+ * the session are queued. Spring closes a session whose queue grows past the send buffer
+ * size limit; here eventapi.websocket.slowConsumerPolicy decides:
+ *
+ * DISCONNECT closes the session, as Spring would.
+ * DROP_OLDEST drops the oldest queued frames until the queue fits again.
+ * CONFLATE keeps only the newest queued create, update or delete per destination and user
+ * id, then drops the oldest frames if that was not enough.
+ *
+ * A session stuck on one frame for longer than the send time limit is closed whatever the
+ * policy, and the container's blocking send timeout is set to that limit, so the stuck
+ * write fails and frees its thread. A dropped frame can be a reply, whose request then
+ * times out, or a change feed frame, after which the client sees a seq gap and reloads.
+ */
+@Component
+public class SlowConsumerGuard {
+    private static final Logger logger = LoggerFactory.getLogger(SlowConsumerGuard.class);
+    
+    public enum Policy { DISCONNECT, DROP_OLDEST, CONFLATE }
+    
+    // Tomcat's limit on how long a blocking send waits for the socket, in milliseconds
+    private static final String BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+    
+    // Key of a frame that nothing newer replaces
+    private static final String NO_KEY = "";
+    
+    private final ObjectMapper json;
+    private final ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+    private final Policy policy;
+    
+    private final AtomicLong slowSessions = new AtomicLong();
+    private final AtomicLong disconnectedSessions = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong conflatedFrames = new AtomicLong();
+    private final AtomicLong maxBufferedBytes = new AtomicLong();
+    
+    @Autowired
+    public SlowConsumerGuard(ObjectMapper objectMapper,
+                             @Value("${eventapi.websocket.slowConsumerPolicy:DISCONNECT}") Policy policy) {
+        this.json = objectMapper;
+        this.policy = policy;
+    }
+    
+    public WebSocketSession decorate(WebSocketSession session, int sendTimeLimitMillis, int sendBufferSizeLimit) {
+        return new GuardedSession(session, sendTimeLimitMillis, sendBufferSizeLimit);
+    }
+    
+    public SlowConsumerStats getStats() {
+        SlowConsumerStats stats = new SlowConsumerStats();
+        stats.setPolicy(policy.name());
+        stats.setSlowSessions(slowSessions.get());
+        stats.setDisconnectedSessions(disconnectedSessions.get());
+        stats.setDroppedFrames(droppedFrames.get());
+        stats.setConflatedFrames(conflatedFrames.get());
+        stats.setMaxBufferedBytes(maxBufferedBytes.get());
+        return stats;
+    }
+    
+    // Only the constructor and close of the superclass are used; its buffer stays empty
+    private final class GuardedSession extends ConcurrentWebSocketSessionDecorator {
+        
+        private final long sendTimeLimitNanos;
+        private final int sendBufferSizeLimit;
+        private final Lock flushLock = new ReentrantLock();
+        
+        // Frames not yet written, oldest first, and their size (both guarded by this)
+        private final Deque<Frame> queue = new ArrayDeque<>();
+        private int bufferedBytes;
+        private boolean slow;
+        private boolean disconnected;
+        private volatile boolean closed;
+        // When the frame being written was started, or 0
+        private volatile long sendStartNanos;
+        // Set by ordered delivery, which sends the session its next message once this one is queued
+        private volatile Consumer<WebSocketMessage<?>> messageCallback = message -> { };
+        
+        GuardedSession(WebSocketSession delegate, int sendTimeLimitMillis, int sendBufferSizeLimit) {
+            super(delegate, sendTimeLimitMillis, sendBufferSizeLimit);
+            this.sendTimeLimitNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeLimitMillis);
+            this.sendBufferSizeLimit = sendBufferSizeLimit;
+            WebSocketSession target = WebSocketSessionDecorator.unwrap(delegate);
+            Session nativeSession = target instanceof NativeWebSocketSession
+                ? ((NativeWebSocketSession) target).getNativeSession(Session.class) : null;
+            if (nativeSession != null) {
+                nativeSession.getUserProperties().put(BLOCKING_SEND_TIMEOUT, (long) sendTimeLimitMillis);
+            }
+        }
+        
+        @Override
+        public void sendMessage(WebSocketMessage<?> message) throws IOException {
+            if (closed) {
+                return;
+            }
+            try {
+                synchronized (this) {
+                    queue.add(new Frame(message));
+                    bufferedBytes += message.getPayloadLength();
+                    updateMax(bufferedBytes);
+                    if (bufferedBytes > sendBufferSizeLimit) {
+                        overflow();
+                    }
+                }
+            } finally {
+                messageCallback.accept(message);
+            }
+            // Frames queued by others just as this thread finished flushing are its to write
+            while (tryFlush()) {
+                if (closed || !hasQueued()) {
+                    return;
+                }
+            }
+            long sendStart = sendStartNanos;
+            if (sendStart != 0 && System.nanoTime() - sendStart > sendTimeLimitNanos) {
+                throw disconnect("Send time " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sendStart)
+                    + " (ms) exceeded the allowed limit " + TimeUnit.NANOSECONDS.toMillis(sendTimeLimitNanos));
+            }
+        }
+        
+        @Override
+        public void setMessageCallback(Consumer<WebSocketMessage<?>> callback) {
+            this.messageCallback = callback;
+        }
+        
+        @Override
+        public synchronized int getBufferSize() {
+            return bufferedBytes;
+        }
+        
+        @Override
+        public long getTimeSinceSendStarted() {
+            long sendStart = sendStartNanos;
+            return sendStart != 0 ? TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sendStart) : 0;
+        }
+        
+        private synchronized boolean hasQueued() {
+            return !queue.isEmpty();
+        }
+        
+        // False if another thread is writing
+        private boolean tryFlush() throws IOException {
+            if (!flushLock.tryLock()) {
+                return false;
+            }
+            try {
+                while (!closed) {
+                    Frame frame;
+                    synchronized (this) {
+                        frame = queue.poll();
+                        if (frame == null) {
+                            break;
+                        }
+                        bufferedBytes -= frame.message.getPayloadLength();
+                    }
+                    sendStartNanos = System.nanoTime();
+                    try {
+                        getDelegate().sendMessage(frame.message);
+                    } catch (IOException e) {
+                        if (System.nanoTime() - sendStartNanos >= sendTimeLimitNanos) {
+                            // The container gave up on the socket at the send time limit
+                            throw disconnect("Send time exceeded the allowed limit "
+                                + TimeUnit.NANOSECONDS.toMillis(sendTimeLimitNanos) + " (ms)");
+                        }
+                        throw e;
+                    }
+                }
+            } finally {
+                sendStartNanos = 0;
+                flushLock.unlock();
+            }
+            return true;
+        }
+        
+        // Caller holds the lock
+        private void overflow() {
+            if (!slow) {
+                slow = true;
+                slowSessions.incrementAndGet();
+            }
+            if (policy == Policy.DISCONNECT) {
+                throw disconnect("Buffer size " + bufferedBytes + " bytes exceeded the allowed limit " + sendBufferSizeLimit);
+            }
+            if (policy == Policy.CONFLATE) {
+                // Newest first, so the frame kept for a key is the latest one
+                Set<String> seen = new HashSet<>();
+                for (Iterator<Frame> frames = queue.descendingIterator(); frames.hasNext(); ) {
+                    Frame frame = frames.next();
+                    String key = frame.key();
+                    if (!key.isEmpty() && !seen.add(key)) {
+                        frames.remove();
+                        bufferedBytes -= frame.message.getPayloadLength();
+                        conflatedFrames.incrementAndGet();
+                    }
+                }
+            }
+            // The frame just queued always stays
+            while (bufferedBytes > sendBufferSizeLimit && queue.size() > 1) {
+                bufferedBytes -= queue.poll().message.getPayloadLength();
+                droppedFrames.incrementAndGet();
+            }
+        }
+        
+        // Spring's handler closes the session when this is thrown
+        private SessionLimitExceededException disconnect(String reason) {
+            boolean first;
+            synchronized (this) {
+                first = !disconnected;
+                disconnected = true;
+                closed = true;
+                queue.clear();
+                bufferedBytes = 0;
+            }
+            // The writer and a thread that found it stuck can both get here
+            if (first) {
+                disconnectedSessions.incrementAndGet();
+                logger.warn("Disconnecting slow session " + getId() + ": " + reason);
+            }
+            return new SessionLimitExceededException(reason, CloseStatus.SESSION_NOT_RELIABLE);
+        }
+        
+        @Override
+        public void close(CloseStatus status) throws IOException {
+            closed = true;
+            super.close(status);
+        }
+    
+    }
+    
+    private void updateMax(long bufferedBytes) {
+        long currentMax = maxBufferedBytes.get();
+        while (bufferedBytes > currentMax && !maxBufferedBytes.compareAndSet(currentMax, bufferedBytes)) {
+            currentMax = maxBufferedBytes.get();
+        }
+    }
+    
+    private final class Frame {
+        private final WebSocketMessage<?> message;
+        private String key;
+        
+        Frame(WebSocketMessage<?> message) {
+            this.message = message;
+        }
+        
+        // Destination and user id of a MESSAGE frame carrying a single change; parsed only once a queue overflows
+        String key() {
+            if (key == null) {
+                try {
+                    key = parseKey();
+                } catch (IOException | RuntimeException e) {
+                    key = NO_KEY;
+                }
+            }
+            return key;
+        }
+        
+        private String parseKey() throws IOException {
+            byte[] frame;
+            if (message instanceof TextMessage) {
+                frame = ((TextMessage) message).getPayload().getBytes(StandardCharsets.UTF_8);
+            } else if (message instanceof BinaryMessage) {
+                ByteBuffer payload = ((BinaryMessage) message).getPayload().duplicate();
+                frame = new byte[payload.remaining()];
+                payload.get(frame);
+            } else {
+                return NO_KEY;
+            }
+            int bodyStart = indexOf(frame, "\n\n".getBytes(StandardCharsets.UTF_8)) + 2;
+            if (bodyStart < 2) {
+                return NO_KEY;
+            }
+            String headers = new String(frame, 0, bodyStart, StandardCharsets.UTF_8);
+            if (!headers.startsWith("MESSAGE\n")) {
+                return NO_KEY;
+            }
+            String destination = header(headers, "destination");
+            if (destination == null) {
+                return NO_KEY;
+            }
+            int bodyLength = frame.length - bodyStart - (frame[frame.length - 1] == 0 ? 1 : 0);
+            ObjectMapper mapper = "application/octet-stream".equals(header(headers, "content-type")) ? cbor : json;
+            JsonNode event = mapper.readTree(frame, bodyStart, bodyLength);
+            String type = event.path("type").asText();
+            JsonNode userId = type.equals("USER_DELETED") ? event.path("userId")
+                : type.equals("USER_CREATED") || type.equals("USER_UPDATED") ? event.path("user").path("id") : null;
+            return userId != null && userId.isNumber() ? destination + "#" + userId.asLong() : NO_KEY;
+        }
+    }
+    
+    private static String header(String headers, String name) {
+        for (String line : headers.split("\n")) {
+            if (line.startsWith(name + ":")) {
+                return line.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+    
+    private static int indexOf(byte[] bytes, byte[] target) {
+        outer:
+        for (int i = 0; i <= bytes.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (bytes[i + j] != target[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -1,23 +1,85 @@
-package com.example.eventapi.config;
-
-import org.springframework.context.annotation.Configuration;
-import org.springframework.messaging.simp.config.MessageBrokerRegistry;
-import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
-import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
-import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
-
-@Configuration
-@EnableWebSocketMessageBroker
-public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
-    
-    @Override
-    public void configureMessageBroker(MessageBrokerRegistry config) {
-        config.enableSimpleBroker("/topic");
-        config.setApplicationDestinationPrefixes("/app");
-    }
-    
-    @Override
-    public void registerStompEndpoints(StompEndpointRegistry registry) {
-        registry.addEndpoint("/ws").withSockJS();
-    }
-}
+package com.example.eventapi.config;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
+import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
+import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
+import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+
+// Broker settings, applied by MessageBrokerConfig in place of @EnableWebSocketMessageBroker
+@Configuration
+public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
+    
+    @Autowired
+    private ChannelExecutors channelExecutors;
+    
+    @Autowired
+    private PayloadFormatInterceptor payloadFormatInterceptor;
+    
+    // How long one frame may take to write and how much may queue behind it before the
+    // SlowConsumerGuard policy applies
+    @Value("${eventapi.websocket.sendTimeLimitMillis:10000}")
+    private int sendTimeLimitMillis;
+    
+    @Value("${eventapi.websocket.sendBufferSizeLimit:524288}")
+    private int sendBufferSizeLimit;
+    
+    // Largest inbound STOMP message; a users.import chunk of 1000 users is about 60 KB
+    @Value("${eventapi.websocket.messageSizeLimit:1048576}")
+    private int messageSizeLimit;
+    
+    // Tomcat closes a WebSocket whose message does not fit its 8 KB default buffer
+    @Bean
+    public ServletServerContainerFactoryBean webSocketContainer() {
+        ServletServerContainerFactoryBean container = new ServletServerContainerFactoryBean();
+        container.setMaxTextMessageBufferSize(messageSizeLimit);
+        container.setMaxBinaryMessageBufferSize(messageSizeLimit);
+        return container;
+    }
+    
+    @Override
+    public void configureMessageBroker(MessageBrokerRegistry config) {
+        // /topic for broadcasts, /queue for replies addressed to one session via /user/queue/...
+        config.enableSimpleBroker("/topic", "/queue");
+        config.setApplicationDestinationPrefixes("/app");
+        config.setUserDestinationPrefix("/user");
+        // Deliver to each session in publish order, so change feed subscribers see seq in order
+        config.setPreservePublishOrder(true);
+        if (channelExecutors.getBroker() != null) {
+            config.configureBrokerChannel().taskExecutor(channelExecutors.getBroker());
+        }
+    }
+    
+    @Override
+    public void configureClientInboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor(channelExecutors.getInbound());
+        registration.interceptors(payloadFormatInterceptor);
+    }
+    
+    @Override
+    public void configureClientOutboundChannel(ChannelRegistration registration) {
+        registration.taskExecutor(channelExecutors.getOutbound());
+        registration.interceptors(payloadFormatInterceptor.encoder());
+    }
+    
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setSendTimeLimit(sendTimeLimitMillis);
+        registration.setSendBufferSizeLimit(sendBufferSizeLimit);
+        registration.setMessageSizeLimit(messageSizeLimit);
+    }
+    
+    @Override
+    public void registerStompEndpoints(StompEndpointRegistry registry) {
+        // SockJS also serves a raw WebSocket on /ws/websocket, which can carry binary CBOR frames
+        registry.addEndpoint("/ws").withSockJS();
+        // The same STOMP over a plain WebSocket, for clients that need no fallback: no info
+        // request before connecting, and no SockJS array wrapping and escaping of each frame
+        registry.addEndpoint("/ws-native");
+    }
+}
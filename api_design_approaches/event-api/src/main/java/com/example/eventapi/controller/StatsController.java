@@ -0,0 +1,66 @@
+package com.example.eventapi.controller;
+
+import com.example.eventapi.config.ChannelExecutors;
+import com.example.eventapi.config.SlowConsumerGuard;
+import com.example.eventapi.dto.ChannelStats;
+import com.example.eventapi.dto.JvmStats;
+import com.example.eventapi.dto.PersistenceStats;
+import com.example.eventapi.dto.SlowConsumerStats;
+import com.example.eventapi.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+// Plain HTTP, so the numbers can be read while the channels themselves are saturated
+@RestController
+public class StatsController {
+    
+    private final ChannelExecutors channelExecutors;
+    private final SlowConsumerGuard slowConsumerGuard;
+    private final UserRepository userRepository;
+    
+    @Autowired
+    public StatsController(ChannelExecutors channelExecutors, SlowConsumerGuard slowConsumerGuard,
+                           UserRepository userRepository) {
+        this.channelExecutors = channelExecutors;
+        this.slowConsumerGuard = slowConsumerGuard;
+        this.userRepository = userRepository;
+    }
+    
+    @GetMapping("/channels/stats")
+    public List<ChannelStats> channelStats() {
+        return channelExecutors.getStats();
+    }
+    
+    @GetMapping("/sessions/stats")
+    public SlowConsumerStats sessionStats() {
+        return slowConsumerGuard.getStats();
+    }
+    
+    @GetMapping("/persistence/stats")
+    public PersistenceStats persistenceStats() {
+        return userRepository.getStats();
+    }
+    
+    @GetMapping("/jvm/stats")
+    public JvmStats jvmStats() {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        JvmStats stats = new JvmStats();
+        stats.setHeapUsedBytes(heap.getUsed());
+        stats.setHeapCommittedBytes(heap.getCommitted());
+        stats.setHeapMaxBytes(heap.getMax());
+        stats.setThreads(threads.getThreadCount());
+        stats.setPeakThreads(threads.getPeakThreadCount());
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        stats.setProcessCpuNanos(os instanceof com.sun.management.OperatingSystemMXBean
+            ? ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime() : -1);
+        return stats;
+    }
+}
@@ -1,111 +1,219 @@
-package com.example.eventapi.controller;
-
-import com.example.eventapi.dto.UpdateUserRequest;
-import com.example.eventapi.dto.UserDTO;
-import com.example.eventapi.dto.UserIdRequest;
-import com.example.eventapi.event.*;
-import com.example.eventapi.model.User;
-import com.example.eventapi.repository.UserRepository;
-import com.example.eventapi.service.UserService;
-
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.handler.annotation.MessageMapping;
-import org.springframework.messaging.handler.annotation.SendTo;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
-import org.springframework.stereotype.Controller;
-
-import java.util.List;
-import java.util.Optional;
-
-@Controller
-public class UserController {
-    
-	private final UserService userService;
-    private final SimpMessagingTemplate messagingTemplate;
-    
-    @Autowired
-    public UserController(UserService userService, SimpMessagingTemplate messagingTemplate) {
-    	this.userService = userService;
-        this.messagingTemplate = messagingTemplate;
-    }
-    
-    @MessageMapping("/users.getAll")
-    @SendTo("/topic/users")
-    public UserEvent getAllUsers() {
-        try {
-            List<User> users = userService.findAllUsers();
-            return new UserListEvent(users);
-        } catch (Exception e) {
-            return new ErrorEvent("Failed to fetch users: " + e.getMessage(), 500);
-        }
-    }
-    
-    @MessageMapping("/users.get")
-    @SendTo("/topic/users")
-    public UserEvent getUser(UserIdRequest request) {
-        try {
-            Optional<User> userOpt = userService.findUserById(request.getId());
-            if (userOpt.isPresent()) {
-                return new GetUserEvent(userOpt.get());
-            } else {
-                return new ErrorEvent("User not found with id: " + request.getId(), 404);
-            }
-        } catch (Exception e) {
-            return new ErrorEvent("Failed to fetch user: " + e.getMessage(), 500);
-        }
-    }
-    
-    @MessageMapping("/users.create")
-    @SendTo("/topic/users")
-    public UserEvent createUser(UserDTO userDTO) {
-        try {
-            User user = userDTO.toEntity();
-            User savedUser = userService.createUser(user);
-            return new UserCreatedEvent(savedUser);
-        } catch (Exception e) {
-            return new ErrorEvent("Failed to create user: " + e.getMessage(), 500);
-        }
-    }
-    
-    @MessageMapping("/users.update")
-    @SendTo("/topic/users")
-    public UserEvent updateUser(UpdateUserRequest request) {
-        try {
-            Long userId = request.getId();
-            Optional<User> existingUserOpt = userService.findUserById(userId);
-            
-            if (existingUserOpt.isPresent()) {
-                User existingUser = existingUserOpt.get();
-                UserDTO userDTO = request.getUser();
-                
-                existingUser.setName(userDTO.getName());
-                existingUser.setEmail(userDTO.getEmail());
-                
-                User updatedUser = userService.createUser(existingUser);
-                return new UserUpdatedEvent(updatedUser);
-            } else {
-                return new ErrorEvent("User not found with id: " + userId, 404);
-            }
-        } catch (Exception e) {
-            return new ErrorEvent("Failed to update user: " + e.getMessage(), 500);
-        }
-    }
-    
-    @MessageMapping("/users.delete")
-    @SendTo("/topic/users")
-    public UserEvent deleteUser(UserIdRequest request) {
-        try {
-            Long userId = request.getId();
-            Optional<User> existingUserOpt = userService.findUserById(userId);
-            
-            if (existingUserOpt.isPresent()) {
-            	userService.deleteUser(userId);
-                return new UserDeletedEvent(userId);
-            } else {
-                return new ErrorEvent("User not found with id: " + userId, 404);
-            }
-        } catch (Exception e) {
-            return new ErrorEvent("Failed to delete user: " + e.getMessage(), 500);
-        }
-    }
-}
+package com.example.eventapi.controller;
+
+import com.example.eventapi.dto.ImportUsersRequest;
+import com.example.eventapi.dto.ReplayRequest;
+import com.example.eventapi.dto.UpdateUserRequest;
+import com.example.eventapi.dto.UserDTO;
+import com.example.eventapi.dto.UserIdRequest;
+import com.example.eventapi.event.*;
+import com.example.eventapi.model.User;
+import com.example.eventapi.repository.UserRepository;
+import com.example.eventapi.service.UserChangeFeed;
+import com.example.eventapi.service.UserEventCoalescer;
+import com.example.eventapi.service.UserImportTracker;
+import com.example.eventapi.service.UserPersistenceAcknowledger;
+import com.example.eventapi.service.UserService;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Query results and errors go only to the session that sent the request, on
+ * /user/queue/users. Successful mutations are broadcast to every subscriber of
+ * /topic/users. Both carry the request's correlation-id header, if it had one.
+ * Mutations also go through the {@link UserChangeFeed}, which numbers them and
+ * publishes them on /topic/users.changes. With coalescing on, the broadcasts on
+ * /topic/users are batched by the {@link UserEventCoalescer}. With write-behind on, a
+ * mutation is broadcast before it reaches the database; the
+ * {@link UserPersistenceAcknowledger} tells the requester once it is committed.
+ */
+@Controller
+public class UserController {
+    
+    public static final String USERS_TOPIC = "/topic/users";
+    // Subscribed to as /user/queue/users; each session only sees its own replies
+    public static final String REPLY_QUEUE = "/queue/users";
+    public static final String CORRELATION_ID_HEADER = "correlation-id";
+	
+	private final UserService userService;
+    private final UserChangeFeed changeFeed;
+    private final UserEventCoalescer coalescer;
+    private final UserPersistenceAcknowledger acknowledger;
+    private final UserImportTracker imports;
+    private final SimpMessagingTemplate messagingTemplate;
+    
+    @Autowired
+    public UserController(UserService userService, UserChangeFeed changeFeed, UserEventCoalescer coalescer,
+                          UserPersistenceAcknowledger acknowledger, UserImportTracker imports,
+                          SimpMessagingTemplate messagingTemplate) {
+    	this.userService = userService;
+        this.changeFeed = changeFeed;
+        this.coalescer = coalescer;
+        this.acknowledger = acknowledger;
+        this.imports = imports;
+        this.messagingTemplate = messagingTemplate;
+    }
+    
+    @MessageMapping("/users.getAll")
+    public void getAllUsers(SimpMessageHeaderAccessor request) {
+        try {
+            List<User> users = userService.findAllUsers();
+            reply(request, new UserListEvent(users));
+        } catch (Exception e) {
+            reply(request, new ErrorEvent("Failed to fetch users: " + e.getMessage(), 500));
+        }
+    }
+    
+    // All users together with the feed seq they reflect, to apply later changes to
+    @MessageMapping("/users.snapshot")
+    public void getSnapshot(SimpMessageHeaderAccessor request) {
+        try {
+            reply(request, changeFeed.snapshot(userService::findAllUsers));
+        } catch (Exception e) {
+            reply(request, new ErrorEvent("Failed to fetch snapshot: " + e.getMessage(), 500));
+        }
+    }
+    
+    // Changes after the given seq, streamed to /user/queue/users.replay for a client
+    // resuming after a dropped connection
+    @MessageMapping("/users.replay")
+    public void replayChanges(ReplayRequest replayRequest, SimpMessageHeaderAccessor request) {
+        changeFeed.replay(replayRequest.getAfterSeq(), request.getSessionId());
+    }
+    
+    @MessageMapping("/users.get")
+    public void getUser(UserIdRequest idRequest, SimpMessageHeaderAccessor request) {
+        try {
+            Optional<User> userOpt = userService.findUserById(idRequest.getId());
+            if (userOpt.isPresent()) {
+                reply(request, new GetUserEvent(userOpt.get()));
+            } else {
+                reply(request, new ErrorEvent("User not found with id: " + idRequest.getId(), 404));
+            }
+        } catch (Exception e) {
+            reply(request, new ErrorEvent("Failed to fetch user: " + e.getMessage(), 500));
+        }
+    }
+    
+    @MessageMapping("/users.create")
+    public void createUser(UserDTO userDTO, SimpMessageHeaderAccessor request) {
+        try {
+            User user = userDTO.toEntity();
+            UserCreatedEvent event = changeFeed.recordNew(() -> userService.createUser(user), UserCreatedEvent::new);
+            broadcast(request, event);
+            acknowledgeWhenPersisted(request, event.getSeq());
+        } catch (Exception e) {
+            reply(request, new ErrorEvent("Failed to create user: " + e.getMessage(), 500));
+        }
+    }
+    
+    // One chunk of a bulk import, applied as a single change on the change feed. The sender
+    // gets a progress event per chunk and /topic/users one summary at the end, not a
+    // broadcast per user. Send the next chunk after the last one's progress arrives.
+    @MessageMapping("/users.import")
+    public void importUsers(ImportUsersRequest importRequest, SimpMessageHeaderAccessor request) {
+        String importId = importRequest.getImportId();
+        if (importId == null) {
+            reply(request, new ErrorEvent("An importId is required", 400));
+            return;
+        }
+        try {
+            List<User> users = new ArrayList<>();
+            if (importRequest.getUsers() != null) {
+                for (UserDTO userDTO : importRequest.getUsers()) {
+                    users.add(userDTO.toEntity());
+                }
+            }
+            UsersImportedEvent event = users.isEmpty() ? null
+                    : changeFeed.recordNew(() -> userService.importUsers(users),
+                            (imported, seq) -> new UsersImportedEvent(importId, imported, seq));
+            long seq = event != null ? event.getSeq() : -1;
+            reply(request, imports.chunkApplied(request.getSessionId(), importId, users.size(), seq, importRequest.isLast()));
+            if (event != null) {
+                acknowledgeWhenPersisted(request, seq);
+            }
+        } catch (Exception e) {
+            reply(request, new ErrorEvent("Failed to import users: " + e.getMessage(), 500));
+        }
+    }
+    
+    @MessageMapping("/users.update")
+    public void updateUser(UpdateUserRequest updateRequest, SimpMessageHeaderAccessor request) {
+        try {
+            Long userId = updateRequest.getId();
+            User userDetails = updateRequest.getUser().toEntity();
+            UserUpdatedEvent event = changeFeed.record(userId,
+                    () -> userService.updateUser(userId, userDetails).orElse(null), UserUpdatedEvent::new);
+            
+            if (event != null) {
+                broadcast(request, event);
+                acknowledgeWhenPersisted(request, event.getSeq());
+            } else {
+                reply(request, new ErrorEvent("User not found with id: " + userId, 404));
+            }
+        } catch (Exception e) {
+            reply(request, new ErrorEvent("Failed to update user: " + e.getMessage(), 500));
+        }
+    }
+    
+    @MessageMapping("/users.delete")
+    public void deleteUser(UserIdRequest idRequest, SimpMessageHeaderAccessor request) {
+        try {
+            Long userId = idRequest.getId();
+            UserDeletedEvent event = changeFeed.record(userId,
+                    () -> userService.deleteUser(userId) ? userId : null, UserDeletedEvent::new);
+            
+            if (event != null) {
+                broadcast(request, event);
+                acknowledgeWhenPersisted(request, event.getSeq());
+            } else {
+                reply(request, new ErrorEvent("User not found with id: " + userId, 404));
+            }
+        } catch (Exception e) {
+            reply(request, new ErrorEvent("Failed to delete user: " + e.getMessage(), 500));
+        }
+    }
+    
+    // Same routing as @SendToUser(broadcast = false): the session id stands in for the user
+    // name, so only the requesting session gets the event even without a Principal
+    private void reply(SimpMessageHeaderAccessor request, UserEvent event) {
+        String sessionId = request.getSessionId();
+        messagingTemplate.convertAndSendToUser(sessionId, REPLY_QUEUE, event, headers(request, sessionId));
+    }
+    
+    private void broadcast(SimpMessageHeaderAccessor request, UserEvent event) {
+        if (coalescer.isEnabled()) {
+            coalescer.add(event, request.getFirstNativeHeader(CORRELATION_ID_HEADER));
+            return;
+        }
+        messagingTemplate.convertAndSend(USERS_TOPIC, event, headers(request, null));
+    }
+    
+    private void acknowledgeWhenPersisted(SimpMessageHeaderAccessor request, long seq) {
+        if (acknowledger.isEnabled()) {
+            acknowledger.acknowledge(request.getSessionId(), request.getFirstNativeHeader(CORRELATION_ID_HEADER), seq);
+        }
+    }
+    
+    private static MessageHeaders headers(SimpMessageHeaderAccessor request, String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        if (sessionId != null) {
+            accessor.setSessionId(sessionId);
+        }
+        String correlationId = request.getFirstNativeHeader(CORRELATION_ID_HEADER);
+        if (correlationId != null) {
+            accessor.setNativeHeader(CORRELATION_ID_HEADER, correlationId);
+        }
+        accessor.setLeaveMutable(true);
+        return accessor.getMessageHeaders();
+    }
+}
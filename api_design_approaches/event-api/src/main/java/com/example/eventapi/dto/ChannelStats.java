@@ -0,0 +1,150 @@
+package com.example.eventapi.dto;
+
+// Executor statistics of one message channel, as returned by GET /channels/stats
+public class ChannelStats {
+    private String channel;
+    private boolean virtualThreads;
+    private int poolSize;
+    private int maxPoolSize;
+    private int activeThreads;
+    private int queueDepth;
+    private int queueCapacity;
+    private long maxQueueDepth;
+    private long completedTasks;
+    // Tasks that found the queue full and ran on the sending thread
+    private long rejectedTasks;
+    private double queueWaitMeanMicros;
+    private long queueWaitP99Micros;
+    private long queueWaitMaxMicros;
+    private double runMeanMicros;
+    private long runP99Micros;
+    private long runMaxMicros;
+    
+    public String getChannel() {
+        return channel;
+    }
+    
+    public void setChannel(String channel) {
+        this.channel = channel;
+    }
+    
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+    
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+    
+    public int getPoolSize() {
+        return poolSize;
+    }
+    
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+    
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+    
+    public void setMaxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+    
+    public int getActiveThreads() {
+        return activeThreads;
+    }
+    
+    public void setActiveThreads(int activeThreads) {
+        this.activeThreads = activeThreads;
+    }
+    
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+    
+    public void setQueueDepth(int queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+    
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+    
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+    
+    public long getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+    
+    public void setMaxQueueDepth(long maxQueueDepth) {
+        this.maxQueueDepth = maxQueueDepth;
+    }
+    
+    public long getCompletedTasks() {
+        return completedTasks;
+    }
+    
+    public void setCompletedTasks(long completedTasks) {
+        this.completedTasks = completedTasks;
+    }
+    
+    public long getRejectedTasks() {
+        return rejectedTasks;
+    }
+    
+    public void setRejectedTasks(long rejectedTasks) {
+        this.rejectedTasks = rejectedTasks;
+    }
+    
+    public double getQueueWaitMeanMicros() {
+        return queueWaitMeanMicros;
+    }
+    
+    public void setQueueWaitMeanMicros(double queueWaitMeanMicros) {
+        this.queueWaitMeanMicros = queueWaitMeanMicros;
+    }
+    
+    public long getQueueWaitP99Micros() {
+        return queueWaitP99Micros;
+    }
+    
+    public void setQueueWaitP99Micros(long queueWaitP99Micros) {
+        this.queueWaitP99Micros = queueWaitP99Micros;
+    }
+    
+    public long getQueueWaitMaxMicros() {
+        return queueWaitMaxMicros;
+    }
+    
+    public void setQueueWaitMaxMicros(long queueWaitMaxMicros) {
+        this.queueWaitMaxMicros = queueWaitMaxMicros;
+    }
+    
+    public double getRunMeanMicros() {
+        return runMeanMicros;
+    }
+    
+    public void setRunMeanMicros(double runMeanMicros) {
+        this.runMeanMicros = runMeanMicros;
+    }
+    
+    public long getRunP99Micros() {
+        return runP99Micros;
+    }
+    
+    public void setRunP99Micros(long runP99Micros) {
+        this.runP99Micros = runP99Micros;
+    }
+    
+    public long getRunMaxMicros() {
+        return runMaxMicros;
+    }
+    
+    public void setRunMaxMicros(long runMaxMicros) {
+        this.runMaxMicros = runMaxMicros;
+    }
+}
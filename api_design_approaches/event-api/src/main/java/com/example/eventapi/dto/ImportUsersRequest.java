@@ -0,0 +1,42 @@
+package com.example.eventapi.dto;
+
+import java.util.List;
+
+// One chunk of a bulk import; the chunks of an import share its id, and the last one says so
+public class ImportUsersRequest {
+    private String importId;
+    private List<UserDTO> users;
+    private boolean last;
+    
+    public ImportUsersRequest() {}
+    
+    public ImportUsersRequest(String importId, List<UserDTO> users, boolean last) {
+        this.importId = importId;
+        this.users = users;
+        this.last = last;
+    }
+    
+    public String getImportId() {
+        return importId;
+    }
+    
+    public void setImportId(String importId) {
+        this.importId = importId;
+    }
+    
+    public List<UserDTO> getUsers() {
+        return users;
+    }
+    
+    public void setUsers(List<UserDTO> users) {
+        this.users = users;
+    }
+    
+    public boolean isLast() {
+        return last;
+    }
+    
+    public void setLast(boolean last) {
+        this.last = last;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.eventapi.dto;
+
+// Heap, thread counts and CPU time of the server, as returned by GET /jvm/stats
+public class JvmStats {
+    private long heapUsedBytes;
+    private long heapCommittedBytes;
+    private long heapMaxBytes;
+    private int threads;
+    private int peakThreads;
+    // CPU time of the whole process since it started, or -1 where the JVM does not tell
+    private long processCpuNanos;
+    
+    public long getHeapUsedBytes() {
+        return heapUsedBytes;
+    }
+    
+    public void setHeapUsedBytes(long heapUsedBytes) {
+        this.heapUsedBytes = heapUsedBytes;
+    }
+    
+    public long getHeapCommittedBytes() {
+        return heapCommittedBytes;
+    }
+    
+    public void setHeapCommittedBytes(long heapCommittedBytes) {
+        this.heapCommittedBytes = heapCommittedBytes;
+    }
+    
+    public long getHeapMaxBytes() {
+        return heapMaxBytes;
+    }
+    
+    public void setHeapMaxBytes(long heapMaxBytes) {
+        this.heapMaxBytes = heapMaxBytes;
+    }
+    
+    public int getThreads() {
+        return threads;
+    }
+    
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+    
+    public int getPeakThreads() {
+        return peakThreads;
+    }
+    
+    public void setPeakThreads(int peakThreads) {
+        this.peakThreads = peakThreads;
+    }
+    
+    public long getProcessCpuNanos() {
+        return processCpuNanos;
+    }
+    
+    public void setProcessCpuNanos(long processCpuNanos) {
+        this.processCpuNanos = processCpuNanos;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.eventapi.dto;
+
+// Write-behind counts since startup, as returned by GET /persistence/stats
+public class PersistenceStats {
+    private boolean writeBehind;
+    private long queuedWrites;
+    private long committedWrites;
+    private long commits;
+    private long failedCommits;
+    private long failedWrites;
+    private long largestCommit;
+    
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+    
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+    
+    public long getQueuedWrites() {
+        return queuedWrites;
+    }
+    
+    public void setQueuedWrites(long queuedWrites) {
+        this.queuedWrites = queuedWrites;
+    }
+    
+    public long getCommittedWrites() {
+        return committedWrites;
+    }
+    
+    public void setCommittedWrites(long committedWrites) {
+        this.committedWrites = committedWrites;
+    }
+    
+    public long getCommits() {
+        return commits;
+    }
+    
+    public void setCommits(long commits) {
+        this.commits = commits;
+    }
+    
+    public long getFailedCommits() {
+        return failedCommits;
+    }
+    
+    public void setFailedCommits(long failedCommits) {
+        this.failedCommits = failedCommits;
+    }
+    
+    public long getFailedWrites() {
+        return failedWrites;
+    }
+    
+    public void setFailedWrites(long failedWrites) {
+        this.failedWrites = failedWrites;
+    }
+    
+    public long getLargestCommit() {
+        return largestCommit;
+    }
+    
+    public void setLargestCommit(long largestCommit) {
+        this.largestCommit = largestCommit;
+    }
+}
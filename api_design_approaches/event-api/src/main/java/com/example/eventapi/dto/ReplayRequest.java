@@ -0,0 +1,20 @@
+package com.example.eventapi.dto;
+
+public class ReplayRequest {
+    // Seq of the last change the client applied
+    private Long afterSeq;
+    
+    public ReplayRequest() {}
+    
+    public ReplayRequest(Long afterSeq) {
+        this.afterSeq = afterSeq;
+    }
+    
+    public Long getAfterSeq() {
+        return afterSeq;
+    }
+    
+    public void setAfterSeq(Long afterSeq) {
+        this.afterSeq = afterSeq;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.eventapi.dto;
+
+// Slow session counts since startup, as returned by GET /sessions/stats
+public class SlowConsumerStats {
+    private String policy;
+    private long slowSessions;
+    private long disconnectedSessions;
+    private long droppedFrames;
+    private long conflatedFrames;
+    private long maxBufferedBytes;
+    
+    public String getPolicy() {
+        return policy;
+    }
+    
+    public void setPolicy(String policy) {
+        this.policy = policy;
+    }
+    
+    public long getSlowSessions() {
+        return slowSessions;
+    }
+    
+    public void setSlowSessions(long slowSessions) {
+        this.slowSessions = slowSessions;
+    }
+    
+    public long getDisconnectedSessions() {
+        return disconnectedSessions;
+    }
+    
+    public void setDisconnectedSessions(long disconnectedSessions) {
+        this.disconnectedSessions = disconnectedSessions;
+    }
+    
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+    
+    public void setDroppedFrames(long droppedFrames) {
+        this.droppedFrames = droppedFrames;
+    }
+    
+    public long getConflatedFrames() {
+        return conflatedFrames;
+    }
+    
+    public void setConflatedFrames(long conflatedFrames) {
+        this.conflatedFrames = conflatedFrames;
+    }
+    
+    public long getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+    
+    public void setMaxBufferedBytes(long maxBufferedBytes) {
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+}
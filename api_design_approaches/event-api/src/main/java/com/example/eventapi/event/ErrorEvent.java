@@ -1,20 +1,24 @@
-package com.example.eventapi.event;
-
-public class ErrorEvent extends UserEvent {
-    private final String message;
-    private final int code;
-    
-    public ErrorEvent(String message, int code) {
-        super("ERROR");
-        this.message = message;
-        this.code = code;
-    }
-    
-    public String getMessage() {
-        return message;
-    }
-    
-    public int getCode() {
-        return code;
-    }
+package com.example.eventapi.event;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class ErrorEvent extends UserEvent {
+    private final String message;
+    private final int code;
+    
+    @JsonCreator
+    public ErrorEvent(@JsonProperty("message") String message, @JsonProperty("code") int code) {
+        super("ERROR");
+        this.message = message;
+        this.code = code;
+    }
+    
+    public String getMessage() {
+        return message;
+    }
+    
+    public int getCode() {
+        return code;
+    }
 }
\ No newline at end of file
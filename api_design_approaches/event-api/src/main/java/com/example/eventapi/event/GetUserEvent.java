@@ -1,16 +1,19 @@
-package com.example.eventapi.event;
-
-import com.example.eventapi.model.User;
-
-public class GetUserEvent extends UserEvent {
-    private final User user;
-    
-    public GetUserEvent(User user) {
-        super("GET_USER");
-        this.user = user;
-    }
-    
-    public User getUser() {
-        return user;
-    }
+package com.example.eventapi.event;
+
+import com.example.eventapi.model.User;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class GetUserEvent extends UserEvent {
+    private final User user;
+    
+    @JsonCreator
+    public GetUserEvent(@JsonProperty("user") User user) {
+        super("GET_USER");
+        this.user = user;
+    }
+    
+    public User getUser() {
+        return user;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package com.example.eventapi.event;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class ReplayEndEvent extends UserEvent {
+    // Seq of the last replayed change; live changes continue after it
+    private final long seq;
+    
+    @JsonCreator
+    public ReplayEndEvent(@JsonProperty("seq") long seq) {
+        super("REPLAY_END");
+        this.seq = seq;
+    }
+    
+    public long getSeq() {
+        return seq;
+    }
+}
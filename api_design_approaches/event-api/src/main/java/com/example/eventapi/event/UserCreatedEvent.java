@@ -1,16 +1,26 @@
-package com.example.eventapi.event;
-
-import com.example.eventapi.model.User;
-
-public class UserCreatedEvent extends UserEvent {
-    private final User user;
-    
-    public UserCreatedEvent(User user) {
-        super("USER_CREATED");
-        this.user = user;
-    }
-    
-    public User getUser() {
-        return user;
-    }
+package com.example.eventapi.event;
+
+import com.example.eventapi.model.User;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class UserCreatedEvent extends UserEvent {
+    private final User user;
+    // Position in the change feed; each change is one higher than the last
+    private final long seq;
+    
+    @JsonCreator
+    public UserCreatedEvent(@JsonProperty("user") User user, @JsonProperty("seq") long seq) {
+        super("USER_CREATED");
+        this.user = user;
+        this.seq = seq;
+    }
+    
+    public User getUser() {
+        return user;
+    }
+    
+    public long getSeq() {
+        return seq;
+    }
 }
\ No newline at end of file
@@ -1,14 +1,25 @@
-package com.example.eventapi.event;
-
-public class UserDeletedEvent extends UserEvent {
-    private final Long userId;
-    
-    public UserDeletedEvent(Long userId) {
-        super("USER_DELETED");
-        this.userId = userId;
-    }
-    
-    public Long getUserId() {
-        return userId;
-    }
+package com.example.eventapi.event;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class UserDeletedEvent extends UserEvent {
+    private final Long userId;
+    // Position in the change feed; each change is one higher than the last
+    private final long seq;
+    
+    @JsonCreator
+    public UserDeletedEvent(@JsonProperty("userId") Long userId, @JsonProperty("seq") long seq) {
+        super("USER_DELETED");
+        this.userId = userId;
+        this.seq = seq;
+    }
+    
+    public Long getUserId() {
+        return userId;
+    }
+    
+    public long getSeq() {
+        return seq;
+    }
 }
\ No newline at end of file
@@ -1,13 +1,34 @@
-package com.example.eventapi.event;
-
-public abstract class UserEvent {
-    private final String type;
-    
-    public UserEvent(String type) {
-        this.type = type;
-    }
-    
-    public String getType() {
-        return type;
-    }
-}
+package com.example.eventapi.event;
+
+import com.fasterxml.jackson.annotation.JsonSubTypes;
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+
+// The type property picks the subclass when a client reads an event back as a UserEvent;
+// writing an event is unaffected
+@JsonTypeInfo(use = JsonTypeInfo.Id.NAME, include = JsonTypeInfo.As.EXISTING_PROPERTY, property = "type")
+@JsonSubTypes({
+    @JsonSubTypes.Type(value = UserCreatedEvent.class, name = "USER_CREATED"),
+    @JsonSubTypes.Type(value = UserUpdatedEvent.class, name = "USER_UPDATED"),
+    @JsonSubTypes.Type(value = UserDeletedEvent.class, name = "USER_DELETED"),
+    @JsonSubTypes.Type(value = UsersImportedEvent.class, name = "USERS_IMPORTED"),
+    @JsonSubTypes.Type(value = UserEventBatch.class, name = "USER_EVENT_BATCH"),
+    @JsonSubTypes.Type(value = UserListEvent.class, name = "USER_LIST"),
+    @JsonSubTypes.Type(value = UserSnapshotEvent.class, name = "USER_SNAPSHOT"),
+    @JsonSubTypes.Type(value = GetUserEvent.class, name = "GET_USER"),
+    @JsonSubTypes.Type(value = ReplayEndEvent.class, name = "REPLAY_END"),
+    @JsonSubTypes.Type(value = UserPersistedEvent.class, name = "USER_PERSISTED"),
+    @JsonSubTypes.Type(value = UserImportProgressEvent.class, name = "USER_IMPORT_PROGRESS"),
+    @JsonSubTypes.Type(value = UserImportCompletedEvent.class, name = "USER_IMPORT_COMPLETED"),
+    @JsonSubTypes.Type(value = ErrorEvent.class, name = "ERROR")
+})
+public abstract class UserEvent {
+    private final String type;
+    
+    public UserEvent(String type) {
+        this.type = type;
+    }
+    
+    public String getType() {
+        return type;
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.eventapi.event;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+import java.util.Map;
+
+public class UserEventBatch extends UserEvent {
+    // At most one event per user id, in the order the ids first changed
+    private final List<UserEvent> events;
+    // Correlation id of every request whose change went into the batch, collapsed ones
+    // included, with the id of the user it changed
+    private final Map<String, Long> requests;
+    
+    @JsonCreator
+    public UserEventBatch(@JsonProperty("events") List<UserEvent> events, @JsonProperty("requests") Map<String, Long> requests) {
+        super("USER_EVENT_BATCH");
+        this.events = events;
+        this.requests = requests;
+    }
+    
+    public List<UserEvent> getEvents() {
+        return events;
+    }
+    
+    public Map<String, Long> getRequests() {
+        return requests;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.eventapi.event;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// Broadcast once per bulk import in place of a UserCreatedEvent per user; the users
+// themselves are on the change feed, from firstSeq to lastSeq
+public class UserImportCompletedEvent extends UserEvent {
+    private final String importId;
+    private final long imported;
+    // Seqs of the first and last chunk's change, or -1 when nothing was imported
+    private final long firstSeq;
+    private final long lastSeq;
+    
+    @JsonCreator
+    public UserImportCompletedEvent(@JsonProperty("importId") String importId, @JsonProperty("imported") long imported,
+                                    @JsonProperty("firstSeq") long firstSeq, @JsonProperty("lastSeq") long lastSeq) {
+        super("USER_IMPORT_COMPLETED");
+        this.importId = importId;
+        this.imported = imported;
+        this.firstSeq = firstSeq;
+        this.lastSeq = lastSeq;
+    }
+    
+    public String getImportId() {
+        return importId;
+    }
+    
+    public long getImported() {
+        return imported;
+    }
+    
+    public long getFirstSeq() {
+        return firstSeq;
+    }
+    
+    public long getLastSeq() {
+        return lastSeq;
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.eventapi.event;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// Sent to the importing session after each chunk it sends
+public class UserImportProgressEvent extends UserEvent {
+    private final String importId;
+    // Chunks and users applied so far, this one included
+    private final int chunks;
+    private final long imported;
+    // Seq of the chunk's change, or -1 for an empty chunk
+    private final long seq;
+    private final boolean done;
+    
+    @JsonCreator
+    public UserImportProgressEvent(@JsonProperty("importId") String importId, @JsonProperty("chunks") int chunks,
+                                   @JsonProperty("imported") long imported, @JsonProperty("seq") long seq,
+                                   @JsonProperty("done") boolean done) {
+        super("USER_IMPORT_PROGRESS");
+        this.importId = importId;
+        this.chunks = chunks;
+        this.imported = imported;
+        this.seq = seq;
+        this.done = done;
+    }
+    
+    public String getImportId() {
+        return importId;
+    }
+    
+    public int getChunks() {
+        return chunks;
+    }
+    
+    public long getImported() {
+        return imported;
+    }
+    
+    public long getSeq() {
+        return seq;
+    }
+    
+    public boolean isDone() {
+        return done;
+    }
+}
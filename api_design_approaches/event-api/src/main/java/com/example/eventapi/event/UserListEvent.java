@@ -1,17 +1,20 @@
-package com.example.eventapi.event;
-
-import com.example.eventapi.model.User;
-import java.util.List;
-
-public class UserListEvent extends UserEvent {
-    private final List<User> users;
-    
-    public UserListEvent(List<User> users) {
-        super("USER_LIST");
-        this.users = users;
-    }
-    
-    public List<User> getUsers() {
-        return users;
-    }
+package com.example.eventapi.event;
+
+import com.example.eventapi.model.User;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+public class UserListEvent extends UserEvent {
+    private final List<User> users;
+    
+    @JsonCreator
+    public UserListEvent(@JsonProperty("users") List<User> users) {
+        super("USER_LIST");
+        this.users = users;
+    }
+    
+    public List<User> getUsers() {
+        return users;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,27 @@
+package com.example.eventapi.event;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+public class UserPersistedEvent extends UserEvent {
+    // Highest seq among the changes now committed to the database
+    private final long seq;
+    // Correlation ids of the requests whose changes were committed
+    private final List<String> requests;
+    
+    @JsonCreator
+    public UserPersistedEvent(@JsonProperty("seq") long seq, @JsonProperty("requests") List<String> requests) {
+        super("USER_PERSISTED");
+        this.seq = seq;
+        this.requests = requests;
+    }
+    
+    public long getSeq() {
+        return seq;
+    }
+    
+    public List<String> getRequests() {
+        return requests;
+    }
+}
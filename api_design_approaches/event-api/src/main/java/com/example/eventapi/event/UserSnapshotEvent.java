@@ -0,0 +1,27 @@
+package com.example.eventapi.event;
+
+import com.example.eventapi.model.User;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+public class UserSnapshotEvent extends UserEvent {
+    private final List<User> users;
+    // Every change up to and including this seq is reflected in users
+    private final long seq;
+    
+    @JsonCreator
+    public UserSnapshotEvent(@JsonProperty("users") List<User> users, @JsonProperty("seq") long seq) {
+        super("USER_SNAPSHOT");
+        this.users = users;
+        this.seq = seq;
+    }
+    
+    public List<User> getUsers() {
+        return users;
+    }
+    
+    public long getSeq() {
+        return seq;
+    }
+}
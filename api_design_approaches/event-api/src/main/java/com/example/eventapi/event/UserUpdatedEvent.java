@@ -1,16 +1,26 @@
-package com.example.eventapi.event;
-
-import com.example.eventapi.model.User;
-
-public class UserUpdatedEvent extends UserEvent {
-    private final User user;
-    
-    public UserUpdatedEvent(User user) {
-        super("USER_UPDATED");
-        this.user = user;
-    }
-    
-    public User getUser() {
-        return user;
-    }
-}
+package com.example.eventapi.event;
+
+import com.example.eventapi.model.User;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class UserUpdatedEvent extends UserEvent {
+    private final User user;
+    // Position in the change feed; each change is one higher than the last
+    private final long seq;
+    
+    @JsonCreator
+    public UserUpdatedEvent(@JsonProperty("user") User user, @JsonProperty("seq") long seq) {
+        super("USER_UPDATED");
+        this.user = user;
+        this.seq = seq;
+    }
+    
+    public User getUser() {
+        return user;
+    }
+    
+    public long getSeq() {
+        return seq;
+    }
+}
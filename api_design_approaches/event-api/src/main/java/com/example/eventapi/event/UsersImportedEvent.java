@@ -0,0 +1,35 @@
+package com.example.eventapi.event;
+
+import com.example.eventapi.model.User;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.util.List;
+
+// The users one chunk of a bulk import created, as a single change on the change feed
+public class UsersImportedEvent extends UserEvent {
+    private final String importId;
+    private final List<User> users;
+    // Position in the change feed; each change is one higher than the last
+    private final long seq;
+    
+    @JsonCreator
+    public UsersImportedEvent(@JsonProperty("importId") String importId, @JsonProperty("users") List<User> users,
+                              @JsonProperty("seq") long seq) {
+        super("USERS_IMPORTED");
+        this.importId = importId;
+        this.users = users;
+        this.seq = seq;
+    }
+    
+    public String getImportId() {
+        return importId;
+    }
+    
+    public List<User> getUsers() {
+        return users;
+    }
+    
+    public long getSeq() {
+        return seq;
+    }
+}
@@ -0,0 +1,358 @@
+package com.example.eventapi.journal;
+
+import com.example.eventapi.event.UserEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of change events in memory-mapped segment files.
+ *
+ * Each record is [length][offset][crc32][JSON event]. A segment is named after the
+ * offset of its first record and is pre-sized, so unwritten space reads as zero and
+ * marks the end. When a record no longer fits, a new segment is started, and the
+ * oldest ones are deleted once there are more than maxSegments.
+ *
+ * append() only queues the event; a single writer thread serializes and writes queued
+ * records and forces each batch to disk. The queue is bounded, so appends wait once the
+ * writer is queueCapacity events behind. A batch that fails to be written or forced is
+ * recorded as lost, and a replay that includes any of it fails with a
+ * {@link JournalGapException} instead of skipping it. Replays read the mapped segments
+ * directly and run on their own threads.
+ */
+@Component
+public class EventJournal {
+    private static final Logger logger = LoggerFactory.getLogger(EventJournal.class);
+    
+    private static final int HEADER_BYTES = 4 + 8 + 4;
+    
+    private final File directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final ObjectMapper objectMapper;
+    
+    // Oldest first; the last one is being written
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final LinkedBlockingQueue<Pending> queue;
+    private final Thread writer;
+    private final ExecutorService replayExecutor;
+    private final Object flushLock = new Object();
+    // Offset of the last record forced to disk (guarded by flushLock)
+    private long flushedOffset;
+    // {first, last} offset of every batch that failed to reach the disk, oldest first
+    // (guarded by flushLock)
+    private final List<long[]> lostRanges = new ArrayList<>();
+    private volatile boolean closed;
+    
+    @Autowired
+    public EventJournal(@Value("${eventapi.journal.dir:${java.io.tmpdir}/event-api-journal}") String directory,
+                        @Value("${eventapi.journal.segmentBytes:16777216}") int segmentBytes,
+                        @Value("${eventapi.journal.maxSegments:8}") int maxSegments,
+                        @Value("${eventapi.journal.replayThreads:2}") int replayThreads,
+                        @Value("${eventapi.journal.queueCapacity:65536}") int queueCapacity,
+                        ObjectMapper objectMapper) throws IOException {
+        this.directory = new File(directory);
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+        this.objectMapper = objectMapper;
+        
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + this.directory);
+        }
+        recover();
+        
+        this.writer = new Thread(this::writeLoop, "event-journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        this.replayExecutor = Executors.newFixedThreadPool(replayThreads, runnable -> {
+            Thread thread = new Thread(runnable, "event-journal-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    // Offset of the last record on disk, or 0 for an empty journal
+    public long getLastOffset() {
+        synchronized (flushLock) {
+            return flushedOffset;
+        }
+    }
+    
+    // Offset of the oldest retained record, or 0 for an empty journal
+    public long getFirstOffset() {
+        for (Segment segment : segments) {
+            if (segment.lastOffset >= segment.baseOffset) {
+                return segment.baseOffset;
+            }
+        }
+        return 0;
+    }
+    
+    // Queues the event for the writer thread, waiting while the queue is full. Offsets must
+    // increase. An interrupted wait leaves the event out and records it as lost.
+    public void append(long offset, UserEvent event) {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        try {
+            queue.put(new Pending(offset, event));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while queueing event " + offset + " for the journal");
+            synchronized (flushLock) {
+                lostRanges.add(new long[] {offset, offset});
+            }
+        }
+    }
+    
+    public void submitReplay(Runnable replay) {
+        replayExecutor.execute(replay);
+    }
+    
+    // Passes the JSON of every record with fromOffset <= offset <= toOffset to the consumer,
+    // in order, once the writer has caught up with toOffset. Returns the number of records.
+    // An empty range returns at once, since toOffset may be an offset never appended.
+    public int replay(long fromOffset, long toOffset, Consumer<byte[]> consumer)
+            throws InterruptedException, JournalGapException {
+        if (fromOffset > toOffset) {
+            return 0;
+        }
+        awaitFlushed(toOffset);
+        synchronized (flushLock) {
+            for (long[] lost : lostRanges) {
+                if (lost[0] <= toOffset && lost[1] >= fromOffset) {
+                    throw new JournalGapException(lost[0], lost[1]);
+                }
+            }
+        }
+        int count = 0;
+        for (Segment segment : segments) {
+            if (segment.lastOffset < fromOffset) {
+                continue;
+            }
+            if (segment.baseOffset > toOffset) {
+                break;
+            }
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(0);
+            int limit = segment.position;
+            while (buffer.position() < limit) {
+                int length = buffer.getInt();
+                long offset = buffer.getLong();
+                buffer.getInt();
+                if (offset > toOffset) {
+                    return count;
+                }
+                if (offset < fromOffset) {
+                    buffer.position(buffer.position() + length);
+                    continue;
+                }
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                consumer.accept(payload);
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    private void awaitFlushed(long offset) throws InterruptedException {
+        synchronized (flushLock) {
+            while (flushedOffset < offset && !closed) {
+                flushLock.wait(100);
+            }
+        }
+    }
+    
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch);
+                
+                for (Pending pending : batch) {
+                    write(pending.offset, objectMapper.writeValueAsBytes(pending.event));
+                }
+                segments.get(segments.size() - 1).buffer.force();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // The events stay published; only their replay is lost. Records of the batch
+                // already written may not be on disk, so the whole batch counts as lost.
+                logger.error("Failed to journal " + batch.size() + " events", e);
+                synchronized (flushLock) {
+                    lostRanges.add(new long[] {batch.get(0).offset, batch.get(batch.size() - 1).offset});
+                }
+            } finally {
+                if (!batch.isEmpty()) {
+                    // Advanced even after a failure, so replays do not wait for records that never
+                    // come; they find the lost range instead
+                    synchronized (flushLock) {
+                        flushedOffset = batch.get(batch.size() - 1).offset;
+                        flushLock.notifyAll();
+                    }
+                    batch.clear();
+                }
+            }
+        }
+    }
+    
+    private void write(long offset, byte[] payload) throws IOException {
+        int recordBytes = HEADER_BYTES + payload.length;
+        Segment active = segments.get(segments.size() - 1);
+        if (active.buffer.capacity() - active.position < recordBytes) {
+            active.buffer.force();
+            active = openSegment(offset, Math.max(segmentBytes, recordBytes));
+            segments.add(active);
+            applyRetention();
+        }
+        
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = active.buffer;
+        buffer.position(active.position);
+        buffer.putInt(payload.length);
+        buffer.putLong(offset);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(payload);
+        active.lastOffset = offset;
+        // Published last, so readers never see a partly written record
+        active.position = buffer.position();
+    }
+    
+    private void applyRetention() {
+        while (segments.size() > maxSegments) {
+            Segment oldest = segments.remove(0);
+            if (!oldest.file.delete()) {
+                logger.warn("Could not delete journal segment " + oldest.file);
+            }
+        }
+        // Lost ranges below the oldest segment can no longer be asked for
+        long firstOffset = segments.get(0).baseOffset;
+        synchronized (flushLock) {
+            lostRanges.removeIf(lost -> lost[1] < firstOffset);
+        }
+    }
+    
+    // Maps existing segments and finds the end of the last one; a torn or corrupt record
+    // at the end is treated as unwritten
+    private void recover() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".log"));
+        List<Long> baseOffsets = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                baseOffsets.add(Long.parseLong(file.getName().substring(0, file.getName().length() - 4)));
+            }
+        }
+        baseOffsets.sort(null);
+        
+        for (long baseOffset : baseOffsets) {
+            Segment segment = openSegment(baseOffset, 0);
+            ByteBuffer buffer = segment.buffer;
+            while (buffer.remaining() >= HEADER_BYTES) {
+                int start = buffer.position();
+                int length = buffer.getInt();
+                long offset = buffer.getLong();
+                int checksum = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining()) {
+                    buffer.position(start);
+                    break;
+                }
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    buffer.position(start);
+                    break;
+                }
+                segment.lastOffset = offset;
+            }
+            segment.position = buffer.position();
+            segments.add(segment);
+            flushedOffset = Math.max(flushedOffset, segment.lastOffset);
+        }
+        
+        if (segments.isEmpty()) {
+            segments.add(openSegment(1, segmentBytes));
+        }
+        applyRetention();
+        logger.info("Event journal at " + directory + ": " + segments.size() + " segments, last offset " + flushedOffset);
+    }
+    
+    // Maps a segment file, creating it with the given size if it does not exist yet
+    private Segment openSegment(long baseOffset, int size) throws IOException {
+        File file = new File(directory, String.format("%020d.log", baseOffset));
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            if (raf.length() == 0) {
+                raf.setLength(size);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            return new Segment(file, baseOffset, buffer);
+        }
+    }
+    
+    @PreDestroy
+    public void close() throws InterruptedException {
+        closed = true;
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+        replayExecutor.shutdownNow();
+        synchronized (flushLock) {
+            flushLock.notifyAll();
+        }
+    }
+    
+    private static final class Segment {
+        private final File file;
+        private final long baseOffset;
+        private final MappedByteBuffer buffer;
+        // Written by the writer thread only
+        private volatile int position;
+        private volatile long lastOffset;
+        
+        Segment(File file, long baseOffset, MappedByteBuffer buffer) {
+            this.file = file;
+            this.baseOffset = baseOffset;
+            this.buffer = buffer;
+            this.lastOffset = baseOffset - 1;
+        }
+    }
+    
+    private static final class Pending {
+        private final long offset;
+        private final UserEvent event;
+        
+        Pending(long offset, UserEvent event) {
+            this.offset = offset;
+            this.event = event;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.eventapi.journal;
+
+/**
+ * Thrown by a replay whose range includes records the journal failed to write. Nothing
+ * has been passed to the consumer when it is thrown.
+ */
+public class JournalGapException extends Exception {
+    
+    private final long fromOffset;
+    private final long toOffset;
+    
+    public JournalGapException(long fromOffset, long toOffset) {
+        super("Journal records " + fromOffset + " to " + toOffset + " were not written");
+        this.fromOffset = fromOffset;
+        this.toOffset = toOffset;
+    }
+    
+    // First offset of the lost range
+    public long getFromOffset() {
+        return fromOffset;
+    }
+    
+    // Last offset of the lost range
+    public long getToOffset() {
+        return toOffset;
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.eventapi.metrics;
+
+import com.example.eventapi.dto.ChannelStats;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue depth, task latency and rejections for the executor of one message channel.
+ *
+ * Installs itself as the executor's task decorator, which runs on the sending thread,
+ * so each task is timed from submission. A task rejected because the queue is full runs
+ * on the sending thread instead: that thread stops reading or publishing while it does,
+ * which is the backpressure, and the task is counted as rejected.
+ */
+public class ChannelExecutorMetrics implements TaskDecorator, RejectedExecutionHandler {
+    
+    private final String channel;
+    private final ThreadPoolTaskExecutor executor;
+    private final boolean virtualThreads;
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram run = new LatencyHistogram();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+    
+    public ChannelExecutorMetrics(String channel, ThreadPoolTaskExecutor executor, boolean virtualThreads) {
+        this.channel = channel;
+        this.executor = executor;
+        this.virtualThreads = virtualThreads;
+        executor.setTaskDecorator(this);
+        executor.setRejectedExecutionHandler(this);
+    }
+    
+    public ThreadPoolTaskExecutor getExecutor() {
+        return executor;
+    }
+    
+    @Override
+    public Runnable decorate(Runnable task) {
+        long submitted = System.nanoTime();
+        if (executor.getThreadPoolExecutor() != null) {
+            long depth = executor.getThreadPoolExecutor().getQueue().size();
+            long currentMax = maxQueueDepth.get();
+            while (depth > currentMax && !maxQueueDepth.compareAndSet(currentMax, depth)) {
+                currentMax = maxQueueDepth.get();
+            }
+        }
+        return () -> {
+            long started = System.nanoTime();
+            queueWait.record(started - submitted);
+            try {
+                task.run();
+            } finally {
+                run.record(System.nanoTime() - started);
+            }
+        };
+    }
+    
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor pool) {
+        if (pool.isShutdown()) {
+            return;
+        }
+        rejected.incrementAndGet();
+        task.run();
+    }
+    
+    public ChannelStats snapshot() {
+        ChannelStats stats = new ChannelStats();
+        stats.setChannel(channel);
+        stats.setVirtualThreads(virtualThreads);
+        stats.setMaxPoolSize(executor.getMaxPoolSize());
+        ThreadPoolExecutor pool = executor.getThreadPoolExecutor();
+        if (pool != null) {
+            stats.setPoolSize(pool.getPoolSize());
+            stats.setActiveThreads(pool.getActiveCount());
+            stats.setQueueDepth(pool.getQueue().size());
+            stats.setQueueCapacity(pool.getQueue().size() + pool.getQueue().remainingCapacity());
+            stats.setCompletedTasks(pool.getCompletedTaskCount());
+        }
+        stats.setMaxQueueDepth(maxQueueDepth.get());
+        stats.setRejectedTasks(rejected.get());
+        stats.setQueueWaitMeanMicros(queueWait.getMean() / 1000);
+        stats.setQueueWaitP99Micros(queueWait.getPercentile(99) / 1000);
+        stats.setQueueWaitMaxMicros(queueWait.getMax() / 1000);
+        stats.setRunMeanMicros(run.getMean() / 1000);
+        stats.setRunP99Micros(run.getPercentile(99) / 1000);
+        stats.setRunMaxMicros(run.getMax() / 1000);
+        return stats;
+    }
+}
@@ -1,57 +1,57 @@
-package com.example.eventapi.model;
-
-public class User {
-    private Long id;
-    private String name;
-    private String email;
-    
-    // Default constructor
-    public User() {}
-    
-    // Constructor with fields
-    public User(String name, String email) {
-        this.name = name;
-        this.email = email;
-    }
-    
-    // Constructor with all fields
-    public User(Long id, String name, String email) {
-        this.id = id;
-        this.name = name;
-        this.email = email;
-    }
-    
-    // Getters and setters
-    public Long getId() {
-        return id;
-    }
-    
-    public void setId(Long id) {
-        this.id = id;
-    }
-    
-    public String getName() {
-        return name;
-    }
-    
-    public void setName(String name) {
-        this.name = name;
-    }
-    
-    public String getEmail() {
-        return email;
-    }
-    
-    public void setEmail(String email) {
-        this.email = email;
-    }
-    
-    @Override
-    public String toString() {
-        return "User{" +
-                "id=" + id +
-                ", name='" + name + '\'' +
-                ", email='" + email + '\'' +
-                '}';
-    }
+package com.example.eventapi.model;
+
+public class User {
+    private Long id;
+    private String name;
+    private String email;
+    
+    // Default constructor
+    public User() {}
+    
+    // Constructor with fields
+    public User(String name, String email) {
+        this.name = name;
+        this.email = email;
+    }
+    
+    // Constructor with all fields
+    public User(Long id, String name, String email) {
+        this.id = id;
+        this.name = name;
+        this.email = email;
+    }
+    
+    // Getters and setters
+    public Long getId() {
+        return id;
+    }
+    
+    public void setId(Long id) {
+        this.id = id;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public void setName(String name) {
+        this.name = name;
+    }
+    
+    public String getEmail() {
+        return email;
+    }
+    
+    public void setEmail(String email) {
+        this.email = email;
+    }
+    
+    @Override
+    public String toString() {
+        return "User{" +
+                "id=" + id +
+                ", name='" + name + '\'' +
+                ", email='" + email + '\'' +
+                '}';
+    }
 }
\ No newline at end of file
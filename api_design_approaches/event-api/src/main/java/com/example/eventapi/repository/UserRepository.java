@@ -1,89 +1,480 @@
-package com.example.eventapi.repository;
-
-import com.example.eventapi.model.User;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.jdbc.core.RowMapper;
-import org.springframework.jdbc.support.GeneratedKeyHolder;
-import org.springframework.jdbc.support.KeyHolder;
-import org.springframework.stereotype.Repository;
-
-import javax.annotation.PostConstruct;
-import java.sql.PreparedStatement;
-import java.sql.Statement;
-import java.util.List;
-import java.util.Objects;
-import java.util.Optional;
-
-@Repository
-public class UserRepository {
-    
-    private final JdbcTemplate jdbcTemplate;
-    
-    @Autowired
-    public UserRepository(JdbcTemplate jdbcTemplate) {
-        this.jdbcTemplate = jdbcTemplate;
-    }
-    
-    // Row mapper for User
-    private static final RowMapper<User> userRowMapper = (rs, rowNum) -> {
-        User user = new User();
-        user.setId(rs.getLong("id"));
-        user.setName(rs.getString("name"));
-        user.setEmail(rs.getString("email"));
-        return user;
-    };
-    
-    @PostConstruct
-    public void initialize() {
-        // Create users table
-        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS users (" +
-                "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
-                "name VARCHAR(255) NOT NULL, " +
-                "email VARCHAR(255) NOT NULL)");
-        
-        // Insert initial data if the table is empty
-        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Integer.class);
-        if (count != null && count == 0) {
-            jdbcTemplate.update("INSERT INTO users (name, email) VALUES (?, ?)", "John Doe", "john@example.com");
-            jdbcTemplate.update("INSERT INTO users (name, email) VALUES (?, ?)", "Jane Smith", "jane@example.com");
-            jdbcTemplate.update("INSERT INTO users (name, email) VALUES (?, ?)", "Bob Johnson", "bob@example.com");
-        }
-    }
-    
-    public List<User> findAll() {
-        return jdbcTemplate.query("SELECT id, name, email FROM users", userRowMapper);
-    }
-    
-    public Optional<User> findById(Long id) {
-        List<User> users = jdbcTemplate.query("SELECT id, name, email FROM users WHERE id = ?", userRowMapper, id);
-        return users.isEmpty() ? Optional.empty() : Optional.of(users.get(0));
-    }
-    
-    public User save(User user) {
-        if (user.getId() == null) {
-            // Insert new user
-            KeyHolder keyHolder = new GeneratedKeyHolder();
-            jdbcTemplate.update(connection -> {
-                PreparedStatement ps = connection.prepareStatement(
-                        "INSERT INTO users (name, email) VALUES (?, ?)",
-                        Statement.RETURN_GENERATED_KEYS);
-                ps.setString(1, user.getName());
-                ps.setString(2, user.getEmail());
-                return ps;
-            }, keyHolder);
-            user.setId(Objects.requireNonNull(keyHolder.getKey()).longValue());
-            return user;
-        } else {
-            // Update existing user
-            jdbcTemplate.update(
-                    "UPDATE users SET name = ?, email = ? WHERE id = ?",
-                    user.getName(), user.getEmail(), user.getId());
-            return user;
-        }
-    }
-    
-    public void deleteById(Long id) {
-        jdbcTemplate.update("DELETE FROM users WHERE id = ?", id);
-    }
-}
\ No newline at end of file
+package com.example.eventapi.repository;
+
+import com.example.eventapi.dto.PersistenceStats;
+import com.example.eventapi.model.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Users in the H2 users table.
+ *
+ * By default every call goes to H2 on the caller's thread. With
+ * eventapi.persistence.writeBehind=true the table is loaded into memory at startup and
+ * calls are served from there: a write changes the in-memory view at once and is queued
+ * for a single writer thread, and new users get their ids from the view instead of H2.
+ *
+ * The writer commits queued writes in groups. After the first write of a group it waits
+ * up to flushMillis for more, takes at most maxBatchSize, keeps only the last write per
+ * user id, and commits the group as one batch of MERGEs and one of DELETEs in a single
+ * transaction. Writes are checked against the table's constraints before they are
+ * queued; if a group still fails, its users are committed one at a time, so only the
+ * writes H2 rejects are lost, and the view of those users is reloaded from H2. The
+ * queue holds at most queueCapacity writes; when it is full, writers block until the
+ * writer thread catches up. whenCommitted() tells a thread when the writes it queued
+ * are in H2.
+ */
+@Repository
+public class UserRepository {
+    private static final Logger logger = LoggerFactory.getLogger(UserRepository.class);
+    
+    // Length of the name and email columns
+    public static final int MAX_LENGTH = 255;
+    
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean writeBehind;
+    private final int queueCapacity;
+    private final int maxBatchSize;
+    private final long flushMillis;
+    
+    // The users as the writes so far left them, committed or not (write-behind only)
+    private final Map<Long, User> view = new ConcurrentSkipListMap<>();
+    private final AtomicLong lastId = new AtomicLong();
+    private final LinkedBlockingQueue<Write> queue;
+    // Writes each thread queued since its last whenCommitted() call
+    private final ThreadLocal<Ticket> tickets = new ThreadLocal<>();
+    private Thread writer;
+    private volatile boolean closed;
+    private final AtomicLong committedWrites = new AtomicLong();
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong failedCommits = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private volatile int largestCommit;
+    
+    @Autowired
+    public UserRepository(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                          @Value("${eventapi.persistence.writeBehind:false}") boolean writeBehind,
+                          @Value("${eventapi.persistence.queueCapacity:10000}") int queueCapacity,
+                          @Value("${eventapi.persistence.maxBatchSize:500}") int maxBatchSize,
+                          @Value("${eventapi.persistence.flushMillis:0}") long flushMillis) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.writeBehind = writeBehind;
+        this.queueCapacity = queueCapacity;
+        this.maxBatchSize = maxBatchSize;
+        this.flushMillis = flushMillis;
+        this.queue = writeBehind ? new LinkedBlockingQueue<>(queueCapacity) : null;
+    }
+    
+    // Row mapper for User
+    private static final RowMapper<User> userRowMapper = (rs, rowNum) -> {
+        User user = new User();
+        user.setId(rs.getLong("id"));
+        user.setName(rs.getString("name"));
+        user.setEmail(rs.getString("email"));
+        return user;
+    };
+    
+    @PostConstruct
+    public void initialize() {
+        // Create users table
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS users (" +
+                "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                "name VARCHAR(" + MAX_LENGTH + ") NOT NULL, " +
+                "email VARCHAR(" + MAX_LENGTH + ") NOT NULL)");
+        
+        // Insert initial data if the table is empty
+        Integer count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Integer.class);
+        if (count != null && count == 0) {
+            jdbcTemplate.update("INSERT INTO users (name, email) VALUES (?, ?)", "John Doe", "john@example.com");
+            jdbcTemplate.update("INSERT INTO users (name, email) VALUES (?, ?)", "Jane Smith", "jane@example.com");
+            jdbcTemplate.update("INSERT INTO users (name, email) VALUES (?, ?)", "Bob Johnson", "bob@example.com");
+        }
+        
+        if (writeBehind) {
+            for (User user : jdbcTemplate.query("SELECT id, name, email FROM users", userRowMapper)) {
+                view.put(user.getId(), user);
+                lastId.accumulateAndGet(user.getId(), Math::max);
+            }
+            writer = new Thread(this::writeLoop, "user-write-behind");
+            writer.setDaemon(true);
+            writer.start();
+            logger.info("Write-behind for " + view.size() + " users: queue capacity " + queueCapacity
+                    + ", batches of up to " + maxBatchSize + ", flush after " + flushMillis + "ms");
+        }
+    }
+    
+    public boolean isWriteBehind() {
+        return writeBehind;
+    }
+    
+    public List<User> findAll() {
+        if (writeBehind) {
+            List<User> users = new ArrayList<>(view.size());
+            for (User user : view.values()) {
+                users.add(copy(user));
+            }
+            return users;
+        }
+        return jdbcTemplate.query("SELECT id, name, email FROM users", userRowMapper);
+    }
+    
+    public Optional<User> findById(Long id) {
+        if (writeBehind) {
+            User user = view.get(id);
+            return user == null ? Optional.empty() : Optional.of(copy(user));
+        }
+        return select(id);
+    }
+    
+    private Optional<User> select(Long id) {
+        List<User> users = jdbcTemplate.query("SELECT id, name, email FROM users WHERE id = ?", userRowMapper, id);
+        return users.isEmpty() ? Optional.empty() : Optional.of(users.get(0));
+    }
+    
+    public User save(User user) {
+        if (writeBehind) {
+            validate(user);
+            if (user.getId() == null) {
+                user.setId(lastId.incrementAndGet());
+            }
+            enqueue(user.getId(), copy(user));
+            return user;
+        }
+        if (user.getId() == null) {
+            // Insert new user
+            KeyHolder keyHolder = new GeneratedKeyHolder();
+            jdbcTemplate.update(connection -> {
+                PreparedStatement ps = connection.prepareStatement(
+                        "INSERT INTO users (name, email) VALUES (?, ?)",
+                        Statement.RETURN_GENERATED_KEYS);
+                ps.setString(1, user.getName());
+                ps.setString(2, user.getEmail());
+                return ps;
+            }, keyHolder);
+            user.setId(Objects.requireNonNull(keyHolder.getKey()).longValue());
+            return user;
+        } else {
+            // Update existing user
+            jdbcTemplate.update(
+                    "UPDATE users SET name = ?, email = ? WHERE id = ?",
+                    user.getName(), user.getEmail(), user.getId());
+            return user;
+        }
+    }
+    
+    // Creates the users and sets their ids. Without write-behind they are inserted with one
+    // JDBC batch in one transaction, so either all of them are created or none are.
+    public List<User> insertAll(List<User> users) {
+        for (User user : users) {
+            validate(user);
+        }
+        if (writeBehind) {
+            insertAllBehind(users);
+            return users;
+        }
+        // JdbcTemplate.batchUpdate cannot return generated keys before Spring 6.1, so the
+        // batch is run on its statement directly
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.execute(
+                (PreparedStatementCreator) connection -> connection.prepareStatement(
+                        "INSERT INTO users (name, email) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS),
+                ps -> {
+                    for (User user : users) {
+                        ps.setString(1, user.getName());
+                        ps.setString(2, user.getEmail());
+                        ps.addBatch();
+                    }
+                    ps.executeBatch();
+                    try (ResultSet keys = ps.getGeneratedKeys()) {
+                        for (User user : users) {
+                            if (!keys.next()) {
+                                throw new IllegalStateException("Fewer generated ids than users");
+                            }
+                            user.setId(keys.getLong(1));
+                        }
+                    }
+                    return null;
+                }));
+        return users;
+    }
+    
+    public void deleteById(Long id) {
+        if (writeBehind) {
+            enqueue(id, null);
+            return;
+        }
+        jdbcTemplate.update("DELETE FROM users WHERE id = ?", id);
+    }
+    
+    // Completes once the writes the calling thread queued since its last call are committed,
+    // or fails with the error of the first one H2 rejected. Already complete without
+    // write-behind or when the thread has queued nothing.
+    public CompletableFuture<Void> whenCommitted() {
+        Ticket ticket = writeBehind ? tickets.get() : null;
+        if (ticket == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        tickets.remove();
+        ticket.done(null);
+        return ticket.committed;
+    }
+    
+    public PersistenceStats getStats() {
+        PersistenceStats stats = new PersistenceStats();
+        stats.setWriteBehind(writeBehind);
+        stats.setQueuedWrites(writeBehind ? queue.size() : 0);
+        stats.setCommittedWrites(committedWrites.get());
+        stats.setCommits(commits.get());
+        stats.setFailedCommits(failedCommits.get());
+        stats.setFailedWrites(failedWrites.get());
+        stats.setLargestCommit(largestCommit);
+        return stats;
+    }
+    
+    // What the users table enforces, checked before a write is queued: the writer thread
+    // commits it together with other requests' writes
+    private static void validate(User user) {
+        if (user.getName() == null || user.getEmail() == null) {
+            throw new IllegalArgumentException("Name and email are required");
+        }
+        if (user.getName().length() > MAX_LENGTH || user.getEmail().length() > MAX_LENGTH) {
+            throw new IllegalArgumentException("Name and email must be at most " + MAX_LENGTH + " characters");
+        }
+    }
+    
+    // A null user deletes. The view and the queue change under one lock, so the writer
+    // sees the writes to a user in the order the view did.
+    private synchronized void enqueue(Long id, User user) {
+        Ticket ticket = tickets.get();
+        if (ticket == null) {
+            ticket = new Ticket();
+            tickets.set(ticket);
+        }
+        if (user != null) {
+            view.put(id, user);
+        } else {
+            view.remove(id);
+        }
+        // Counted before the writer can see the write, so the ticket cannot complete early
+        ticket.pending.incrementAndGet();
+        try {
+            put(new Write(id, user, ticket));
+        } catch (RuntimeException e) {
+            ticket.pending.decrementAndGet();
+            throw e;
+        }
+    }
+    
+    // Holds the lock for the whole list, so no other write lands between its users in the queue
+    private synchronized void insertAllBehind(List<User> users) {
+        for (User user : users) {
+            user.setId(lastId.incrementAndGet());
+            enqueue(user.getId(), copy(user));
+        }
+    }
+    
+    private void put(Write write) {
+        if (closed) {
+            throw new IllegalStateException("User repository is closed");
+        }
+        try {
+            queue.put(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the write-behind queue", e);
+        }
+    }
+    
+    private void writeLoop() {
+        List<Write> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushMillis);
+                while (batch.size() < maxBatchSize) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long wait = deadline - System.nanoTime();
+                    Write next = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commit(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+    
+    private void commit(List<Write> batch) {
+        // Last write per user id; a null user is a delete
+        Map<Long, User> latest = new LinkedHashMap<>();
+        for (Write write : batch) {
+            latest.put(write.id, write.user);
+        }
+        
+        // Error per user id whose write H2 rejected
+        Map<Long, RuntimeException> failures = new HashMap<>();
+        try {
+            write(latest);
+        } catch (RuntimeException e) {
+            failedCommits.incrementAndGet();
+            logger.warn("Failed to commit " + latest.size() + " user writes together, committing them one at a time", e);
+            for (Map.Entry<Long, User> entry : latest.entrySet()) {
+                try {
+                    write(Collections.singletonMap(entry.getKey(), entry.getValue()));
+                } catch (RuntimeException userFailure) {
+                    failedCommits.incrementAndGet();
+                    failures.put(entry.getKey(), userFailure);
+                    logger.error("Failed to commit the write to user " + entry.getKey(), userFailure);
+                    reload(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        
+        // Earlier writes to a user in the group were superseded by the last one, and share its outcome
+        for (Write write : batch) {
+            RuntimeException failure = failures.get(write.id);
+            if (failure != null) {
+                failedWrites.incrementAndGet();
+            } else {
+                committedWrites.incrementAndGet();
+            }
+            write.ticket.done(failure);
+        }
+    }
+    
+    // Commits the writes as one batch of MERGEs and one of DELETEs in a single transaction
+    private void write(Map<Long, User> writes) {
+        List<Object[]> merges = new ArrayList<>();
+        List<Object[]> deletes = new ArrayList<>();
+        for (Map.Entry<Long, User> entry : writes.entrySet()) {
+            User user = entry.getValue();
+            if (user != null) {
+                merges.add(new Object[] {user.getId(), user.getName(), user.getEmail()});
+            } else {
+                deletes.add(new Object[] {entry.getKey()});
+            }
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!merges.isEmpty()) {
+                jdbcTemplate.batchUpdate("MERGE INTO users (id, name, email) KEY (id) VALUES (?, ?, ?)", merges);
+            }
+            if (!deletes.isEmpty()) {
+                jdbcTemplate.batchUpdate("DELETE FROM users WHERE id = ?", deletes);
+            }
+        });
+        commits.incrementAndGet();
+        largestCommit = Math.max(largestCommit, writes.size());
+    }
+    
+    // Puts the view of a user whose write failed back to what H2 holds, unless a later write
+    // has changed the user in the view since. The view and the queue stay as they are
+    // otherwise, so this does not take the enqueue lock, which a writer blocked on a full
+    // queue holds.
+    private void reload(Long id, User failed) {
+        try {
+            Optional<User> stored = select(id);
+            if (failed != null) {
+                view.computeIfPresent(id, (key, current) -> current != failed ? current : stored.orElse(null));
+            } else if (stored.isPresent()) {
+                // Nothing writes to a user after its delete, so an absent user is the failed delete's
+                view.putIfAbsent(id, stored.get());
+            }
+        } catch (RuntimeException e) {
+            logger.error("Failed to reload user " + id + " after its write failed", e);
+        }
+    }
+    
+    private static User copy(User user) {
+        return new User(user.getId(), user.getName(), user.getEmail());
+    }
+    
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (writer == null) {
+            return;
+        }
+        closed = true;
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+        if (!queue.isEmpty()) {
+            logger.warn(queue.size() + " user writes were not committed before shutdown");
+        }
+    }
+    
+    // A write to one user, on the ticket of the thread that queued it
+    private static final class Write {
+        private final Long id;
+        private final User user;
+        private final Ticket ticket;
+        
+        Write(Long id, User user, Ticket ticket) {
+            this.id = id;
+            this.user = user;
+            this.ticket = ticket;
+        }
+    }
+    
+    // Outcome of the writes one thread queued between two whenCommitted() calls. Pending
+    // starts at one for the whenCommitted() call itself, so the ticket cannot complete
+    // while the thread may still add writes to it.
+    private static final class Ticket {
+        private final CompletableFuture<Void> committed = new CompletableFuture<>();
+        private final AtomicInteger pending = new AtomicInteger(1);
+        // First write failure; written by the writer thread before it counts the write down
+        private volatile RuntimeException failure;
+        
+        void done(RuntimeException writeFailure) {
+            if (writeFailure != null && failure == null) {
+                failure = writeFailure;
+            }
+            if (pending.decrementAndGet() == 0) {
+                if (failure != null) {
+                    committed.completeExceptionally(failure);
+                } else {
+                    committed.complete(null);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.eventapi.service;
+
+import com.example.eventapi.event.ErrorEvent;
+import com.example.eventapi.event.ReplayEndEvent;
+import com.example.eventapi.event.UserEvent;
+import com.example.eventapi.event.UserSnapshotEvent;
+import com.example.eventapi.journal.EventJournal;
+import com.example.eventapi.journal.JournalGapException;
+import com.example.eventapi.model.User;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Numbers every committed change, publishes it on /topic/users.changes and appends it
+ * to the {@link EventJournal} under its seq.
+ *
+ * A change is written to the repository first, under a lock for its user only, and then
+ * numbered, journaled and published under the feed lock, which is held for no database
+ * work. Changes to different users run side by side; changes to one user are numbered in
+ * the order they were written. A snapshot takes the current seq and then reads the users
+ * without any lock, so it may already hold changes numbered after its seq. Every change
+ * carries whole users or a removal, so applying such a change again leaves the same view.
+ *
+ * A client loads one snapshot, applies the changes with a higher seq, and after a dropped
+ * connection asks for a replay of the changes it missed. If it ever sees a seq other than
+ * the next one, or the changes it needs are gone, it reloads a snapshot.
+ */
+@Service
+public class UserChangeFeed {
+    
+    public static final String CHANGES_TOPIC = "/topic/users.changes";
+    // Subscribed to as /user/queue/users.replay
+    public static final String REPLAY_QUEUE = "/queue/users.replay";
+    
+    // Locks that order the changes to one user; users share one by id hash
+    private static final int USER_LOCK_STRIPES = 64;
+    
+    private final SimpMessagingTemplate messagingTemplate;
+    private final EventJournal journal;
+    // The users table is in memory and starts over with the server, so this run's changes
+    // cannot be replayed onto a view from an earlier run. Seq skips one number at startup:
+    // no seq this run hands out, snapshots included, was used by an earlier run.
+    private final long firstSeq;
+    private final Object[] userLocks = new Object[USER_LOCK_STRIPES];
+    // Seq of the last published change (guarded by this)
+    private long seq;
+    
+    @Autowired
+    public UserChangeFeed(SimpMessagingTemplate messagingTemplate, EventJournal journal) {
+        this.messagingTemplate = messagingTemplate;
+        this.journal = journal;
+        this.seq = journal.getLastOffset() + 1;
+        this.firstSeq = seq;
+        for (int i = 0; i < userLocks.length; i++) {
+            userLocks[i] = new Object();
+        }
+    }
+    
+    // Runs a change to an existing user, then publishes its result as the event built for
+    // the next seq. A null result means nothing changed and no seq is used.
+    public <T, E extends UserEvent> E record(long userId, Supplier<T> change, BiFunction<T, Long, E> event) {
+        synchronized (userLocks[Long.hashCode(userId) & (USER_LOCK_STRIPES - 1)]) {
+            return publish(change.get(), event);
+        }
+    }
+    
+    // For creates: no other request can change users before their ids are sent out, which
+    // happens only after they are published
+    public <T, E extends UserEvent> E recordNew(Supplier<T> change, BiFunction<T, Long, E> event) {
+        return publish(change.get(), event);
+    }
+    
+    private synchronized <T, E extends UserEvent> E publish(T result, BiFunction<T, Long, E> event) {
+        if (result == null) {
+            return null;
+        }
+        E published = event.apply(result, seq + 1);
+        seq++;
+        journal.append(seq, published);
+        messagingTemplate.convertAndSend(CHANGES_TOPIC, published);
+        return published;
+    }
+    
+    // Every change up to the returned seq was written before the users are read
+    public UserSnapshotEvent snapshot(Supplier<List<User>> users) {
+        long at;
+        synchronized (this) {
+            at = seq;
+        }
+        return new UserSnapshotEvent(users.get(), at);
+    }
+    
+    // Sends the session every change after afterSeq as journaled, then a ReplayEndEvent.
+    // Runs on the journal's replay threads, not the inbound channel.
+    public void replay(long afterSeq, String sessionId) {
+        final long upTo;
+        synchronized (this) {
+            upTo = seq;
+        }
+        journal.submitReplay(() -> {
+            try {
+                if (afterSeq < firstSeq || afterSeq > upTo || afterSeq + 1 < journal.getFirstOffset()) {
+                    send(sessionId, new ErrorEvent("Changes after seq " + afterSeq
+                            + " are no longer available; load a snapshot", 410));
+                    return;
+                }
+                journal.replay(afterSeq + 1, upTo, json -> sendJournaled(sessionId, json));
+                send(sessionId, new ReplayEndEvent(upTo));
+            } catch (JournalGapException e) {
+                send(sessionId, new ErrorEvent("Changes " + e.getFromOffset() + " to " + e.getToOffset()
+                        + " were never journaled; load a snapshot", 410));
+            } catch (Exception e) {
+                send(sessionId, new ErrorEvent("Failed to replay changes: " + e.getMessage(), 500));
+            }
+        });
+    }
+    
+    private void send(String sessionId, UserEvent event) {
+        messagingTemplate.convertAndSendToUser(sessionId, REPLAY_QUEUE, event, headers(sessionId).getMessageHeaders());
+    }
+    
+    // Journal records are already JSON; send them as stored
+    private void sendJournaled(String sessionId, byte[] json) {
+        SimpMessageHeaderAccessor accessor = headers(sessionId);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        messagingTemplate.send("/user/" + sessionId + REPLAY_QUEUE,
+                MessageBuilder.createMessage(json, accessor.getMessageHeaders()));
+    }
+    
+    private static SimpMessageHeaderAccessor headers(String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setLeaveMutable(true);
+        return accessor;
+    }
+}
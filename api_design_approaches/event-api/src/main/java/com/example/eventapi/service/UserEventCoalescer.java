@@ -0,0 +1,157 @@
+package com.example.eventapi.service;
+
+import com.example.eventapi.controller.UserController;
+import com.example.eventapi.event.UserCreatedEvent;
+import com.example.eventapi.event.UserDeletedEvent;
+import com.example.eventapi.event.UserEvent;
+import com.example.eventapi.event.UserEventBatch;
+import com.example.eventapi.event.UserUpdatedEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the mutations broadcast on /topic/users for a short window and publishes
+ * them as one {@link UserEventBatch}, instead of one frame per change.
+ *
+ * A window opens with the first event and is flushed after windowMillis, or as soon as
+ * it holds maxEvents users. Within a window only the net change per user id is kept: an
+ * update replaces an earlier update, or folds into an earlier create; a delete replaces
+ * an earlier update and cancels an earlier create outright. A window that ends up with
+ * a single event publishes that event unwrapped.
+ *
+ * Off unless eventapi.coalesce.enabled=true. The numbered change feed on
+ * /topic/users.changes is never coalesced, since its subscribers need every seq.
+ */
+@Service
+public class UserEventCoalescer {
+    
+    private final SimpMessagingTemplate messagingTemplate;
+    private final boolean enabled;
+    private final long windowMillis;
+    private final int maxEvents;
+    private final ScheduledExecutorService scheduler;
+    
+    // Pending events by user id, and the requests behind them (guarded by this)
+    private final Map<Long, UserEvent> pending = new LinkedHashMap<>();
+    private final Map<String, Long> requests = new LinkedHashMap<>();
+    private boolean windowOpen;
+    // Bumped on every flush, so a timer for an already flushed window does nothing
+    private long window;
+    
+    @Autowired
+    public UserEventCoalescer(SimpMessagingTemplate messagingTemplate,
+                              @Value("${eventapi.coalesce.enabled:false}") boolean enabled,
+                              @Value("${eventapi.coalesce.windowMillis:5}") long windowMillis,
+                              @Value("${eventapi.coalesce.maxEvents:100}") int maxEvents) {
+        this.messagingTemplate = messagingTemplate;
+        this.enabled = enabled;
+        this.windowMillis = windowMillis;
+        this.maxEvents = maxEvents;
+        this.scheduler = enabled ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-event-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    // Adds a created, updated or deleted event to the current window
+    public synchronized void add(UserEvent event, String correlationId) {
+        if (!windowOpen) {
+            windowOpen = true;
+            final long current = window;
+            scheduler.schedule(() -> flush(current), windowMillis, TimeUnit.MILLISECONDS);
+        }
+        Long userId = userId(event);
+        if (correlationId != null) {
+            requests.put(correlationId, userId);
+        }
+        
+        UserEvent earlier = pending.get(userId);
+        // Broadcasts happen after the change feed lock is released, so two changes to one
+        // user can arrive out of order; an earlier seq is then already superseded
+        if (earlier == null || seq(earlier) < seq(event)) {
+            if (earlier instanceof UserCreatedEvent && event instanceof UserUpdatedEvent) {
+                UserUpdatedEvent update = (UserUpdatedEvent) event;
+                pending.put(userId, new UserCreatedEvent(update.getUser(), update.getSeq()));
+            } else if (earlier instanceof UserCreatedEvent && event instanceof UserDeletedEvent) {
+                pending.remove(userId);
+            } else {
+                pending.put(userId, event);
+            }
+        }
+        
+        if (pending.size() >= maxEvents) {
+            flush(window);
+        }
+    }
+    
+    // Publishing under the lock keeps windows in order on the topic
+    private synchronized void flush(long expectedWindow) {
+        if (window != expectedWindow) {
+            return;
+        }
+        window++;
+        windowOpen = false;
+        List<UserEvent> events = new ArrayList<>(pending.values());
+        Map<String, Long> covered = new LinkedHashMap<>(requests);
+        pending.clear();
+        requests.clear();
+        
+        if (events.size() == 1 && covered.size() <= 1) {
+            SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+            for (String correlationId : covered.keySet()) {
+                accessor.setNativeHeader(UserController.CORRELATION_ID_HEADER, correlationId);
+            }
+            accessor.setLeaveMutable(true);
+            messagingTemplate.convertAndSend(UserController.USERS_TOPIC, events.get(0), accessor.getMessageHeaders());
+        } else if (!events.isEmpty() || !covered.isEmpty()) {
+            // Sent even when every change cancelled out, so the requesters hear back
+            messagingTemplate.convertAndSend(UserController.USERS_TOPIC, new UserEventBatch(events, covered));
+        }
+    }
+    
+    private static long seq(UserEvent event) {
+        if (event instanceof UserCreatedEvent) {
+            return ((UserCreatedEvent) event).getSeq();
+        } else if (event instanceof UserUpdatedEvent) {
+            return ((UserUpdatedEvent) event).getSeq();
+        }
+        return ((UserDeletedEvent) event).getSeq();
+    }
+    
+    private static Long userId(UserEvent event) {
+        if (event instanceof UserCreatedEvent) {
+            return ((UserCreatedEvent) event).getUser().getId();
+        } else if (event instanceof UserUpdatedEvent) {
+            return ((UserUpdatedEvent) event).getUser().getId();
+        } else if (event instanceof UserDeletedEvent) {
+            return ((UserDeletedEvent) event).getUserId();
+        }
+        throw new IllegalArgumentException("Cannot coalesce " + event.getType() + " events");
+    }
+    
+    @PreDestroy
+    public synchronized void close() {
+        if (scheduler != null) {
+            flush(window);
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.eventapi.service;
+
+import com.example.eventapi.controller.UserController;
+import com.example.eventapi.event.UserImportCompletedEvent;
+import com.example.eventapi.event.UserImportProgressEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Counts the chunks of each bulk import in progress and broadcasts one
+ * {@link UserImportCompletedEvent} on /topic/users when it ends: with its last chunk, or
+ * when the importing session goes away before sending it. Subscribers of the topic hear
+ * of an import once, instead of once per user; the users themselves are on the change feed.
+ */
+@Service
+public class UserImportTracker {
+    
+    private final SimpMessagingTemplate messagingTemplate;
+    // Imports in progress by session id, then import id. An import id only has to be
+    // unique within its session.
+    private final Map<String, Map<String, Progress>> imports = new ConcurrentHashMap<>();
+    
+    @Autowired
+    public UserImportTracker(SimpMessagingTemplate messagingTemplate) {
+        this.messagingTemplate = messagingTemplate;
+    }
+    
+    // Adds an applied chunk, with the seq of its change or -1 if it was empty
+    public UserImportProgressEvent chunkApplied(String sessionId, String importId, int users, long seq, boolean last) {
+        Map<String, Progress> sessionImports = imports.computeIfAbsent(sessionId, id -> new ConcurrentHashMap<>());
+        Progress progress = sessionImports.computeIfAbsent(importId, id -> new Progress());
+        UserImportProgressEvent event;
+        synchronized (progress) {
+            progress.chunks++;
+            progress.imported += users;
+            if (seq >= 0) {
+                progress.firstSeq = progress.firstSeq < 0 ? seq : progress.firstSeq;
+                progress.lastSeq = seq;
+            }
+            event = new UserImportProgressEvent(importId, progress.chunks, progress.imported, seq, last);
+        }
+        if (last) {
+            sessionImports.remove(importId);
+            complete(importId, progress);
+        }
+        return event;
+    }
+    
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent disconnect) {
+        Map<String, Progress> sessionImports = imports.remove(disconnect.getSessionId());
+        if (sessionImports != null) {
+            sessionImports.forEach(this::complete);
+        }
+    }
+    
+    private void complete(String importId, Progress progress) {
+        synchronized (progress) {
+            messagingTemplate.convertAndSend(UserController.USERS_TOPIC,
+                    new UserImportCompletedEvent(importId, progress.imported, progress.firstSeq, progress.lastSeq));
+        }
+    }
+    
+    private static final class Progress {
+        private int chunks;
+        private long imported;
+        private long firstSeq = -1;
+        private long lastSeq = -1;
+    }
+}
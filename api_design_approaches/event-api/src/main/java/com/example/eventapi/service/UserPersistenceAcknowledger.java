@@ -0,0 +1,115 @@
+package com.example.eventapi.service;
+
+import com.example.eventapi.controller.UserController;
+import com.example.eventapi.event.ErrorEvent;
+import com.example.eventapi.event.UserEvent;
+import com.example.eventapi.event.UserPersistedEvent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tells requesters when their changes are in the database, with write-behind on.
+ *
+ * One commit covers many changes, and the acknowledgements it makes due are sent
+ * together: one USER_PERSISTED event per session on /user/queue/users, listing the
+ * correlation ids of the requests it covers. An event for a single request also carries
+ * its correlation-id header. A request whose writes H2 rejected gets an ErrorEvent
+ * instead; the other requests committed with it are not affected.
+ */
+@Service
+public class UserPersistenceAcknowledger {
+    
+    private final SimpMessagingTemplate messagingTemplate;
+    private final UserService userService;
+    private final ExecutorService sender;
+    
+    // Acknowledgements due but not sent, by session id (guarded by this)
+    private Map<String, Due> due = new LinkedHashMap<>();
+    
+    @Autowired
+    public UserPersistenceAcknowledger(SimpMessagingTemplate messagingTemplate, UserService userService) {
+        this.messagingTemplate = messagingTemplate;
+        this.userService = userService;
+        this.sender = userService.isWriteBehind() ? Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-persisted-acks");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+    
+    public boolean isEnabled() {
+        return sender != null;
+    }
+    
+    // Acknowledges the change with the given seq once it is committed; correlationId may be null.
+    // Call on the thread that made the change, right after it.
+    public void acknowledge(String sessionId, String correlationId, long seq) {
+        userService.whenPersisted().whenComplete((ignored, failure) -> {
+            if (failure != null) {
+                send(sessionId, correlationId, new ErrorEvent("Failed to persist change " + seq + ": "
+                        + failure.getMessage(), 500));
+            } else {
+                add(sessionId, correlationId, seq);
+            }
+        });
+    }
+    
+    // Runs on the write-behind thread, for every request a commit covers in turn. The first
+    // one schedules the send, which finds the rest waiting.
+    private synchronized void add(String sessionId, String correlationId, long seq) {
+        if (due.isEmpty()) {
+            sender.execute(this::flush);
+        }
+        Due session = due.computeIfAbsent(sessionId, id -> new Due());
+        session.seq = Math.max(session.seq, seq);
+        if (correlationId != null) {
+            session.requests.add(correlationId);
+        }
+    }
+    
+    private void flush() {
+        Map<String, Due> flushed;
+        synchronized (this) {
+            flushed = due;
+            due = new LinkedHashMap<>();
+        }
+        for (Map.Entry<String, Due> entry : flushed.entrySet()) {
+            List<String> requests = entry.getValue().requests;
+            send(entry.getKey(), requests.size() == 1 ? requests.get(0) : null,
+                    new UserPersistedEvent(entry.getValue().seq, requests));
+        }
+    }
+    
+    private void send(String sessionId, String correlationId, UserEvent event) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        if (correlationId != null) {
+            accessor.setNativeHeader(UserController.CORRELATION_ID_HEADER, correlationId);
+        }
+        accessor.setLeaveMutable(true);
+        messagingTemplate.convertAndSendToUser(sessionId, UserController.REPLY_QUEUE, event, accessor.getMessageHeaders());
+    }
+    
+    @PreDestroy
+    public void close() {
+        if (sender != null) {
+            sender.shutdown();
+        }
+    }
+    
+    private static final class Due {
+        private long seq;
+        private final List<String> requests = new ArrayList<>();
+    }
+}
@@ -1,53 +1,68 @@
-package com.example.eventapi.service;
-
-import com.example.eventapi.model.User;
-import com.example.eventapi.repository.UserRepository;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.stereotype.Service;
-
-import java.util.List;
-import java.util.Optional;
-
-@Service
-public class UserService {
-    
-    private final UserRepository userRepository;
-    
-    @Autowired
-    public UserService(UserRepository userRepository) {
-        this.userRepository = userRepository;
-    }
-    
-    public List<User> findAllUsers() {
-        return userRepository.findAll();
-    }
-    
-    public Optional<User> findUserById(Long id) {
-        return userRepository.findById(id);
-    }
-    
-    public User createUser(User user) {
-        return userRepository.save(user);
-    }
-    
-    public Optional<User> updateUser(Long id, User userDetails) {
-        Optional<User> existingUserOpt = userRepository.findById(id);
-        
-        if (existingUserOpt.isPresent()) {
-            User existingUser = existingUserOpt.get();
-            existingUser.setName(userDetails.getName());
-            existingUser.setEmail(userDetails.getEmail());
-            return Optional.of(userRepository.save(existingUser));
-        }
-        
-        return Optional.empty();
-    }
-    
-    public boolean deleteUser(Long id) {
-        if (userRepository.findById(id).isPresent()) {
-            userRepository.deleteById(id);
-            return true;
-        }
-        return false;
-    }
-}
+package com.example.eventapi.service;
+
+import com.example.eventapi.model.User;
+import com.example.eventapi.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+@Service
+public class UserService {
+    
+    private final UserRepository userRepository;
+    
+    @Autowired
+    public UserService(UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+    
+    public boolean isWriteBehind() {
+        return userRepository.isWriteBehind();
+    }
+    
+    // Completes once the changes this thread made since its last call are committed to the
+    // database, or fails if one of them could not be
+    public CompletableFuture<Void> whenPersisted() {
+        return userRepository.whenCommitted();
+    }
+    
+    public List<User> findAllUsers() {
+        return userRepository.findAll();
+    }
+    
+    public Optional<User> findUserById(Long id) {
+        return userRepository.findById(id);
+    }
+    
+    public User createUser(User user) {
+        return userRepository.save(user);
+    }
+    
+    public List<User> importUsers(List<User> users) {
+        return userRepository.insertAll(users);
+    }
+    
+    public Optional<User> updateUser(Long id, User userDetails) {
+        Optional<User> existingUserOpt = userRepository.findById(id);
+        
+        if (existingUserOpt.isPresent()) {
+            User existingUser = existingUserOpt.get();
+            existingUser.setName(userDetails.getName());
+            existingUser.setEmail(userDetails.getEmail());
+            return Optional.of(userRepository.save(existingUser));
+        }
+        
+        return Optional.empty();
+    }
+    
+    public boolean deleteUser(Long id) {
+        if (userRepository.findById(id).isPresent()) {
+            userRepository.deleteById(id);
+            return true;
+        }
+        return false;
+    }
+}
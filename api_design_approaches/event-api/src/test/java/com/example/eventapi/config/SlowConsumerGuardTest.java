@@ -0,0 +1,161 @@
+package com.example.eventapi.config;
+
+import com.example.eventapi.dto.SlowConsumerStats;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.TestCase;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.SessionLimitExceededException;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// A session whose first write blocks, so later frames queue up behind it until the
+// queue overflows and the policy decides what is still sent
+public class SlowConsumerGuardTest extends TestCase {
+    
+    private static final int SEND_TIME_LIMIT_MILLIS = 10000;
+    
+    private final List<String> sent = new CopyOnWriteArrayList<>();
+    private final CountDownLatch writing = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    
+    public void testDisconnectClosesOnOverflow() throws Exception {
+        SlowConsumerGuard guard = new SlowConsumerGuard(new ObjectMapper(), SlowConsumerGuard.Policy.DISCONNECT);
+        // Room for two 7-byte frames
+        WebSocketSession session = guard.decorate(slowSession(), SEND_TIME_LIMIT_MILLIS, 20);
+        Thread writer = startWriting(session, "first");
+        
+        session.sendMessage(new TextMessage("frame-2"));
+        session.sendMessage(new TextMessage("frame-3"));
+        try {
+            session.sendMessage(new TextMessage("frame-4"));
+            fail("Overflow did not disconnect");
+        } catch (SessionLimitExceededException expected) {
+        }
+        // Nothing is queued for a disconnected session
+        session.sendMessage(new TextMessage("frame-5"));
+        finishWriting(writer);
+        
+        assertEquals(Collections.singletonList("first"), sent);
+        SlowConsumerStats stats = guard.getStats();
+        assertEquals(1, stats.getSlowSessions());
+        assertEquals(1, stats.getDisconnectedSessions());
+    }
+    
+    public void testDropOldestKeepsNewestFrames() throws Exception {
+        SlowConsumerGuard guard = new SlowConsumerGuard(new ObjectMapper(), SlowConsumerGuard.Policy.DROP_OLDEST);
+        // Room for three 7-byte frames
+        WebSocketSession session = guard.decorate(slowSession(), SEND_TIME_LIMIT_MILLIS, 21);
+        Thread writer = startWriting(session, "first");
+        
+        for (int i = 2; i <= 6; i++) {
+            session.sendMessage(new TextMessage("frame-" + i));
+        }
+        assertEquals(21, ((ConcurrentWebSocketSessionDecorator) session).getBufferSize());
+        finishWriting(writer);
+        
+        assertEquals(Arrays.asList("first", "frame-4", "frame-5", "frame-6"), sent);
+        SlowConsumerStats stats = guard.getStats();
+        assertEquals(1, stats.getSlowSessions());
+        assertEquals(0, stats.getDisconnectedSessions());
+        assertEquals(2, stats.getDroppedFrames());
+        // Measured before the overflow is dealt with
+        assertEquals(28, stats.getMaxBufferedBytes());
+    }
+    
+    public void testConflateKeepsLatestChangePerUser() throws Exception {
+        SlowConsumerGuard guard = new SlowConsumerGuard(new ObjectMapper(), SlowConsumerGuard.Policy.CONFLATE);
+        String user7v1 = change("USER_UPDATED", 7, "v1");
+        String user8 = change("USER_CREATED", 8, "v1");
+        String user7v2 = change("USER_UPDATED", 7, "v2");
+        String reply = "MESSAGE\ndestination:/user/queue/users\n\n{\"type\":\"USER_LIST\",\"users\":[]}\u0000";
+        String user7deleted = "MESSAGE\ndestination:/topic/users.changes\n\n{\"type\":\"USER_DELETED\",\"userId\":7,\"seq\":5}\u0000";
+        // The first four frames fit; the fifth overflows the queue
+        int limit = user7v1.length() + user8.length() + user7v2.length() + reply.length();
+        WebSocketSession session = guard.decorate(slowSession(), SEND_TIME_LIMIT_MILLIS, limit);
+        Thread writer = startWriting(session, "first");
+        
+        for (String frame : Arrays.asList(user7v1, user8, user7v2, reply, user7deleted)) {
+            session.sendMessage(new TextMessage(frame));
+        }
+        finishWriting(writer);
+        
+        // Both earlier changes to user 7 give way to its delete; the rest keep their order
+        assertEquals(Arrays.asList("first", user8, reply, user7deleted), sent);
+        SlowConsumerStats stats = guard.getStats();
+        assertEquals(2, stats.getConflatedFrames());
+        assertEquals(0, stats.getDroppedFrames());
+    }
+    
+    public void testConflateDropsOldestWhenKeysDoNotRepeat() throws Exception {
+        SlowConsumerGuard guard = new SlowConsumerGuard(new ObjectMapper(), SlowConsumerGuard.Policy.CONFLATE);
+        String user1 = change("USER_UPDATED", 1, "v1");
+        String user2 = change("USER_UPDATED", 2, "v1");
+        String user3 = change("USER_UPDATED", 3, "v1");
+        WebSocketSession session = guard.decorate(slowSession(), SEND_TIME_LIMIT_MILLIS, user1.length() + user2.length());
+        Thread writer = startWriting(session, "first");
+        
+        for (String frame : Arrays.asList(user1, user2, user3)) {
+            session.sendMessage(new TextMessage(frame));
+        }
+        finishWriting(writer);
+        
+        assertEquals(Arrays.asList("first", user2, user3), sent);
+        SlowConsumerStats stats = guard.getStats();
+        assertEquals(0, stats.getConflatedFrames());
+        assertEquals(1, stats.getDroppedFrames());
+    }
+    
+    private static String change(String type, long userId, String name) {
+        return "MESSAGE\ndestination:/topic/users.changes\ncontent-type:application/json\n\n"
+            + "{\"type\":\"" + type + "\",\"user\":{\"id\":" + userId + ",\"name\":\"" + name + "\"},\"seq\":1}\u0000";
+    }
+    
+    // Sends the frame on its own thread and returns once the session is stuck writing it
+    private Thread startWriting(WebSocketSession session, String frame) throws InterruptedException {
+        Thread writer = new Thread(() -> {
+            try {
+                session.sendMessage(new TextMessage(frame));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        writer.start();
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        return writer;
+    }
+    
+    // Lets the stuck write finish; the writer then sends whatever is still queued
+    private void finishWriting(Thread writer) throws InterruptedException {
+        release.countDown();
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+    }
+    
+    // Records every frame; the first write blocks until released
+    private WebSocketSession slowSession() {
+        return (WebSocketSession) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] {WebSocketSession.class}, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "sendMessage":
+                        sent.add(((TextMessage) args[0]).getPayload());
+                        writing.countDown();
+                        release.await();
+                        return null;
+                    case "getId":
+                        return "slow";
+                    case "isOpen":
+                        return true;
+                    default:
+                        return null;
+                }
+            });
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.eventapi.journal;
+
+import com.example.eventapi.event.UserDeletedEvent;
+import com.example.eventapi.event.UserEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class EventJournalTest extends TestCase {
+    
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private File directory;
+    private final List<EventJournal> journals = new ArrayList<>();
+    
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("event-journal-test").toFile();
+    }
+    
+    @Override
+    protected void tearDown() throws InterruptedException {
+        for (EventJournal journal : journals) {
+            journal.close();
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+    
+    public void testReplaysRangeInOrder() throws Exception {
+        EventJournal journal = open(1 << 16, 8);
+        appendAll(journal, 1, 10);
+        
+        List<Long> seqs = replay(journal, 3, 7);
+        assertEquals(5, seqs.size());
+        for (int i = 0; i < seqs.size(); i++) {
+            assertEquals(3L + i, (long) seqs.get(i));
+        }
+        assertEquals(1, journal.getFirstOffset());
+        assertEquals(10, journal.getLastOffset());
+        assertEquals(0, journal.replay(8, 7, json -> fail("Empty range replayed a record")));
+    }
+    
+    public void testReopenRecoversRecords() throws Exception {
+        EventJournal journal = open(1 << 16, 8);
+        appendAll(journal, 1, 20);
+        replay(journal, 20, 20);
+        journal.close();
+        
+        EventJournal reopened = open(1 << 16, 8);
+        assertEquals(20, reopened.getLastOffset());
+        assertEquals(20, replay(reopened, 1, 20).size());
+        
+        // Appends continue where the earlier run stopped
+        appendAll(reopened, 21, 25);
+        assertEquals(25L, (long) replay(reopened, 21, 25).get(4));
+    }
+    
+    public void testRetentionDropsOldestSegments() throws Exception {
+        // Room for a few records per segment
+        EventJournal journal = open(256, 2);
+        appendAll(journal, 1, 100);
+        replay(journal, 100, 100);
+        
+        File[] segments = directory.listFiles((dir, name) -> name.endsWith(".log"));
+        assertEquals(2, segments.length);
+        long first = journal.getFirstOffset();
+        assertTrue(first > 1);
+        List<Long> seqs = replay(journal, first, 100);
+        assertEquals(100 - first + 1, seqs.size());
+        assertEquals(first, (long) seqs.get(0));
+        
+        // Retention also applies when reopening with fewer segments allowed
+        journal.close();
+        EventJournal reopened = open(256, 1);
+        assertEquals(1, directory.listFiles((dir, name) -> name.endsWith(".log")).length);
+        assertTrue(reopened.getFirstOffset() > first);
+        assertEquals(100, reopened.getLastOffset());
+    }
+    
+    public void testFailedWriteIsReportedAsGap() throws Exception {
+        EventJournal journal = open(1 << 16, 8);
+        appendAll(journal, 1, 2);
+        assertEquals(2, replay(journal, 1, 2).size());
+        
+        journal.append(3, new UnwritableEvent());
+        try {
+            replay(journal, 3, 3);
+            fail("Replay skipped a record that was never written");
+        } catch (JournalGapException e) {
+            assertEquals(3, e.getFromOffset());
+            assertEquals(3, e.getToOffset());
+        }
+        
+        journal.append(4, new UserDeletedEvent(4L, 4));
+        assertEquals(1, replay(journal, 4, 4).size());
+        try {
+            replay(journal, 2, 4);
+            fail("Replay crossed a lost record");
+        } catch (JournalGapException expected) {
+        }
+    }
+    
+    private EventJournal open(int segmentBytes, int maxSegments) throws IOException {
+        EventJournal journal = new EventJournal(directory.getPath(), segmentBytes, maxSegments, 1, 1024, objectMapper);
+        journals.add(journal);
+        return journal;
+    }
+    
+    private static void appendAll(EventJournal journal, long from, long to) {
+        for (long offset = from; offset <= to; offset++) {
+            journal.append(offset, new UserDeletedEvent(offset, offset));
+        }
+    }
+    
+    // Seq of every replayed event, read back from its JSON
+    private List<Long> replay(EventJournal journal, long from, long to) throws Exception {
+        List<Long> seqs = new ArrayList<>();
+        journal.replay(from, to, json -> {
+            try {
+                seqs.add(objectMapper.readValue(json, UserDeletedEvent.class).getSeq());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        return seqs;
+    }
+    
+    // Fails to serialize, as a write error would
+    private static final class UnwritableEvent extends UserEvent {
+        UnwritableEvent() {
+            super("USER_DELETED");
+        }
+        
+        public String getUserId() {
+            throw new IllegalStateException("Not serializable");
+        }
+    }
+}
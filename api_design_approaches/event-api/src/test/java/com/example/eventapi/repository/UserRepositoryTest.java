@@ -0,0 +1,106 @@
+package com.example.eventapi.repository;
+
+import com.example.eventapi.dto.PersistenceStats;
+import com.example.eventapi.model.User;
+import junit.framework.TestCase;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Write-behind commits many requests' writes together; one rejected write must fail only
+// the request that made it
+public class UserRepositoryTest extends TestCase {
+    
+    private static final AtomicInteger databases = new AtomicInteger();
+    
+    private JdbcTemplate jdbcTemplate;
+    private UserRepository repository;
+    
+    @Override
+    protected void setUp() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+            "jdbc:h2:mem:write-behind-" + databases.incrementAndGet() + ";DB_CLOSE_DELAY=-1", "sa", "");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        // Long enough that writes from several threads share a commit
+        repository = new UserRepository(jdbcTemplate, new DataSourceTransactionManager(dataSource), true, 1000, 500, 50);
+        repository.initialize();
+        // A rule the repository does not check up front, so only H2 rejects the write
+        jdbcTemplate.execute("ALTER TABLE users ADD CONSTRAINT no_bad_names CHECK (name <> 'bad')");
+    }
+    
+    @Override
+    protected void tearDown() throws InterruptedException {
+        repository.close();
+        jdbcTemplate.execute("DROP ALL OBJECTS");
+    }
+    
+    public void testRejectedCreateFailsOnlyItsRequest() throws Exception {
+        int threads = 4;
+        int createsPerThread = 5;
+        CyclicBarrier start = new CyclicBarrier(threads);
+        List<CompletableFuture<CompletableFuture<Void>>> requests = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            requests.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    start.await();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                for (int i = 0; i < createsPerThread; i++) {
+                    String name = thread == 0 && i == 2 ? "bad" : "User " + thread + "-" + i;
+                    repository.save(new User(null, name, "user" + thread + "-" + i + "@example.com"));
+                }
+                return repository.whenCommitted();
+            }));
+        }
+        
+        for (int t = 0; t < threads; t++) {
+            CompletableFuture<Void> committed = requests.get(t).get(5, TimeUnit.SECONDS);
+            if (t == 0) {
+                try {
+                    committed.get(5, TimeUnit.SECONDS);
+                    fail("The rejected create was reported as committed");
+                } catch (ExecutionException expected) {
+                }
+            } else {
+                committed.get(5, TimeUnit.SECONDS);
+            }
+        }
+        
+        // Three initial users, plus every create but the rejected one
+        int expected = 3 + threads * createsPerThread - 1;
+        assertEquals(expected, (int) jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Integer.class));
+        assertEquals(expected, repository.findAll().size());
+        PersistenceStats stats = repository.getStats();
+        assertEquals(1, stats.getFailedWrites());
+        assertEquals(threads * createsPerThread - 1, stats.getCommittedWrites());
+    }
+    
+    public void testRejectedUpdateRestoresView() throws Exception {
+        User user = repository.findById(1L).get();
+        String name = user.getName();
+        
+        repository.save(new User(1L, "bad", user.getEmail()));
+        assertEquals("bad", repository.findById(1L).get().getName());
+        try {
+            repository.whenCommitted().get(5, TimeUnit.SECONDS);
+            fail("The rejected update was reported as committed");
+        } catch (ExecutionException expected) {
+        }
+        assertEquals(name, repository.findById(1L).get().getName());
+        
+        // Later writes to the user still go through
+        repository.save(new User(1L, "Renamed", user.getEmail()));
+        repository.whenCommitted().get(5, TimeUnit.SECONDS);
+        assertEquals("Renamed", jdbcTemplate.queryForObject("SELECT name FROM users WHERE id = 1", String.class));
+    }
+}
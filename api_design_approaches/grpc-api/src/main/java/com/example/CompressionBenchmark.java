@@ -0,0 +1,174 @@
+package com.example.grpcapi;
+
+import com.example.grpcapi.compression.GzipLevelCompressor;
+import com.example.grpcapi.proto.ListUsersRequest;
+import com.example.grpcapi.proto.User;
+import com.example.grpcapi.proto.UserList;
+import com.example.grpcapi.proto.UserServiceGrpc;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientStreamTracer;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * CPU cost of gzip against bytes saved for UserList responses, to pick the size
+ * threshold and level of the compression policy.
+ *
+ * Part one compresses serialized UserLists of growing size at gzip levels 1, 6 and 9 and
+ * reports ratio and compression time. Part two runs GetAllUsers end to end against
+ * servers without compression and with gzip levels 1 and 6, and reports wire bytes (as
+ * seen by the client after compression) and process CPU time per call.
+ *
+ * Usage: CompressionBenchmark [users=10000] [calls=200] [port=50071]
+ */
+public class CompressionBenchmark {
+    private static final Logger logger = Logger.getLogger(CompressionBenchmark.class.getName());
+    
+    private static final int[] LIST_SIZES = {1, 4, 16, 64, 256, 1024, 10000};
+    private static final int[] LEVELS = {1, 6, 9};
+    
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 50071;
+        
+        StringBuilder summary = new StringBuilder("\n");
+        codecTable(summary);
+        summary.append('\n');
+        endToEnd(summary, users, calls, port);
+        logger.info(summary.toString());
+    }
+    
+    private static void codecTable(StringBuilder summary) throws IOException {
+        summary.append(String.format("%6s %9s %6s %9s %7s %12s %10s%n",
+            "users", "bytes", "level", "gzipped", "ratio", "compress(us)", "us/KB"));
+        for (int size : LIST_SIZES) {
+            byte[] bytes = userList(size).toByteArray();
+            for (int level : LEVELS) {
+                GzipLevelCompressor compressor = new GzipLevelCompressor(level);
+                // Enough repetitions for roughly 50MB of input, at least 20
+                int reps = Math.max(20, 50_000_000 / bytes.length);
+                int compressed = 0;
+                for (int i = 0; i < reps / 4; i++) {
+                    compressed = compress(compressor, bytes);
+                }
+                long start = System.nanoTime();
+                for (int i = 0; i < reps; i++) {
+                    compressed = compress(compressor, bytes);
+                }
+                double micros = (System.nanoTime() - start) / 1000.0 / reps;
+                summary.append(String.format("%6d %9d %6d %9d %6.2fx %12.1f %10.1f%n",
+                    size, bytes.length, level, compressed, (double) bytes.length / compressed,
+                    micros, micros * 1024 / bytes.length));
+            }
+        }
+    }
+    
+    private static void endToEnd(StringBuilder summary, int users, int calls, int port) throws Exception {
+        summary.append(String.format("%-10s %12s %12s %12s %12s%n",
+            "server", "bytes/call", "wire/call", "cpu(us)/call", "latency(us)"));
+        com.sun.management.OperatingSystemMXBean os =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        
+        for (int level : new int[] {0, 1, 6}) {
+            ServerSettings settings = new ServerSettings();
+            settings.setPort(port);
+            settings.setCompression(level > 0);
+            settings.setGzipLevel(Math.max(1, level));
+            UserServer server = new UserServer(settings);
+            server.start();
+            
+            final AtomicLong wireBytes = new AtomicLong();
+            ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", port)
+                .usePlaintext()
+                .maxInboundMessageSize(64 * 1024 * 1024)
+                .intercept(wireSizeRecorder(wireBytes))
+                .build();
+            try {
+                // The in-memory database is shared by every server in this JVM; seed it once
+                if (level == 0) {
+                    UserClient seeder = new UserClient("localhost", port);
+                    seeder.bulkCreateUsers(users);
+                    seeder.shutdown();
+                }
+                
+                UserServiceGrpc.UserServiceBlockingStub stub = UserServiceGrpc.newBlockingStub(channel);
+                ListUsersRequest request = ListUsersRequest.getDefaultInstance();
+                int size = 0;
+                for (int i = 0; i < calls / 4; i++) {
+                    size = stub.getAllUsers(request).getSerializedSize();
+                }
+                
+                wireBytes.set(0);
+                long cpuStart = os.getProcessCpuTime();
+                long start = System.nanoTime();
+                for (int i = 0; i < calls; i++) {
+                    stub.getAllUsers(request);
+                }
+                long elapsed = System.nanoTime() - start;
+                long cpu = os.getProcessCpuTime() - cpuStart;
+                
+                summary.append(String.format("%-10s %12d %12d %12.0f %12.0f%n",
+                    level == 0 ? "off" : "gzip-" + level, size, wireBytes.get() / calls,
+                    cpu / 1000.0 / calls, elapsed / 1000.0 / calls));
+            } finally {
+                channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+                server.stop();
+            }
+        }
+    }
+    
+    // Adds up the response bytes as they came off the wire, before decompression
+    private static ClientInterceptor wireSizeRecorder(final AtomicLong wireBytes) {
+        final ClientStreamTracer.Factory factory = new ClientStreamTracer.Factory() {
+            @Override
+            public ClientStreamTracer newClientStreamTracer(ClientStreamTracer.StreamInfo info, Metadata headers) {
+                return new ClientStreamTracer() {
+                    @Override
+                    public void inboundWireSize(long bytes) {
+                        wireBytes.addAndGet(bytes);
+                    }
+                };
+            }
+        };
+        return new ClientInterceptor() {
+            @Override
+            public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                                       CallOptions callOptions, Channel next) {
+                return next.newCall(method, callOptions.withStreamTracerFactory(factory));
+            }
+        };
+    }
+    
+    private static UserList userList(int size) {
+        UserList.Builder list = UserList.newBuilder();
+        for (int i = 1; i <= size; i++) {
+            list.addUsers(User.newBuilder()
+                .setId(i)
+                .setName("Bulk User " + i)
+                .setEmail("bulk" + i + "@example.com"));
+        }
+        return list.build();
+    }
+    
+    private static int compress(GzipLevelCompressor compressor, byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+        OutputStream gzip = compressor.compress(out);
+        gzip.write(bytes);
+        gzip.close();
+        return out.size();
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.grpcapi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Compares UserServer executor configurations under the same closed-loop load.
+ *
+ * Each configuration gets its own in-process UserServer on a separate port and is
+ * driven by {@link UserLoadDriver}; the summary lists throughput per configuration.
+ *
+ * Usage: ExecutorBenchmark [outstanding=256] [durationSeconds=20]
+ */
+public class ExecutorBenchmark {
+    private static final Logger logger = Logger.getLogger(ExecutorBenchmark.class.getName());
+    
+    public static void main(String[] args) throws Exception {
+        int outstanding = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int duration = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int basePort = 50061;
+        
+        List<ServerSettings> candidates = new ArrayList<>();
+        candidates.add(ServerSettings.fromArgs(new String[] {"--executor=default"}));
+        candidates.add(ServerSettings.fromArgs(new String[] {"--executor=bounded", "--poolSize=8", "--queueCapacity=10000"}));
+        candidates.add(ServerSettings.fromArgs(new String[] {"--executor=bounded", "--poolSize=32", "--queueCapacity=10000"}));
+        candidates.add(ServerSettings.fromArgs(new String[] {"--executor=bounded", "--poolSize=32", "--queueCapacity=10000", "--workerThreads=1"}));
+        candidates.add(ServerSettings.fromArgs(new String[] {"--executor=virtual"}));
+        
+        StringBuilder summary = new StringBuilder("\n");
+        for (ServerSettings settings : candidates) {
+            settings.setPort(basePort++);
+            UserServer server = new UserServer(settings);
+            try {
+                server.start();
+            } catch (IllegalStateException e) {
+                summary.append(String.format("%-100s skipped: %s%n", settings, e.getMessage()));
+                continue;
+            }
+            
+            try {
+                double throughput = new UserLoadDriver("localhost", settings.getPort(), 2, outstanding,
+                    duration, 5, 0.1, 3).run();
+                summary.append(String.format("%-100s %10.0f calls/s, %d live threads%n",
+                    settings, throughput, Thread.activeCount()));
+            } finally {
+                server.stop();
+            }
+        }
+        logger.info(summary.toString());
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.grpcapi;
+
+import com.example.grpcapi.metrics.MetricsInterceptor;
+import com.example.grpcapi.metrics.ServerMetrics;
+import com.example.grpcapi.proto.User;
+import com.example.grpcapi.proto.UserRequest;
+import com.example.grpcapi.proto.UserServiceGrpc;
+import io.grpc.Attributes;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.logging.Logger;
+
+/**
+ * Measures the per-call cost of {@link MetricsInterceptor} by driving a unary call
+ * (start, one request, one response, close) through a no-op ServerCall, with and
+ * without the interceptor, and reporting the difference in nanoseconds per call.
+ *
+ * Usage: MetricsOverheadBenchmark [callsPerRound=2000000] [rounds=5]
+ */
+public class MetricsOverheadBenchmark {
+    private static final Logger logger = Logger.getLogger(MetricsOverheadBenchmark.class.getName());
+    
+    private static final UserRequest REQUEST = UserRequest.newBuilder().setId(42).build();
+    private static final User RESPONSE = User.newBuilder()
+        .setId(42)
+        .setName("Metrics Bench")
+        .setEmail("metrics@example.com")
+        .build();
+    
+    public static void main(String[] args) {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        
+        ServerInterceptor passThrough = new ServerInterceptor() {
+            @Override
+            public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                         Metadata headers,
+                                                                         ServerCallHandler<ReqT, RespT> next) {
+                return next.startCall(call, headers);
+            }
+        };
+        MetricsInterceptor metricsInterceptor = new MetricsInterceptor(new ServerMetrics());
+        
+        StringBuilder summary = new StringBuilder("\n");
+        for (int round = 1; round <= rounds; round++) {
+            double baseline = nanosPerCall(passThrough, calls);
+            double recorded = nanosPerCall(metricsInterceptor, calls);
+            summary.append(String.format("round %d: baseline %6.1f ns/call, with metrics %6.1f ns/call, overhead %6.1f ns/call%n",
+                round, baseline, recorded, recorded - baseline));
+        }
+        logger.info(summary.toString());
+    }
+    
+    private static double nanosPerCall(ServerInterceptor interceptor, int calls) {
+        NoopCall call = new NoopCall();
+        Metadata headers = new Metadata();
+        ServerCallHandler<UserRequest, User> handler = new ServerCallHandler<UserRequest, User>() {
+            @Override
+            public ServerCall.Listener<UserRequest> startCall(final ServerCall<UserRequest, User> call, Metadata headers) {
+                return new ServerCall.Listener<UserRequest>() {
+                    @Override
+                    public void onMessage(UserRequest message) {
+                        call.sendMessage(RESPONSE);
+                        call.close(Status.OK, new Metadata());
+                    }
+                };
+            }
+        };
+        
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++) {
+            ServerCall.Listener<UserRequest> listener = interceptor.interceptCall(call, headers, handler);
+            listener.onMessage(REQUEST);
+            listener.onHalfClose();
+            listener.onComplete();
+        }
+        return (System.nanoTime() - start) / (double) calls;
+    }
+    
+    private static final class NoopCall extends ServerCall<UserRequest, User> {
+        @Override
+        public void request(int numMessages) {
+        }
+        
+        @Override
+        public void sendHeaders(Metadata headers) {
+        }
+        
+        @Override
+        public void sendMessage(User message) {
+        }
+        
+        @Override
+        public void close(Status status, Metadata trailers) {
+        }
+        
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+        
+        @Override
+        public Attributes getAttributes() {
+            return Attributes.EMPTY;
+        }
+        
+        @Override
+        public MethodDescriptor<UserRequest, User> getMethodDescriptor() {
+            return UserServiceGrpc.getGetUserMethod();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.grpcapi;
+
+import com.example.grpcapi.model.User;
+import com.example.grpcapi.repository.UserRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Measures update/delete throughput against the local H2 database, comparing the old
+ * read-then-write pattern (findById + save / findById + deleteById) with the
+ * single-statement {@link UserRepository#update} and {@link UserRepository#deleteById}.
+ *
+ * Usage: MutationBenchmark [rows=20000] [rounds=5]
+ */
+public class MutationBenchmark {
+    private static final Logger logger = Logger.getLogger(MutationBenchmark.class.getName());
+    
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        UserRepository repository = new UserRepository();
+        
+        StringBuilder summary = new StringBuilder("\n");
+        for (int round = 1; round <= rounds; round++) {
+            List<Long> ids = seed(repository, rows);
+            
+            long start = System.nanoTime();
+            for (Long id : ids) {
+                User existing = repository.findById(id).get();
+                existing.setName("Two Step " + id);
+                repository.save(existing);
+            }
+            double twoStepUpdates = rate(rows, start);
+            
+            start = System.nanoTime();
+            for (Long id : ids) {
+                repository.update(new User(id, "One Step " + id, "one" + id + "@example.com"));
+            }
+            double singleUpdates = rate(rows, start);
+            
+            List<Long> half = ids.subList(0, rows / 2);
+            start = System.nanoTime();
+            for (Long id : half) {
+                if (repository.findById(id).isPresent()) {
+                    repository.deleteById(id);
+                }
+            }
+            double twoStepDeletes = rate(half.size(), start);
+            
+            List<Long> rest = ids.subList(rows / 2, rows);
+            start = System.nanoTime();
+            for (Long id : rest) {
+                repository.deleteById(id);
+            }
+            double singleDeletes = rate(rest.size(), start);
+            
+            summary.append(String.format(
+                "round %d: update %8.0f -> %8.0f ops/s, delete %8.0f -> %8.0f ops/s (read-then-write -> single statement)%n",
+                round, twoStepUpdates, singleUpdates, twoStepDeletes, singleDeletes));
+        }
+        logger.info(summary.toString());
+    }
+    
+    private static List<Long> seed(UserRepository repository, int rows) {
+        List<User> users = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            users.add(new User("Bench User " + i, "bench" + i + "@example.com"));
+        }
+        repository.saveAll(users);
+        
+        List<Long> ids = new ArrayList<>(rows);
+        for (User user : users) {
+            ids.add(user.getId());
+        }
+        return ids;
+    }
+    
+    private static double rate(int operations, long startNanos) {
+        return operations / ((System.nanoTime() - startNanos) / 1e9);
+    }
+}
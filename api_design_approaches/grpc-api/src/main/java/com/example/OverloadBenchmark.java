@@ -0,0 +1,183 @@
+package com.example.grpcapi;
+
+import com.example.grpcapi.metrics.LatencyHistogram;
+import com.example.grpcapi.proto.User;
+import com.example.grpcapi.proto.UpdateUserRequest;
+import com.example.grpcapi.proto.UserServiceGrpc;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Open-loop overload test: offers UpdateUser calls at a fixed rate that doubles every
+ * step, each with a short deadline, and reports goodput (calls answered OK within their
+ * deadline) per step, for one server with load shedding and one without.
+ *
+ * Every call rewrites a user, so each one reaches the database instead of the GetUser
+ * cache. Both servers run in this JVM and share the same jdbc:h2:mem:userdb, so each
+ * one gets users of its own, created up front and updated in turn: work a server queued
+ * past its callers' deadlines never waits on a row lock held by the other server's calls.
+ *
+ * A closed-loop driver cannot overload the server (it waits for replies); here arrivals
+ * do not slow down when the server does, which is what queues up work that finishes
+ * after its caller gave up.
+ *
+ * Usage: OverloadBenchmark [--rates=1000,2000,4000] [--seconds=5]
+ *        [--deadlineMs=50] [--port=50071] (the second server uses port + 1)
+ */
+public class OverloadBenchmark {
+    private static final Logger logger = Logger.getLogger(OverloadBenchmark.class.getName());
+    
+    private static final int USERS_PER_SERVER = 64;
+    
+    public static void main(String[] args) throws Exception {
+        String rates = "1000,2000,4000";
+        int seconds = 5;
+        long deadlineMillis = 50;
+        int port = 50071;
+        for (String arg : args) {
+            String[] parts = arg.replaceFirst("^--", "").split("=", 2);
+            switch (parts[0]) {
+                case "rates":
+                    rates = parts[1];
+                    break;
+                case "seconds":
+                    seconds = Integer.parseInt(parts[1]);
+                    break;
+                case "deadlineMs":
+                    deadlineMillis = Long.parseLong(parts[1]);
+                    break;
+                case "port":
+                    port = Integer.parseInt(parts[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        
+        // Both servers run side by side and take turns at each rate, so JIT warm-up and
+        // database growth affect them alike
+        boolean[] modes = {true, false};
+        UserServer[] servers = new UserServer[modes.length];
+        ManagedChannel[] channels = new ManagedChannel[modes.length];
+        UserServiceGrpc.UserServiceFutureStub[] stubs = new UserServiceGrpc.UserServiceFutureStub[modes.length];
+        long[][] userIds = new long[modes.length][USERS_PER_SERVER];
+        StringBuilder summary = new StringBuilder("\n");
+        summary.append(String.format("%-9s %9s %9s %9s %9s %9s %9s%n",
+            "shedding", "offered/s", "goodput/s", "shed/s", "late/s", "p50(us)", "p99(us)"));
+        try {
+            for (int i = 0; i < modes.length; i++) {
+                ServerSettings settings = new ServerSettings();
+                settings.setPort(port + i);
+                settings.setLoadShedding(modes[i]);
+                servers[i] = new UserServer(settings);
+                servers[i].start();
+                channels[i] = ManagedChannelBuilder.forAddress("localhost", port + i)
+                    .usePlaintext()
+                    .build();
+                stubs[i] = UserServiceGrpc.newFutureStub(channels[i]);
+                UserServiceGrpc.UserServiceBlockingStub blockingStub = UserServiceGrpc.newBlockingStub(channels[i]);
+                for (int u = 0; u < USERS_PER_SERVER; u++) {
+                    userIds[i][u] = blockingStub.createUser(User.newBuilder()
+                        .setName("Overload User " + i + "-" + u)
+                        .setEmail("overload" + i + "-" + u + "@example.com")
+                        .build()).getId();
+                }
+            }
+            
+            int warmupRate = Integer.parseInt(rates.split(",")[0].trim());
+            for (int i = 0; i < modes.length; i++) {
+                runStep(stubs[i], userIds[i], warmupRate, 10, deadlineMillis);
+            }
+            
+            for (String rate : rates.split(",")) {
+                int perSecond = Integer.parseInt(rate.trim());
+                for (int i = 0; i < modes.length; i++) {
+                    Step step = runStep(stubs[i], userIds[i], perSecond, seconds, deadlineMillis);
+                    summary.append(String.format("%-9s %9d %9.0f %9.0f %9.0f %9d %9d%n",
+                        modes[i] ? "on" : "off", perSecond,
+                        step.count(Status.Code.OK) / (double) seconds,
+                        step.count(Status.Code.RESOURCE_EXHAUSTED) / (double) seconds,
+                        step.count(Status.Code.DEADLINE_EXCEEDED) / (double) seconds,
+                        step.okLatency.getPercentile(50) / 1000,
+                        step.okLatency.getPercentile(99) / 1000));
+                }
+            }
+        } finally {
+            for (int i = 0; i < modes.length; i++) {
+                if (channels[i] != null) {
+                    channels[i].shutdown().awaitTermination(5, TimeUnit.SECONDS);
+                }
+                if (servers[i] != null) {
+                    servers[i].stop();
+                }
+            }
+        }
+        logger.info(summary.toString());
+    }
+    
+    private static Step runStep(UserServiceGrpc.UserServiceFutureStub stub, long[] userIds, int perSecond,
+                                int seconds, long deadlineMillis) throws InterruptedException {
+        final Step step = new Step();
+        // The server's own users, rewritten in turn
+        UpdateUserRequest[] requests = new UpdateUserRequest[userIds.length];
+        for (int u = 0; u < userIds.length; u++) {
+            requests[u] = UpdateUserRequest.newBuilder()
+                .setId(userIds[u])
+                .setUser(User.newBuilder().setName("Overload User").setEmail("overload@example.com"))
+                .build();
+        }
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / perSecond;
+        long total = (long) perSecond * seconds;
+        long start = System.nanoTime();
+        
+        for (long i = 0; i < total; i++) {
+            // Calls are due on a fixed schedule; a late sender catches up instead of slowing down
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            final long sent = System.nanoTime();
+            Futures.addCallback(
+                stub.withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS).updateUser(requests[(int) (i % requests.length)]),
+                new FutureCallback<User>() {
+                    @Override
+                    public void onSuccess(User user) {
+                        step.okLatency.record(System.nanoTime() - sent);
+                        step.record(Status.Code.OK);
+                    }
+                    
+                    @Override
+                    public void onFailure(Throwable t) {
+                        step.record(Status.fromThrowable(t).getCode());
+                    }
+                }, MoreExecutors.directExecutor());
+        }
+        
+        // Every call ends by its deadline; wait for the stragglers to be counted
+        Thread.sleep(deadlineMillis + 200);
+        return step;
+    }
+    
+    private static final class Step {
+        private final LatencyHistogram okLatency = new LatencyHistogram();
+        private final AtomicLongArray statuses = new AtomicLongArray(Status.Code.values().length);
+        
+        void record(Status.Code code) {
+            statuses.incrementAndGet(code.ordinal());
+        }
+        
+        long count(Status.Code code) {
+            return statuses.get(code.ordinal());
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.grpcapi;
+
+/**
+ * Listening port and threading configuration for {@link UserServer}.
+ *
+ * Parsed from "--name=value" arguments, e.g.
+ * UserServer --port=50052 --executor=bounded --poolSize=16 --queueCapacity=1000 --workerThreads=2
+ * UserServer --loadShedding
+ * UserServer --compression --compressionThreshold=4096 --gzipLevel=6
+ */
+public class ServerSettings {
+    
+    public static final int DEFAULT_PORT = 50051;
+    
+    /** How application callbacks (and therefore blocking JDBC work) are run. */
+    public enum ExecutorMode {
+        // grpc-java's default unbounded cached thread pool
+        DEFAULT,
+        // Fixed number of threads with a bounded queue; excess work is rejected
+        BOUNDED,
+        // One virtual thread per task (requires running on Java 21+)
+        VIRTUAL
+    }
+    
+    private int port = DEFAULT_PORT;
+    private ExecutorMode executorMode = ExecutorMode.DEFAULT;
+    private int poolSize = Runtime.getRuntime().availableProcessors() * 4;
+    private int queueCapacity = 1000;
+    // 0 keeps grpc-netty's shared event loop groups
+    private int bossThreads;
+    private int workerThreads;
+    // Adaptive concurrency limit for unary calls, off unless asked for; the limit moves
+    // between these bounds
+    private boolean loadShedding;
+    private int initialLimit = 20;
+    private int maxLimit = 500;
+    // Response compression, off unless asked for; responses of at least this many bytes
+    // are then gzipped for clients that accept it
+    private boolean compression;
+    private int compressionThreshold = 1024;
+    private int gzipLevel = 1;
+    
+    public static ServerSettings fromArgs(String[] args) {
+        ServerSettings settings = new ServerSettings();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                continue;
+            }
+            String[] parts = arg.substring(2).split("=", 2);
+            // A bare flag such as --loadShedding means true
+            String value = parts.length > 1 ? parts[1] : "true";
+            switch (parts[0]) {
+                case "port":
+                    settings.setPort(Integer.parseInt(value));
+                    break;
+                case "executor":
+                    settings.setExecutorMode(ExecutorMode.valueOf(value.toUpperCase()));
+                    break;
+                case "poolSize":
+                    settings.setPoolSize(Integer.parseInt(value));
+                    break;
+                case "queueCapacity":
+                    settings.setQueueCapacity(Integer.parseInt(value));
+                    break;
+                case "bossThreads":
+                    settings.setBossThreads(Integer.parseInt(value));
+                    break;
+                case "workerThreads":
+                    settings.setWorkerThreads(Integer.parseInt(value));
+                    break;
+                case "loadShedding":
+                    settings.setLoadShedding(Boolean.parseBoolean(value));
+                    break;
+                case "initialLimit":
+                    settings.setInitialLimit(Integer.parseInt(value));
+                    break;
+                case "maxLimit":
+                    settings.setMaxLimit(Integer.parseInt(value));
+                    break;
+                case "compression":
+                    settings.setCompression(Boolean.parseBoolean(value));
+                    break;
+                case "compressionThreshold":
+                    settings.setCompressionThreshold(Integer.parseInt(value));
+                    break;
+                case "gzipLevel":
+                    settings.setGzipLevel(Integer.parseInt(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown server option: " + arg);
+            }
+        }
+        return settings;
+    }
+    
+    public int getPort() {
+        return port;
+    }
+    
+    public void setPort(int port) {
+        this.port = port;
+    }
+    
+    public ExecutorMode getExecutorMode() {
+        return executorMode;
+    }
+    
+    public void setExecutorMode(ExecutorMode executorMode) {
+        this.executorMode = executorMode;
+    }
+    
+    public int getPoolSize() {
+        return poolSize;
+    }
+    
+    public void setPoolSize(int poolSize) {
+        this.poolSize = poolSize;
+    }
+    
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+    
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+    
+    public int getBossThreads() {
+        return bossThreads;
+    }
+    
+    public void setBossThreads(int bossThreads) {
+        this.bossThreads = bossThreads;
+    }
+    
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+    
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+    
+    public boolean isLoadShedding() {
+        return loadShedding;
+    }
+    
+    public void setLoadShedding(boolean loadShedding) {
+        this.loadShedding = loadShedding;
+    }
+    
+    public int getInitialLimit() {
+        return initialLimit;
+    }
+    
+    public void setInitialLimit(int initialLimit) {
+        this.initialLimit = initialLimit;
+    }
+    
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+    
+    public void setMaxLimit(int maxLimit) {
+        this.maxLimit = maxLimit;
+    }
+    
+    public boolean isCompression() {
+        return compression;
+    }
+    
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+    
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+    
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+    
+    public int getGzipLevel() {
+        return gzipLevel;
+    }
+    
+    public void setGzipLevel(int gzipLevel) {
+        this.gzipLevel = gzipLevel;
+    }
+    
+    @Override
+    public String toString() {
+        return "port=" + port +
+                ", executor=" + executorMode +
+                (executorMode == ExecutorMode.BOUNDED ? ", poolSize=" + poolSize + ", queueCapacity=" + queueCapacity : "") +
+                ", bossThreads=" + (bossThreads > 0 ? bossThreads : "shared") +
+                ", workerThreads=" + (workerThreads > 0 ? workerThreads : "shared") +
+                ", loadShedding=" + (loadShedding ? "limit " + initialLimit + ".." + maxLimit : "off") +
+                ", compression=" + (compression ? "gzip-" + gzipLevel + " from " + compressionThreshold + "B" : "off");
+    }
+}
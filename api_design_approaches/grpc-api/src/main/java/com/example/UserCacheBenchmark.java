@@ -0,0 +1,98 @@
+package com.example.grpcapi;
+
+import com.example.grpcapi.cache.LongKeyedCache;
+import com.example.grpcapi.proto.User;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.logging.Logger;
+
+/**
+ * Drives {@link LongKeyedCache} with a Zipf-skewed id stream, the access pattern seen
+ * by GetUser, and reports hit rate, nanoseconds per lookup and bytes allocated per hit.
+ *
+ * Usage: UserCacheBenchmark [users=1000000] [cacheEntries=10000] [lookups=20000000] [skew=1.1]
+ */
+public class UserCacheBenchmark {
+    private static final Logger logger = Logger.getLogger(UserCacheBenchmark.class.getName());
+    
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int cacheEntries = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        int lookups = args.length > 2 ? Integer.parseInt(args[2]) : 20000000;
+        double skew = args.length > 3 ? Double.parseDouble(args[3]) : 1.1;
+        
+        long[] ids = zipfIds(users, lookups, skew, new Random(42));
+        User template = User.newBuilder().setName("Cached User").setEmail("cached@example.com").build();
+        
+        StringBuilder summary = new StringBuilder("\n");
+        for (int round = 1; round <= 3; round++) {
+            LongKeyedCache<User> cache = new LongKeyedCache<>(cacheEntries);
+            
+            // Miss path loads and populates, as getUser does
+            long start = System.nanoTime();
+            for (long id : ids) {
+                if (cache.get(id) == null) {
+                    cache.putIfUnchanged(id, template, cache.stamp(id));
+                }
+            }
+            double nanosPerLookup = (System.nanoTime() - start) / (double) ids.length;
+            double hitRate = cache.getHitRate();
+            long evictions = cache.getEvictions();
+            
+            // Hits only: look up ids that are resident right now
+            long[] resident = new long[Math.min(cacheEntries, 1024)];
+            int n = 0;
+            for (int i = 0; i < ids.length && n < resident.length; i++) {
+                if (cache.get(ids[i]) != null) {
+                    resident[n++] = ids[i];
+                }
+            }
+            long allocatedBefore = allocatedBytes();
+            int hits = 0;
+            for (int i = 0; i < 10000000; i++) {
+                if (cache.get(resident[i % n]) != null) {
+                    hits++;
+                }
+            }
+            double bytesPerHit = (allocatedBytes() - allocatedBefore) / (double) hits;
+            
+            summary.append(String.format(
+                "round %d: hit rate %5.1f%%, %5.1f ns/lookup, %.3f bytes allocated per hit, %d evictions%n",
+                round, hitRate * 100, nanosPerLookup, bytesPerHit, evictions));
+        }
+        logger.info(summary.toString());
+    }
+    
+    // Inverse-CDF sampling over ranks 1..users with P(rank) proportional to 1/rank^skew
+    private static long[] zipfIds(int users, int count, double skew, Random random) {
+        double[] cdf = new double[users];
+        double sum = 0;
+        for (int rank = 1; rank <= users; rank++) {
+            sum += 1.0 / Math.pow(rank, skew);
+            cdf[rank - 1] = sum;
+        }
+        
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            double u = random.nextDouble() * sum;
+            int lo = 0;
+            int hi = users - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cdf[mid] < u) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            ids[i] = lo + 1;
+        }
+        return ids;
+    }
+    
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
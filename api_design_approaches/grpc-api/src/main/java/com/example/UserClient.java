@@ -1,135 +1,430 @@
-package com.example.grpcapi;
-
-import com.example.grpcapi.proto.*;
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
-import io.grpc.Status;
-import io.grpc.StatusRuntimeException;
-
-import java.util.concurrent.TimeUnit;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-
-public class UserClient {
-    private static final Logger logger = Logger.getLogger(UserClient.class.getName());
-    
-    private final ManagedChannel channel;
-    private final UserServiceGrpc.UserServiceBlockingStub blockingStub;
-    
-    public UserClient(String host, int port) {
-        channel = ManagedChannelBuilder.forAddress(host, port)
-            .usePlaintext()
-            .build();
-        blockingStub = UserServiceGrpc.newBlockingStub(channel);
-    }
-    
-    public void shutdown() throws InterruptedException {
-        channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
-    }
-    
-    public void getAllUsers() {
-        logger.info("Getting all users...");
-        Empty request = Empty.newBuilder().build();
-        
-        try {
-            UserList response = blockingStub.getAllUsers(request);
-            logger.info("Found " + response.getUsersCount() + " users");
-            
-            for (User user : response.getUsersList()) {
-                logger.info(user.getId() + ": " + user.getName() + " (" + user.getEmail() + ")");
-            }
-        } catch (StatusRuntimeException e) {
-            logger.log(Level.WARNING, "RPC failed: {0}", e.getStatus());
-        }
-    }
-    
-    public void getUser(long id) {
-        logger.info("Getting user with ID: " + id);
-        UserRequest request = UserRequest.newBuilder().setId(id).build();
-        
-        try {
-            User response = blockingStub.getUser(request);
-            logger.info("Found user: " + response.getId() + ": " + response.getName() + " (" + response.getEmail() + ")");
-        } catch (StatusRuntimeException e) {
-            logger.log(Level.WARNING, "RPC failed: {0}", e.getStatus());
-        }
-    }
-    
-    public void createUser(String name, String email) {
-        logger.info("Creating user: " + name);
-        User request = User.newBuilder()
-            .setName(name)
-            .setEmail(email)
-            .build();
-        
-        try {
-            User response = blockingStub.createUser(request);
-            logger.info("Created user: " + response.getId() + ": " + response.getName() + " (" + response.getEmail() + ")");
-        } catch (StatusRuntimeException e) {
-            logger.log(Level.WARNING, "RPC failed: {0}", e.getStatus());
-        }
-    }
-    
-    public void updateUser(long id, String name, String email) {
-        logger.info("Updating user with ID: " + id);
-        UpdateUserRequest request = UpdateUserRequest.newBuilder()
-            .setId(id)
-            .setUser(User.newBuilder()
-                .setName(name)
-                .setEmail(email)
-                .build())
-            .build();
-        
-        try {
-            User response = blockingStub.updateUser(request);
-            logger.info("Updated user: " + response.getId() + ": " + response.getName() + " (" + response.getEmail() + ")");
-        } catch (StatusRuntimeException e) {
-            logger.log(Level.WARNING, "RPC failed: {0}", e.getStatus());
-        }
-    }
-    
-    public void deleteUser(long id) {
-        logger.info("Deleting user with ID: " + id);
-        UserRequest request = UserRequest.newBuilder().setId(id).build();
-        
-        try {
-            blockingStub.deleteUser(request);
-            logger.info("User deleted successfully");
-        } catch (StatusRuntimeException e) {
-            logger.log(Level.WARNING, "RPC failed: {0}", e.getStatus());
-        }
-    }
-    
-    public static void main(String[] args) throws Exception {
-        UserClient client = new UserClient("localhost", 50051);
-        
-        try {
-            // Print all users
-            client.getAllUsers();
-            
-            // Get a specific user
-            client.getUser(1);
-            
-            // Create a new user
-            client.createUser("Alice Williams", "alice@example.com");
-            
-            // Show all users after creation
-            client.getAllUsers();
-            
-            // Update a user
-            client.updateUser(2, "Jane Wilson", "jane.wilson@example.com");
-            
-            // Show the updated user
-            client.getUser(2);
-            
-            // Delete a user
-            client.deleteUser(3);
-            
-            // Show all users after deletion
-            client.getAllUsers();
-            
-        } finally {
-            client.shutdown();
-        }
-    }
-}
+package com.example.grpcapi;
+
+import com.example.grpcapi.balancer.UserLoadBalancer;
+import com.example.grpcapi.balancer.UserLoadBalancerProvider;
+import com.example.grpcapi.proto.*;
+import com.google.protobuf.FieldMask;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class UserClient {
+    private static final Logger logger = Logger.getLogger(UserClient.class.getName());
+    
+    // Applied to every unary call; the server skips requests whose deadline has passed
+    public static final long DEFAULT_DEADLINE_MILLIS = 5000;
+    
+    private final ManagedChannel channel;
+    private final UserServiceGrpc.UserServiceBlockingStub blockingStub;
+    private final UserServiceGrpc.UserServiceStub asyncStub;
+    private final long deadlineMillis;
+    
+    public UserClient(String host, int port) {
+        this(host, port, DEFAULT_DEADLINE_MILLIS);
+    }
+    
+    public UserClient(String host, int port, long deadlineMillis) {
+        this(ManagedChannelBuilder.forAddress(host, port)
+            .usePlaintext()
+            .build(), deadlineMillis);
+    }
+    
+    // Spreads calls over several servers, e.g. "localhost:50051,localhost:50052"
+    public UserClient(String addresses, UserLoadBalancer.Policy policy) {
+        this(UserLoadBalancerProvider.newChannel(addresses, policy), DEFAULT_DEADLINE_MILLIS);
+    }
+    
+    private UserClient(ManagedChannel channel, long deadlineMillis) {
+        this.channel = channel;
+        blockingStub = UserServiceGrpc.newBlockingStub(channel);
+        asyncStub = UserServiceGrpc.newStub(channel);
+        this.deadlineMillis = deadlineMillis;
+    }
+    
+    // Deadlines are absolute, so each call needs a stub created when the call starts
+    private UserServiceGrpc.UserServiceBlockingStub blocking() {
+        return blockingStub.withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    public void shutdown() throws InterruptedException {
+        channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+    }
+    
+    public void getAllUsers(String... fields) {
+        logger.info("Getting all users...");
+        ListUsersRequest request = ListUsersRequest.newBuilder()
+            .setFieldMask(FieldMask.newBuilder().addAllPaths(Arrays.asList(fields)))
+            .build();
+        
+        try {
+            UserList response = blocking().getAllUsers(request);
+            logger.info("Found " + response.getUsersCount() + " users");
+            
+            for (User user : response.getUsersList()) {
+                logger.info(user.getId() + ": " + user.getName() + " (" + user.getEmail() + ")");
+            }
+        } catch (StatusRuntimeException e) {
+            logger.log(Level.WARNING, "RPC failed: {0}", e.getStatus());
+        }
+    }
+    
+    // Optional field names (id, name, email) limit what the server reads and returns
+    public void getUser(long id, String... fields) {
+        logger.info("Getting user with ID: " + id);
+        UserRequest request = UserRequest.newBuilder()
+            .setId(id)
+            .setFieldMask(FieldMask.newBuilder().addAllPaths(Arrays.asList(fields)))
+            .build();
+        
+        try {
+            User response = blocking().getUser(request);
+            logger.info("Found user: " + response.getId() + ": " + response.getName() + " (" + response.getEmail() + ")");
+        } catch (StatusRuntimeException e) {
+            logger.log(Level.WARNING, "RPC failed: {0}", e.getStatus());
+        }
+    }
+    
+    // One round trip for many ids; duplicates are resolved once
+    public void batchGetUsers(List<Long> ids, String... fields) {
+        logger.info("Getting " + ids.size() + " users by ID...");
+        BatchUserRequest request = BatchUserRequest.newBuilder()
+            .addAllIds(ids)
+            .setFieldMask(FieldMask.newBuilder().addAllPaths(Arrays.asList(fields)))
+            .build();
+        
+        try {
+            UserList response = blocking().batchGetUsers(request);
+            logger.info("Found " + response.getUsersCount() + " users, missing IDs: " + response.getMissingIdsList());
+            
+            for (User user : response.getUsersList()) {
+                logger.info(user.getId() + ": " + user.getName() + " (" + user.getEmail() + ")");
+            }
+        } catch (StatusRuntimeException e) {
+            logger.log(Level.WARNING, "RPC failed: {0}", e.getStatus());
+        }
+    }
+    
+    // Applies the changes since sinceToken ("" for everything) and returns the token to resume from
+    public String syncUsers(String sinceToken) {
+        logger.info(sinceToken.isEmpty() ? "Syncing all users..." : "Syncing users changed since token " + sinceToken + "...");
+        SyncRequest request = SyncRequest.newBuilder()
+            .setSinceToken(sinceToken)
+            .build();
+        
+        String token = sinceToken;
+        int upserts = 0;
+        int deletes = 0;
+        long start = System.nanoTime();
+        try {
+            // Like the bulk streams, no deadline: the stream ends at the server's watermark
+            Iterator<UserChange> changes = blockingStub.syncUsers(request);
+            while (changes.hasNext()) {
+                UserChange change = changes.next();
+                if (change.getDeleted()) {
+                    deletes++;
+                    logger.fine("Deleted " + change.getUser().getId());
+                } else {
+                    upserts++;
+                    logger.fine("Upserted " + change.getUser().getId() + ": " + change.getUser().getName());
+                }
+                token = change.getToken();
+            }
+            logger.info("Synced " + upserts + " upserts and " + deletes + " deletes in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms, next token " + token);
+        } catch (StatusRuntimeException e) {
+            logger.log(Level.WARNING, "RPC failed: {0}", e.getStatus());
+        }
+        return token;
+    }
+    
+    public void createUser(String name, String email) {
+        logger.info("Creating user: " + name);
+        User request = User.newBuilder()
+            .setName(name)
+            .setEmail(email)
+            .build();
+        
+        try {
+            User response = blocking().createUser(request);
+            logger.info("Created user: " + response.getId() + ": " + response.getName() + " (" + response.getEmail() + ")");
+        } catch (StatusRuntimeException e) {
+            logger.log(Level.WARNING, "RPC failed: {0}", e.getStatus());
+        }
+    }
+    
+    public void updateUser(long id, String name, String email) {
+        logger.info("Updating user with ID: " + id);
+        UpdateUserRequest request = UpdateUserRequest.newBuilder()
+            .setId(id)
+            .setUser(User.newBuilder()
+                .setName(name)
+                .setEmail(email)
+                .build())
+            .build();
+        
+        try {
+            User response = blocking().updateUser(request);
+            logger.info("Updated user: " + response.getId() + ": " + response.getName() + " (" + response.getEmail() + ")");
+        } catch (StatusRuntimeException e) {
+            logger.log(Level.WARNING, "RPC failed: {0}", e.getStatus());
+        }
+    }
+    
+    public void deleteUser(long id) {
+        logger.info("Deleting user with ID: " + id);
+        UserRequest request = UserRequest.newBuilder().setId(id).build();
+        
+        try {
+            blocking().deleteUser(request);
+            logger.info("User deleted successfully");
+        } catch (StatusRuntimeException e) {
+            logger.log(Level.WARNING, "RPC failed: {0}", e.getStatus());
+        }
+    }
+    
+    public void getServerStats() {
+        logger.info("Getting server stats...");
+        
+        try {
+            ServerStats stats = blocking().getServerStats(Empty.newBuilder().build());
+            logger.info("Server up for " + stats.getUptimeMillis() / 1000 + "s");
+            
+            for (MethodStats method : stats.getMethodsList()) {
+                logger.info(method.getMethod() + ": " + method.getCalls() + " calls, " + method.getInFlight()
+                    + " in flight, p50/p99/max " + method.getP50LatencyMicros() + "/" + method.getP99LatencyMicros()
+                    + "/" + method.getMaxLatencyMicros() + "us, " + method.getBytesReceived() + "B in, "
+                    + method.getBytesSent() + "B out, " + method.getStatusCountsMap());
+            }
+            
+            if (stats.hasUserCache()) {
+                CacheStats cache = stats.getUserCache();
+                logger.info("User cache: " + cache.getSize() + "/" + cache.getMaxEntries() + " entries, hit rate "
+                    + String.format("%.1f%%", cache.getHitRate() * 100) + " (" + cache.getHits() + " hits, "
+                    + cache.getMisses() + " misses, " + cache.getEvictions() + " evictions)");
+            }
+            
+            if (stats.hasLoadShedding()) {
+                LoadSheddingStats shedding = stats.getLoadShedding();
+                logger.info("Load shedding: limit " + shedding.getConcurrencyLimit() + ", " + shedding.getInFlight()
+                    + " in flight, " + shedding.getRejected() + " rejected, " + shedding.getExpired() + " expired");
+            }
+        } catch (StatusRuntimeException e) {
+            logger.log(Level.WARNING, "RPC failed: {0}", e.getStatus());
+        }
+    }
+    
+    // Issues GetUser calls without logging each one; returns how many succeeded
+    public int getUsers(int calls, long maxId) {
+        int succeeded = 0;
+        for (int i = 0; i < calls; i++) {
+            try {
+                blocking().getUser(UserRequest.newBuilder().setId(1 + i % maxId).build());
+                succeeded++;
+            } catch (StatusRuntimeException e) {
+                logger.log(Level.FINE, "RPC failed: {0}", e.getStatus());
+            }
+        }
+        return succeeded;
+    }
+    
+    // Bulk streams run as long as the data takes and carry no deadline
+    public void bulkCreateUsers(final int count) throws InterruptedException {
+        logger.info("Bulk creating " + count + " users...");
+        final CountDownLatch done = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        
+        asyncStub.bulkCreateUsers(new ClientResponseObserver<User, BulkResult>() {
+            private int sent;
+            
+            @Override
+            public void beforeStart(final ClientCallStreamObserver<User> requestStream) {
+                // Only write while the transport can take more, so the server's pace limits ours
+                requestStream.setOnReadyHandler(new Runnable() {
+                    @Override
+                    public void run() {
+                        while (requestStream.isReady() && sent < count) {
+                            requestStream.onNext(User.newBuilder()
+                                .setName("Bulk User " + sent)
+                                .setEmail("bulk" + sent + "@example.com")
+                                .build());
+                            sent++;
+                        }
+                        if (sent == count) {
+                            sent++;
+                            requestStream.onCompleted();
+                        }
+                    }
+                });
+            }
+            
+            @Override
+            public void onNext(BulkResult result) {
+                double seconds = (System.nanoTime() - start) / 1e9;
+                logger.info("Created " + result.getCount() + " users in " + result.getBatches() + " batches, "
+                    + String.format("%.0f", result.getCount() / seconds) + " users/sec");
+            }
+            
+            @Override
+            public void onError(Throwable t) {
+                logger.log(Level.WARNING, "RPC failed: {0}", Status.fromThrowable(t));
+                done.countDown();
+            }
+            
+            @Override
+            public void onCompleted() {
+                done.countDown();
+            }
+        });
+        
+        done.await();
+    }
+    
+    public void bulkUpsertUsers(final List<User> users) throws InterruptedException {
+        logger.info("Bulk upserting " + users.size() + " users...");
+        final CountDownLatch done = new CountDownLatch(1);
+        
+        asyncStub.bulkUpsertUsers(new ClientResponseObserver<User, BulkAck>() {
+            private int sent;
+            
+            @Override
+            public void beforeStart(final ClientCallStreamObserver<User> requestStream) {
+                requestStream.setOnReadyHandler(new Runnable() {
+                    @Override
+                    public void run() {
+                        while (requestStream.isReady() && sent < users.size()) {
+                            requestStream.onNext(users.get(sent++));
+                        }
+                        if (sent == users.size()) {
+                            sent++;
+                            requestStream.onCompleted();
+                        }
+                    }
+                });
+            }
+            
+            @Override
+            public void onNext(BulkAck ack) {
+                logger.info("Batch " + ack.getBatch() + " committed: " + ack.getCreated() + " created, "
+                    + ack.getUpdated() + " updated");
+            }
+            
+            @Override
+            public void onError(Throwable t) {
+                logger.log(Level.WARNING, "RPC failed: {0}", Status.fromThrowable(t));
+                done.countDown();
+            }
+            
+            @Override
+            public void onCompleted() {
+                done.countDown();
+            }
+        });
+        
+        done.await();
+    }
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("load")) {
+            // Load mode: UserClient load [--channels=N --outstanding=N --duration=S ...]
+            UserLoadDriver.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        
+        if (args.length > 1 && args[0].equals("balanced")) {
+            // Balanced mode: UserClient balanced host:port,host:port [round_robin|least_outstanding] [calls]
+            runBalanced(args[1],
+                args.length > 2 ? UserLoadBalancer.Policy.valueOf(args[2].toUpperCase()) : UserLoadBalancer.Policy.ROUND_ROBIN,
+                args.length > 3 ? Integer.parseInt(args[3]) : 1000);
+            return;
+        }
+        
+        UserClient client = new UserClient("localhost", 50051);
+        
+        try {
+            if (args.length > 0 && args[0].equals("bulk")) {
+                // Bulk import mode: UserClient bulk [count]
+                client.bulkCreateUsers(args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+                return;
+            }
+            if (args.length > 0 && args[0].equals("sync")) {
+                // Sync mode: UserClient sync [token]
+                client.syncUsers(args.length > 1 ? args[1] : "");
+                return;
+            }
+            
+            // Print all users
+            client.getAllUsers();
+            
+            // Get a specific user
+            client.getUser(1);
+            
+            // Get only the id and name of a user
+            client.getUser(1, "id", "name");
+            
+            // Get several users at once, including a duplicate and an unknown ID
+            client.batchGetUsers(Arrays.asList(1L, 2L, 2L, 99L));
+            
+            // Take a full copy, keeping the token to sync from later
+            String syncToken = client.syncUsers("");
+            
+            // Create a new user
+            client.createUser("Alice Williams", "alice@example.com");
+            
+            // Show all users after creation
+            client.getAllUsers();
+            
+            // Update a user
+            client.updateUser(2, "Jane Wilson", "jane.wilson@example.com");
+            
+            // Show the updated user
+            client.getUser(2);
+            
+            // Delete a user
+            client.deleteUser(3);
+            
+            // Show all users after deletion
+            client.getAllUsers();
+            
+            // Only the create, update and delete above come back
+            client.syncUsers(syncToken);
+            
+            // Show what the server recorded for these calls
+            client.getServerStats();
+        
+        } finally {
+            client.shutdown();
+        }
+    }
+    
+    private static void runBalanced(String addresses, UserLoadBalancer.Policy policy, int calls) throws InterruptedException {
+        UserClient client = new UserClient(addresses, policy);
+        try {
+            logger.info(client.getUsers(calls, 3) + "/" + calls + " GetUser calls succeeded via " + policy);
+        } finally {
+            client.shutdown();
+        }
+        
+        // Ask every server directly how many of those calls it served
+        for (String address : addresses.split(",")) {
+            String[] hostPort = address.trim().split(":");
+            UserClient direct = new UserClient(hostPort[0], Integer.parseInt(hostPort[1]));
+            try {
+                logger.info("Stats for " + address.trim());
+                direct.getServerStats();
+            } finally {
+                direct.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.grpcapi;
+
+import com.example.grpcapi.proto.ListUsersRequest;
+import com.example.grpcapi.proto.UpdateUserRequest;
+import com.example.grpcapi.proto.User;
+import com.example.grpcapi.proto.UserList;
+import com.example.grpcapi.proto.UserServiceGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Compares GetAllUsers latency when the serialized UserList is served from cache with the
+ * latency right after a write, when the list has to be re-read and re-encoded.
+ *
+ * Starts its own UserServer, seeds it through BulkCreateUsers and then alternates
+ * unchanged reads with update-then-read pairs (only the read is timed).
+ *
+ * Usage: UserListCacheBenchmark [users=10000] [calls=500] [port=50071]
+ */
+public class UserListCacheBenchmark {
+    private static final Logger logger = Logger.getLogger(UserListCacheBenchmark.class.getName());
+    
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 50071;
+        
+        ServerSettings settings = new ServerSettings();
+        settings.setPort(port);
+        UserServer server = new UserServer(settings);
+        server.start();
+        
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("localhost", port)
+            .usePlaintext()
+            .maxInboundMessageSize(64 * 1024 * 1024)
+            .build();
+        try {
+            UserClient seeder = new UserClient("localhost", port);
+            seeder.bulkCreateUsers(users);
+            seeder.shutdown();
+            UserServiceGrpc.UserServiceBlockingStub stub = UserServiceGrpc.newBlockingStub(channel);
+            ListUsersRequest request = ListUsersRequest.getDefaultInstance();
+            UpdateUserRequest update = UpdateUserRequest.newBuilder()
+                .setId(1)
+                .setUser(User.newBuilder().setName("Cache Buster").setEmail("buster@example.com"))
+                .build();
+            
+            StringBuilder summary = new StringBuilder("\n");
+            for (int round = 1; round <= 3; round++) {
+                long cachedNanos = 0;
+                long rebuiltNanos = 0;
+                int size = 0;
+                for (int i = 0; i < calls; i++) {
+                    long start = System.nanoTime();
+                    UserList list = stub.getAllUsers(request);
+                    cachedNanos += System.nanoTime() - start;
+                    size = list.getSerializedSize();
+                    
+                    stub.updateUser(update);
+                    start = System.nanoTime();
+                    stub.getAllUsers(request);
+                    rebuiltNanos += System.nanoTime() - start;
+                }
+                summary.append(String.format(
+                    "round %d: %d users (%d bytes): cached %8.1f us/call, after write %8.1f us/call%n",
+                    round, users, size, cachedNanos / 1000.0 / calls, rebuiltNanos / 1000.0 / calls));
+            }
+            logger.info(summary.toString());
+        } finally {
+            channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+            server.stop();
+        }
+    }
+}
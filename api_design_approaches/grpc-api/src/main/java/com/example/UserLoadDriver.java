@@ -0,0 +1,273 @@
+package com.example.grpcapi;
+
+import com.example.grpcapi.metrics.LatencyHistogram;
+import com.example.grpcapi.proto.*;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+/**
+ * Closed-loop load generator for the UserService built on the future stubs.
+ *
+ * Keeps a fixed number of RPCs outstanding, spread round-robin over several
+ * channels, and reports throughput and latency percentiles per RPC method.
+ *
+ * Usage: UserLoadDriver [--host=localhost] [--port=50051] [--channels=2]
+ *        [--outstanding=64] [--duration=30] [--warmup=5] [--writeRatio=0.1]
+ *        [--maxId=3] [--deadlineMs=0] [--local]
+ */
+public class UserLoadDriver {
+    private static final Logger logger = Logger.getLogger(UserLoadDriver.class.getName());
+    
+    private static final String GET_USER = "GetUser";
+    private static final String CREATE_USER = "CreateUser";
+    private static final String UPDATE_USER = "UpdateUser";
+    
+    private final String host;
+    private final int port;
+    private final int channelCount;
+    private final int outstanding;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final double writeRatio;
+    
+    // Reads pick ids in [1, maxId]; creates push it forward as new ids come back
+    private final AtomicLong maxId;
+    private final Map<String, MethodStats> stats = new LinkedHashMap<>();
+    private volatile boolean recording;
+    // Per-call deadline; 0 sends calls without one
+    private long deadlineMillis;
+    
+    public UserLoadDriver(String host, int port, int channelCount, int outstanding,
+                          int durationSeconds, int warmupSeconds, double writeRatio, long maxId) {
+        this.host = host;
+        this.port = port;
+        this.channelCount = channelCount;
+        this.outstanding = outstanding;
+        this.durationSeconds = durationSeconds;
+        this.warmupSeconds = warmupSeconds;
+        this.writeRatio = writeRatio;
+        this.maxId = new AtomicLong(maxId);
+        
+        stats.put(GET_USER, new MethodStats());
+        stats.put(CREATE_USER, new MethodStats());
+        stats.put(UPDATE_USER, new MethodStats());
+    }
+    
+    public void setDeadlineMillis(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+    }
+    
+    // Returns the measured throughput in calls/sec across all methods
+    public double run() throws InterruptedException {
+        List<ManagedChannel> channels = new ArrayList<>();
+        List<UserServiceGrpc.UserServiceFutureStub> stubs = new ArrayList<>();
+        for (int i = 0; i < channelCount; i++) {
+            ManagedChannel channel = ManagedChannelBuilder.forAddress(host, port)
+                .usePlaintext()
+                .build();
+            channels.add(channel);
+            stubs.add(UserServiceGrpc.newFutureStub(channel));
+        }
+        
+        logger.info("Driving " + host + ":" + port + " with " + outstanding + " outstanding RPCs over "
+            + channelCount + " channels, write ratio " + writeRatio + ", warmup " + warmupSeconds
+            + "s, duration " + durationSeconds + "s");
+        
+        final Semaphore permits = new Semaphore(outstanding);
+        long now = System.nanoTime();
+        long recordFrom = now + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long stopAt = recordFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long measuredStart = 0;
+        int next = 0;
+        
+        try {
+            while ((now = System.nanoTime()) < stopAt) {
+                if (!recording && now >= recordFrom) {
+                    recording = true;
+                    measuredStart = now;
+                }
+                permits.acquire();
+                UserServiceGrpc.UserServiceFutureStub stub = stubs.get(next++ % stubs.size());
+                issue(stub, permits);
+            }
+            
+            // Let in-flight calls finish so they are counted
+            permits.acquire(outstanding);
+            long measuredNanos = System.nanoTime() - measuredStart;
+            recording = false;
+            return report(measuredNanos);
+        } finally {
+            for (ManagedChannel channel : channels) {
+                channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+            }
+        }
+    }
+    
+    private void issue(UserServiceGrpc.UserServiceFutureStub stub, Semaphore permits) {
+        if (deadlineMillis > 0) {
+            stub = stub.withDeadlineAfter(deadlineMillis, TimeUnit.MILLISECONDS);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long id = 1 + random.nextLong(Math.max(1, maxId.get()));
+        
+        if (random.nextDouble() >= writeRatio) {
+            track(GET_USER, stub.getUser(UserRequest.newBuilder().setId(id).build()), permits);
+        } else if (random.nextBoolean()) {
+            User user = User.newBuilder()
+                .setName("Load User " + id)
+                .setEmail("load" + id + "@example.com")
+                .build();
+            track(CREATE_USER, stub.createUser(user), permits);
+        } else {
+            UpdateUserRequest request = UpdateUserRequest.newBuilder()
+                .setId(id)
+                .setUser(User.newBuilder()
+                    .setName("Updated User " + id)
+                    .setEmail("updated" + id + "@example.com")
+                    .build())
+                .build();
+            track(UPDATE_USER, stub.updateUser(request), permits);
+        }
+    }
+    
+    private <T> void track(final String method, ListenableFuture<T> future, final Semaphore permits) {
+        final MethodStats methodStats = stats.get(method);
+        final long start = System.nanoTime();
+        
+        Futures.addCallback(future, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                if (result instanceof User) {
+                    long id = ((User) result).getId();
+                    long current = maxId.get();
+                    while (id > current && !maxId.compareAndSet(current, id)) {
+                        current = maxId.get();
+                    }
+                }
+                complete(Status.Code.OK);
+            }
+            
+            @Override
+            public void onFailure(Throwable t) {
+                complete(Status.fromThrowable(t).getCode());
+            }
+            
+            private void complete(Status.Code code) {
+                if (recording) {
+                    methodStats.record(code, System.nanoTime() - start);
+                }
+                permits.release();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+    
+    private double report(long measuredNanos) {
+        double seconds = measuredNanos / 1e9;
+        long total = 0;
+        
+        StringBuilder sb = new StringBuilder("\n");
+        sb.append(String.format("%-12s %10s %10s %9s %9s %9s %9s %9s  %s%n",
+            "method", "calls", "calls/s", "p50(us)", "p90(us)", "p99(us)", "p99.9(us)", "max(us)", "status"));
+        for (Map.Entry<String, MethodStats> entry : stats.entrySet()) {
+            MethodStats methodStats = entry.getValue();
+            LatencyHistogram latency = methodStats.latency;
+            total += latency.getCount();
+            sb.append(String.format("%-12s %10d %10.0f %9d %9d %9d %9d %9d  %s%n",
+                entry.getKey(),
+                latency.getCount(),
+                latency.getCount() / seconds,
+                latency.getPercentile(50) / 1000,
+                latency.getPercentile(90) / 1000,
+                latency.getPercentile(99) / 1000,
+                latency.getPercentile(99.9) / 1000,
+                latency.getMax() / 1000,
+                methodStats.describeStatuses()));
+        }
+        sb.append(String.format("%-12s %10d %10.0f%n", "total", total, total / seconds));
+        logger.info(sb.toString());
+        return total / seconds;
+    }
+    
+    private static final class MethodStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLongArray statuses = new AtomicLongArray(Status.Code.values().length);
+        
+        void record(Status.Code code, long nanos) {
+            latency.record(nanos);
+            statuses.incrementAndGet(code.ordinal());
+        }
+        
+        String describeStatuses() {
+            StringBuilder sb = new StringBuilder();
+            for (Status.Code code : Status.Code.values()) {
+                long n = statuses.get(code.ordinal());
+                if (n > 0) {
+                    sb.append(sb.length() == 0 ? "" : " ").append(code).append('=').append(n);
+                }
+            }
+            return sb.toString();
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                String[] parts = arg.substring(2).split("=", 2);
+                options.put(parts[0], parts.length > 1 ? parts[1] : "true");
+            }
+        }
+        
+        String host = option(options, "host", "localhost");
+        int port = Integer.parseInt(option(options, "port", "50051"));
+        
+        // --local starts a server in this JVM on the port being driven
+        UserServer localServer = null;
+        if (Boolean.parseBoolean(option(options, "local", "false"))) {
+            ServerSettings settings = new ServerSettings();
+            settings.setPort(port);
+            localServer = new UserServer(settings);
+            localServer.start();
+        }
+        
+        try {
+            UserLoadDriver driver = new UserLoadDriver(
+                host,
+                port,
+                Integer.parseInt(option(options, "channels", "2")),
+                Integer.parseInt(option(options, "outstanding", "64")),
+                Integer.parseInt(option(options, "duration", "30")),
+                Integer.parseInt(option(options, "warmup", "5")),
+                Double.parseDouble(option(options, "writeRatio", "0.1")),
+                Long.parseLong(option(options, "maxId", "3"))
+            );
+            driver.setDeadlineMillis(Long.parseLong(option(options, "deadlineMs", "0")));
+            driver.run();
+        } finally {
+            if (localServer != null) {
+                localServer.stop();
+            }
+        }
+    }
+    
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+}
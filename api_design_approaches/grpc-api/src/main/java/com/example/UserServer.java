@@ -1,56 +1,206 @@
-package com.example.grpcapi;
-
-import com.example.grpcapi.service.UserServiceImpl;
-import io.grpc.Server;
-import io.grpc.ServerBuilder;
-
-import java.io.IOException;
-import java.util.concurrent.TimeUnit;
-import java.util.logging.Logger;
-
-public class UserServer {
-    private static final Logger logger = Logger.getLogger(UserServer.class.getName());
-    
-    private Server server;
-    private final int port = 50051;
-    
-    public static void main(String[] args) throws IOException, InterruptedException {
-        final UserServer server = new UserServer();
-        server.start();
-        server.blockUntilShutdown();
-    }
-    
-    private void start() throws IOException {
-        server = ServerBuilder.forPort(port)
-            .addService(new UserServiceImpl())
-            .build()
-            .start();
-        
-        logger.info("Server started, listening on port " + port);
-        
-        Runtime.getRuntime().addShutdownHook(new Thread() {
-            @Override
-            public void run() {
-                System.err.println("*** Shutting down gRPC server due to JVM shutdown");
-                try {
-                    UserServer.this.stop();
-                } catch (InterruptedException e) {
-                    e.printStackTrace(System.err);
-                }
-                System.err.println("*** Server shut down");
-            }
-        });
-    }
-    
-    private void stop() throws InterruptedException {
-        if (server != null) {
-            server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
-        }
-    }
-    
-    private void blockUntilShutdown() throws InterruptedException {
-        if (server != null) {
-            server.awaitTermination();
-        }
-    }
-}
+package com.example.grpcapi;
+
+import com.example.grpcapi.compression.CompressionPolicyInterceptor;
+import com.example.grpcapi.compression.GzipLevelCompressor;
+import com.example.grpcapi.limit.AdaptiveConcurrencyLimiter;
+import com.example.grpcapi.limit.LoadSheddingInterceptor;
+import com.example.grpcapi.metrics.MetricsInterceptor;
+import com.example.grpcapi.metrics.ServerMetrics;
+import com.example.grpcapi.service.UserServiceImpl;
+import io.grpc.Codec;
+import io.grpc.CompressorRegistry;
+import io.grpc.Server;
+import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+public class UserServer {
+    private static final Logger logger = Logger.getLogger(UserServer.class.getName());
+    
+    private static final int MIN_CONCURRENCY_LIMIT = 4;
+    // Latency above twice the unloaded latency plus this much counts as queueing
+    private static final long LATENCY_SLACK_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+    // How often tombstones past their retention are purged
+    private static final long TOMBSTONE_PURGE_INTERVAL_MINUTES = 10;
+    
+    private Server server;
+    private final ServerSettings settings;
+    private ExecutorService executor;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private ScheduledExecutorService maintenance;
+    // Registered while the server runs; benchmarks start and stop many servers in one JVM
+    private Thread shutdownHook;
+    
+    public UserServer() {
+        this(new ServerSettings());
+    }
+    
+    public UserServer(ServerSettings settings) {
+        this.settings = settings;
+    }
+    
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final UserServer server = new UserServer(ServerSettings.fromArgs(args));
+        server.start();
+        server.blockUntilShutdown();
+    }
+    
+    void start() throws IOException {
+        ServerMetrics metrics = new ServerMetrics();
+        final UserServiceImpl userService = new UserServiceImpl(metrics);
+        ServerServiceDefinition service = userService.bindPreSerializedService();
+        if (settings.isCompression()) {
+            service = ServerInterceptors.intercept(service,
+                new CompressionPolicyInterceptor("gzip", settings.getCompressionThreshold()));
+        }
+        if (settings.isLoadShedding()) {
+            LoadSheddingInterceptor loadShedding = new LoadSheddingInterceptor(new AdaptiveConcurrencyLimiter(
+                settings.getInitialLimit(), MIN_CONCURRENCY_LIMIT, settings.getMaxLimit(), LATENCY_SLACK_NANOS));
+            userService.setLoadShedding(loadShedding);
+            service = ServerInterceptors.intercept(service, loadShedding);
+        }
+        // Added last so it runs first and also counts calls that were shed
+        NettyServerBuilder builder = NettyServerBuilder.forAddress(new InetSocketAddress(settings.getPort()))
+            .addService(ServerInterceptors.intercept(service, new MetricsInterceptor(metrics)))
+            .compressorRegistry(compressorRegistry());
+        
+        executor = createExecutor();
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        
+        // Netty needs the boss group, worker group and channel type to be replaced together
+        if (settings.getBossThreads() > 0 || settings.getWorkerThreads() > 0) {
+            bossGroup = new NioEventLoopGroup(Math.max(1, settings.getBossThreads()),
+                new DefaultThreadFactory("grpc-boss", true));
+            workerGroup = new NioEventLoopGroup(settings.getWorkerThreads(),
+                new DefaultThreadFactory("grpc-worker", true));
+            builder.bossEventLoopGroup(bossGroup)
+                .workerEventLoopGroup(workerGroup)
+                .channelType(NioServerSocketChannel.class);
+        }
+        
+        server = builder.build().start();
+        
+        maintenance = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("grpc-maintenance", true));
+        maintenance.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int purged = userService.purgeTombstones();
+                    if (purged > 0) {
+                        logger.info("Purged " + purged + " tombstones");
+                    }
+                } catch (RuntimeException e) {
+                    // Keep the schedule; the next run tries again
+                    logger.warning("Tombstone purge failed: " + e.getMessage());
+                }
+            }
+        }, TOMBSTONE_PURGE_INTERVAL_MINUTES, TOMBSTONE_PURGE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        
+        logger.info("Server started, listening on port " + settings.getPort() + " (" + settings + ")");
+        
+        shutdownHook = new Thread() {
+            @Override
+            public void run() {
+                System.err.println("*** Shutting down gRPC server due to JVM shutdown");
+                try {
+                    UserServer.this.stop();
+                } catch (InterruptedException e) {
+                    e.printStackTrace(System.err);
+                }
+                System.err.println("*** Server shut down");
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+    
+    // gzip at the configured level in place of the built-in default-level gzip
+    private CompressorRegistry compressorRegistry() {
+        CompressorRegistry registry = CompressorRegistry.newEmptyInstance();
+        registry.register(Codec.Identity.NONE);
+        registry.register(new GzipLevelCompressor(settings.getGzipLevel()));
+        return registry;
+    }
+    
+    private ExecutorService createExecutor() {
+        switch (settings.getExecutorMode()) {
+            case BOUNDED:
+                // Bounds the queue instead of letting it grow. A rejection is not reliably turned
+                // into a status: when it hits a later callback of a call in progress (a message or
+                // the half-close), it is thrown in the transport's serializing executor and the
+                // call can hang until its deadline. Size the queue for the load and give calls
+                // deadlines.
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                    settings.getPoolSize(), settings.getPoolSize(),
+                    60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(settings.getQueueCapacity()),
+                    new DefaultThreadFactory("grpc-app", true),
+                    new ThreadPoolExecutor.AbortPolicy());
+                pool.prestartAllCoreThreads();
+                return pool;
+            case VIRTUAL:
+                // Looked up reflectively so the module still builds for Java 8
+                try {
+                    return (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Virtual thread executor requires Java 21 or newer, running on "
+                        + System.getProperty("java.version"), e);
+                }
+            default:
+                return null;
+        }
+    }
+    
+    synchronized void stop() throws InterruptedException {
+        if (shutdownHook != null && Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // The JVM is already shutting down and runs the hook itself
+            }
+        }
+        shutdownHook = null;
+        if (server != null) {
+            server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
+            server = null;
+        }
+        if (maintenance != null) {
+            maintenance.shutdownNow();
+            maintenance = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+            bossGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+            workerGroup = null;
+            bossGroup = null;
+        }
+    }
+    
+    private void blockUntilShutdown() throws InterruptedException {
+        if (server != null) {
+            server.awaitTermination();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.grpcapi.balancer;
+
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.NameResolver;
+import io.grpc.NameResolverProvider;
+import io.grpc.Status;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Resolves "static:///host1:port1,host2:port2" targets to a fixed list of addresses,
+ * one address group per server, so a load balancer can spread calls over them.
+ */
+public class StaticNameResolverProvider extends NameResolverProvider {
+    
+    public static final String SCHEME = "static";
+    
+    public static String target(String addresses) {
+        return SCHEME + ":///" + addresses;
+    }
+    
+    @Override
+    public NameResolver newNameResolver(URI targetUri, NameResolver.Args args) {
+        if (!SCHEME.equals(targetUri.getScheme())) {
+            return null;
+        }
+        final String addresses = targetUri.getPath().startsWith("/")
+            ? targetUri.getPath().substring(1)
+            : targetUri.getPath();
+        
+        return new NameResolver() {
+            @Override
+            public String getServiceAuthority() {
+                return "localhost";
+            }
+            
+            @Override
+            public void start(Listener2 listener) {
+                List<EquivalentAddressGroup> groups = new ArrayList<>();
+                try {
+                    for (String address : addresses.split(",")) {
+                        groups.add(new EquivalentAddressGroup(Collections.<SocketAddress>singletonList(parse(address))));
+                    }
+                } catch (IllegalArgumentException e) {
+                    listener.onError(Status.INVALID_ARGUMENT
+                        .withDescription("Bad static target " + addresses + ": " + e.getMessage()));
+                    return;
+                }
+                listener.onResult(ResolutionResult.newBuilder().setAddresses(groups).build());
+            }
+            
+            @Override
+            public void shutdown() {
+            }
+        };
+    }
+    
+    private static InetSocketAddress parse(String address) {
+        String trimmed = address.trim();
+        int colon = trimmed.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("expected host:port, got '" + trimmed + "'");
+        }
+        return new InetSocketAddress(trimmed.substring(0, colon), Integer.parseInt(trimmed.substring(colon + 1)));
+    }
+    
+    @Override
+    public String getDefaultScheme() {
+        return SCHEME;
+    }
+    
+    @Override
+    protected boolean isAvailable() {
+        return true;
+    }
+    
+    @Override
+    protected int priority() {
+        return 5;
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.grpcapi.balancer;
+
+import io.grpc.ClientStreamTracer;
+import io.grpc.ConnectivityState;
+import io.grpc.ConnectivityStateInfo;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.LoadBalancer;
+import io.grpc.Metadata;
+import io.grpc.Status;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Spreads calls over one subchannel per resolved address, either round-robin or to the
+ * server with the fewest calls outstanding from this channel.
+ *
+ * Servers that fail several calls in a row are ejected: they keep their connection but
+ * get no calls until the ejection expires, for a time that doubles on each repeat
+ * ejection. If every ready server is ejected, calls go to them anyway rather than fail.
+ */
+public class UserLoadBalancer extends LoadBalancer {
+    private static final Logger logger = Logger.getLogger(UserLoadBalancer.class.getName());
+    
+    public enum Policy {
+        ROUND_ROBIN("user_round_robin"),
+        LEAST_OUTSTANDING("user_least_outstanding");
+        
+        private final String policyName;
+        
+        Policy(String policyName) {
+            this.policyName = policyName;
+        }
+        
+        public String getPolicyName() {
+            return policyName;
+        }
+    }
+    
+    // Consecutive failed calls that eject a server
+    private static final int EJECTION_FAILURES = 5;
+    private static final long BASE_EJECTION_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long MAX_EJECTION_NANOS = TimeUnit.MINUTES.toNanos(5);
+    
+    private final Helper helper;
+    private final Policy policy;
+    // Only touched from the channel's synchronization context
+    private final Map<EquivalentAddressGroup, Backend> backends = new LinkedHashMap<>();
+    private Status lastError = Status.UNAVAILABLE.withDescription("No servers resolved");
+    
+    UserLoadBalancer(Helper helper, Policy policy) {
+        this.helper = helper;
+        this.policy = policy;
+    }
+    
+    @Override
+    public void handleResolvedAddresses(ResolvedAddresses resolvedAddresses) {
+        Set<EquivalentAddressGroup> latest = new HashSet<>();
+        for (EquivalentAddressGroup group : resolvedAddresses.getAddresses()) {
+            // Attributes do not identify a server; compare addresses only
+            EquivalentAddressGroup key = new EquivalentAddressGroup(group.getAddresses());
+            latest.add(key);
+            if (backends.containsKey(key)) {
+                continue;
+            }
+            final Subchannel subchannel = helper.createSubchannel(CreateSubchannelArgs.newBuilder()
+                .setAddresses(key)
+                .build());
+            final Backend backend = new Backend(key, subchannel);
+            backends.put(key, backend);
+            subchannel.start(new SubchannelStateListener() {
+                @Override
+                public void onSubchannelState(ConnectivityStateInfo stateInfo) {
+                    processStateChange(backend, stateInfo);
+                }
+            });
+            subchannel.requestConnection();
+        }
+        
+        Iterator<Map.Entry<EquivalentAddressGroup, Backend>> it = backends.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<EquivalentAddressGroup, Backend> entry = it.next();
+            if (!latest.contains(entry.getKey())) {
+                entry.getValue().subchannel.shutdown();
+                it.remove();
+            }
+        }
+        updateBalancingState();
+    }
+    
+    @Override
+    public void handleNameResolutionError(Status error) {
+        lastError = error;
+        if (backends.isEmpty()) {
+            helper.updateBalancingState(ConnectivityState.TRANSIENT_FAILURE, new ErrorPicker(error));
+        }
+    }
+    
+    private void processStateChange(Backend backend, ConnectivityStateInfo stateInfo) {
+        if (backends.get(backend.key) != backend) {
+            return;
+        }
+        if (stateInfo.getState() == ConnectivityState.IDLE) {
+            // Keep every server connected so each stays a candidate
+            backend.subchannel.requestConnection();
+        }
+        if (stateInfo.getState() == ConnectivityState.TRANSIENT_FAILURE) {
+            lastError = stateInfo.getStatus();
+        }
+        backend.state = stateInfo.getState();
+        updateBalancingState();
+    }
+    
+    private void updateBalancingState() {
+        List<Backend> ready = new ArrayList<>();
+        boolean connecting = false;
+        for (Backend backend : backends.values()) {
+            if (backend.state == ConnectivityState.READY) {
+                ready.add(backend);
+            } else if (backend.state == ConnectivityState.CONNECTING || backend.state == ConnectivityState.IDLE) {
+                connecting = true;
+            }
+        }
+        
+        if (!ready.isEmpty()) {
+            helper.updateBalancingState(ConnectivityState.READY, new Picker(ready, policy));
+        } else if (connecting) {
+            helper.updateBalancingState(ConnectivityState.CONNECTING, new ErrorPicker(null));
+        } else {
+            helper.updateBalancingState(ConnectivityState.TRANSIENT_FAILURE, new ErrorPicker(lastError));
+        }
+    }
+    
+    @Override
+    public void shutdown() {
+        for (Backend backend : backends.values()) {
+            backend.subchannel.shutdown();
+        }
+        backends.clear();
+    }
+    
+    private static boolean isServerFailure(Status.Code code) {
+        switch (code) {
+            case UNAVAILABLE:
+            case INTERNAL:
+            case UNKNOWN:
+            case DATA_LOSS:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    private static final class Backend {
+        private final EquivalentAddressGroup key;
+        private final Subchannel subchannel;
+        private final String address;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private final AtomicInteger ejections = new AtomicInteger();
+        private volatile long ejectedUntilNanos;
+        private volatile boolean ejected;
+        private ConnectivityState state = ConnectivityState.IDLE;
+        
+        // Outstanding counts streams the transport actually started, so abandoned picks never leak
+        private final ClientStreamTracer.Factory tracerFactory = new ClientStreamTracer.Factory() {
+            @Override
+            public ClientStreamTracer newClientStreamTracer(ClientStreamTracer.StreamInfo info, Metadata headers) {
+                outstanding.incrementAndGet();
+                return new ClientStreamTracer() {
+                    @Override
+                    public void streamClosed(Status status) {
+                        outstanding.decrementAndGet();
+                        callFinished(status.getCode());
+                    }
+                };
+            }
+        };
+        
+        Backend(EquivalentAddressGroup key, Subchannel subchannel) {
+            this.key = key;
+            this.subchannel = subchannel;
+            this.address = key.getAddresses().get(0).toString();
+        }
+        
+        boolean isEjected(long now) {
+            if (!ejected) {
+                return false;
+            }
+            if (now - ejectedUntilNanos < 0) {
+                return true;
+            }
+            ejected = false;
+            logger.info("Returning " + address + " to rotation");
+            return false;
+        }
+        
+        void callFinished(Status.Code code) {
+            if (!isServerFailure(code)) {
+                if (consecutiveFailures.get() != 0) {
+                    consecutiveFailures.set(0);
+                }
+                if (ejections.get() != 0 && !ejected) {
+                    ejections.set(0);
+                }
+                return;
+            }
+            if (consecutiveFailures.incrementAndGet() >= EJECTION_FAILURES && !ejected) {
+                consecutiveFailures.set(0);
+                int count = ejections.incrementAndGet();
+                long nanos = Math.min(MAX_EJECTION_NANOS, BASE_EJECTION_NANOS << Math.min(count - 1, 16));
+                ejectedUntilNanos = System.nanoTime() + nanos;
+                ejected = true;
+                logger.warning("Ejecting " + address + " for " + TimeUnit.NANOSECONDS.toSeconds(nanos) + "s after "
+                    + EJECTION_FAILURES + " consecutive failures (last " + code + ")");
+            }
+        }
+    }
+    
+    private static final class Picker extends SubchannelPicker {
+        private final Backend[] backends;
+        private final Policy policy;
+        private final AtomicInteger next;
+        
+        Picker(List<Backend> backends, Policy policy) {
+            this.backends = backends.toArray(new Backend[0]);
+            this.policy = policy;
+            // Start each new picker at a random backend so state changes do not favor the first one
+            this.next = new AtomicInteger(ThreadLocalRandom.current().nextInt(this.backends.length));
+        }
+        
+        @Override
+        public PickResult pickSubchannel(PickSubchannelArgs args) {
+            long now = System.nanoTime();
+            Backend chosen = choose(now, true);
+            if (chosen == null) {
+                chosen = choose(now, false);
+            }
+            return PickResult.withSubchannel(chosen.subchannel, chosen.tracerFactory);
+        }
+        
+        private Backend choose(long now, boolean skipEjected) {
+            int start = next.getAndIncrement() & Integer.MAX_VALUE;
+            Backend best = null;
+            for (int i = 0; i < backends.length; i++) {
+                Backend candidate = backends[(start + i) % backends.length];
+                if (skipEjected && candidate.isEjected(now)) {
+                    continue;
+                }
+                if (policy == Policy.ROUND_ROBIN) {
+                    return candidate;
+                }
+                // Scanning from a rotating start spreads ties evenly
+                if (best == null || candidate.outstanding.get() < best.outstanding.get()) {
+                    best = candidate;
+                }
+            }
+            return best;
+        }
+    }
+    
+    private static final class ErrorPicker extends SubchannelPicker {
+        // Null while connecting: calls wait for the next picker instead of failing
+        private final Status error;
+        
+        ErrorPicker(Status error) {
+            this.error = error;
+        }
+        
+        @Override
+        public PickResult pickSubchannel(PickSubchannelArgs args) {
+            return error == null ? PickResult.withNoResult() : PickResult.withError(error);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.grpcapi.balancer;
+
+import io.grpc.LoadBalancer;
+import io.grpc.LoadBalancerProvider;
+import io.grpc.LoadBalancerRegistry;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.NameResolverRegistry;
+
+/**
+ * Registers {@link UserLoadBalancer} under one policy name per {@link UserLoadBalancer.Policy}.
+ */
+public class UserLoadBalancerProvider extends LoadBalancerProvider {
+    
+    static {
+        NameResolverRegistry.getDefaultRegistry().register(new StaticNameResolverProvider());
+        for (UserLoadBalancer.Policy policy : UserLoadBalancer.Policy.values()) {
+            LoadBalancerRegistry.getDefaultRegistry().register(new UserLoadBalancerProvider(policy));
+        }
+    }
+    
+    private final UserLoadBalancer.Policy policy;
+    
+    private UserLoadBalancerProvider(UserLoadBalancer.Policy policy) {
+        this.policy = policy;
+    }
+    
+    // Channel over a comma-separated "host:port" list, balanced with the given policy
+    public static ManagedChannel newChannel(String addresses, UserLoadBalancer.Policy policy) {
+        return ManagedChannelBuilder.forTarget(StaticNameResolverProvider.target(addresses))
+            .defaultLoadBalancingPolicy(policy.getPolicyName())
+            .usePlaintext()
+            .build();
+    }
+    
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+    
+    @Override
+    public int getPriority() {
+        return 5;
+    }
+    
+    @Override
+    public String getPolicyName() {
+        return policy.getPolicyName();
+    }
+    
+    @Override
+    public LoadBalancer newLoadBalancer(LoadBalancer.Helper helper) {
+        return new UserLoadBalancer(helper, policy);
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.grpcapi.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache keyed by primitive long ids.
+ *
+ * Entries live in open-addressing (linear probing) tables split over a fixed number
+ * of segments, each guarded by its own monitor, so neither lookups nor hits box the
+ * key or allocate. When a segment is full, a CLOCK hand evicts the first entry that
+ * has not been read since the hand last passed it.
+ *
+ * Values only come from loads. Loaders that read from the database use
+ * {@link #stamp(long)} before the read and {@link #putIfUnchanged(long, Object, long)}
+ * afterwards, and writers call {@link #invalidate(long)} once their write is committed,
+ * so a value loaded before a concurrent write can never outlive that write.
+ */
+public class LongKeyedCache<V> {
+    
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final int maxEntries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    
+    public LongKeyedCache(int maxEntries) {
+        if (maxEntries < SEGMENTS) {
+            throw new IllegalArgumentException("maxEntries must be at least " + SEGMENTS + ": " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        int perSegment = (maxEntries + SEGMENTS - 1) / SEGMENTS;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment, evictions);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int hash = hash(key);
+        Object value = segmentFor(hash).get(key, hash);
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return (V) value;
+    }
+    
+    // Write stamp to pass to putIfUnchanged when loading a missing entry
+    public long stamp(long key) {
+        return segmentFor(hash(key)).writeStamp;
+    }
+    
+    // Store a loaded value unless the segment has been written to since the stamp was taken
+    public boolean putIfUnchanged(long key, V value, long stamp) {
+        int hash = hash(key);
+        return segmentFor(hash).put(key, hash, value, stamp);
+    }
+    
+    // Drop the entry after a write; supersedes any load that is still in progress
+    public void invalidate(long key) {
+        int hash = hash(key);
+        segmentFor(hash).remove(key, hash);
+    }
+    
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+    
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+    
+    public long getHits() {
+        return hits.sum();
+    }
+    
+    public long getMisses() {
+        return misses.sum();
+    }
+    
+    public long getEvictions() {
+        return evictions.sum();
+    }
+    
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+    
+    private Segment segmentFor(int hash) {
+        return segments[hash >>> (32 - SEGMENT_BITS)];
+    }
+    
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+    
+    private static final class Segment {
+        private final long[] keys;
+        private final Object[] values;
+        private final boolean[] referenced;
+        private final int mask;
+        private final int maxEntries;
+        private final LongAdder evictions;
+        private int size;
+        private int hand;
+        // Bumped by every remove, so loads that started before it are not stored
+        private volatile long writeStamp;
+        
+        Segment(int maxEntries, LongAdder evictions) {
+            // Keep the load factor at or below one half so probe sequences stay short
+            int capacity = Integer.highestOneBit(Math.max(2, maxEntries * 2 - 1)) << 1;
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+            this.referenced = new boolean[capacity];
+            this.mask = capacity - 1;
+            this.maxEntries = maxEntries;
+            this.evictions = evictions;
+        }
+        
+        synchronized Object get(long key, int hash) {
+            int i = indexOf(key, hash);
+            if (i < 0) {
+                return null;
+            }
+            referenced[i] = true;
+            return values[i];
+        }
+        
+        synchronized boolean put(long key, int hash, Object value, long expectedStamp) {
+            if (writeStamp != expectedStamp) {
+                return false;
+            }
+            
+            int i = indexOf(key, hash);
+            if (i >= 0) {
+                values[i] = value;
+                referenced[i] = true;
+                return true;
+            }
+            
+            if (size >= maxEntries) {
+                evictOne();
+            }
+            i = hash & mask;
+            while (values[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            referenced[i] = false;
+            size++;
+            return true;
+        }
+        
+        synchronized void remove(long key, int hash) {
+            writeStamp++;
+            int i = indexOf(key, hash);
+            if (i >= 0) {
+                deleteAt(i);
+            }
+        }
+        
+        synchronized int size() {
+            return size;
+        }
+        
+        private int indexOf(long key, int hash) {
+            int i = hash & mask;
+            while (values[i] != null) {
+                if (keys[i] == key) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+        
+        // CLOCK: clear reference bits until an unreferenced entry comes under the hand
+        private void evictOne() {
+            while (true) {
+                if (values[hand] != null) {
+                    if (referenced[hand]) {
+                        referenced[hand] = false;
+                    } else {
+                        deleteAt(hand);
+                        evictions.increment();
+                        return;
+                    }
+                }
+                hand = (hand + 1) & mask;
+            }
+        }
+        
+        // Backward-shift deletion keeps every remaining entry reachable from its home slot
+        private void deleteAt(int hole) {
+            values[hole] = null;
+            size--;
+            int j = hole;
+            while (true) {
+                j = (j + 1) & mask;
+                if (values[j] == null) {
+                    return;
+                }
+                int home = hash(keys[j]) & mask;
+                if (((j - home) & mask) >= ((j - hole) & mask)) {
+                    keys[hole] = keys[j];
+                    values[hole] = values[j];
+                    referenced[hole] = referenced[j];
+                    values[j] = null;
+                    hole = j;
+                }
+            }
+        }
+    }
+}
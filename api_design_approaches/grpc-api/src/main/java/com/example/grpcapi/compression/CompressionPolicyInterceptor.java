@@ -0,0 +1,104 @@
+package com.example.grpcapi.compression;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+/**
+ * Compresses responses of at least {@code minBytes}, and only for clients that list the
+ * encoding in grpc-accept-encoding. Small responses (single users, acks, errors) go out
+ * uncompressed, since gzip costs more CPU there than it saves bytes.
+ *
+ * The encoding is fixed in the response headers, so the headers are held back until the
+ * first message shows how large the response is. Later messages on a stream are
+ * compressed individually when they are large enough and the stream was set up with the
+ * encoding.
+ */
+public class CompressionPolicyInterceptor implements ServerInterceptor {
+    
+    private static final Metadata.Key<String> ACCEPT_ENCODING =
+        Metadata.Key.of("grpc-accept-encoding", Metadata.ASCII_STRING_MARSHALLER);
+    
+    private final String encoding;
+    private final int minBytes;
+    
+    public CompressionPolicyInterceptor(String encoding, int minBytes) {
+        this.encoding = encoding;
+        this.minBytes = minBytes;
+    }
+    
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                 Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        if (!accepts(headers.get(ACCEPT_ENCODING))) {
+            return next.startCall(call, headers);
+        }
+        return next.startCall(new PolicyCall<>(call), headers);
+    }
+    
+    private boolean accepts(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String accepted : acceptEncoding.split(",")) {
+            if (accepted.trim().equals(encoding)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static int sizeOf(Object message) {
+        if (message instanceof MessageLite) {
+            return ((MessageLite) message).getSerializedSize();
+        }
+        // Pre-serialized responses
+        return message instanceof byte[] ? ((byte[]) message).length : 0;
+    }
+    
+    private final class PolicyCall<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        
+        private Metadata pendingHeaders;
+        
+        PolicyCall(ServerCall<ReqT, RespT> delegate) {
+            super(delegate);
+        }
+        
+        @Override
+        public void sendHeaders(Metadata headers) {
+            pendingHeaders = headers;
+        }
+        
+        @Override
+        public void sendMessage(RespT message) {
+            boolean compress = sizeOf(message) >= minBytes;
+            if (pendingHeaders != null) {
+                if (compress) {
+                    super.setCompression(encoding);
+                }
+                flushHeaders();
+            }
+            super.setMessageCompression(compress);
+            super.sendMessage(message);
+        }
+        
+        @Override
+        public void close(Status status, Metadata trailers) {
+            flushHeaders();
+            super.close(status, trailers);
+        }
+        
+        private void flushHeaders() {
+            if (pendingHeaders != null) {
+                Metadata headers = pendingHeaders;
+                pendingHeaders = null;
+                super.sendHeaders(headers);
+            }
+        }
+    }
+}
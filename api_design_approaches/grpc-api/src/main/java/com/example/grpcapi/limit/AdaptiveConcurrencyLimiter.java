@@ -0,0 +1,105 @@
+package com.example.grpcapi.limit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * AIMD concurrency limit driven by call latency.
+ *
+ * Completed calls are judged in windows of about {@code limit} calls, roughly one round
+ * trip's worth, so single slow calls (a GC pause, a descheduled thread) do not count as
+ * overload. A window whose mean latency is well above the baseline, the lowest window
+ * mean seen recently, or that contains a call dropped because its deadline passed
+ * shrinks the limit multiplicatively; a window that finished in time while the limit was
+ * actually in use grows it by one. Calls beyond the limit are rejected up front instead of
+ * queueing behind work the server cannot finish in time.
+ */
+public class AdaptiveConcurrencyLimiter {
+    
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double LATENCY_TOLERANCE = 2.0;
+    private static final int MIN_WINDOW = 10;
+    // Share of a higher window mean folded into the baseline, so it can follow a slower
+    // database without sustained queueing quickly becoming the new normal
+    private static final double BASELINE_DRIFT = 0.01;
+    
+    private final int minLimit;
+    private final int maxLimit;
+    // Absolute slack on top of the tolerance so jitter on sub-millisecond calls is not overload
+    private final long latencySlackNanos;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    
+    private volatile double limit;
+    private double baselineNanos;
+    private long windowLatencyNanos;
+    private int windowSamples;
+    private int windowMaxInFlight;
+    private boolean windowDropped;
+    
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long latencySlackNanos) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencySlackNanos = latencySlackNanos;
+    }
+    
+    public boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+    
+    // Called once for every acquired permit; dropped means the call missed its deadline or was cancelled
+    public void release(long latencyNanos, boolean dropped) {
+        int inFlightBefore = inFlight.getAndDecrement();
+        onSample(latencyNanos, dropped, inFlightBefore);
+    }
+    
+    private synchronized void onSample(long latencyNanos, boolean dropped, int inFlightBefore) {
+        windowLatencyNanos += latencyNanos;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlightBefore);
+        windowDropped |= dropped;
+        double current = limit;
+        if (++windowSamples < Math.max(MIN_WINDOW, current)) {
+            return;
+        }
+        
+        double mean = (double) windowLatencyNanos / windowSamples;
+        if (!windowDropped) {
+            baselineNanos = baselineNanos == 0 || mean < baselineNanos
+                ? mean
+                : baselineNanos + (mean - baselineNanos) * BASELINE_DRIFT;
+        }
+        
+        if (windowDropped || mean > baselineNanos * LATENCY_TOLERANCE + latencySlackNanos) {
+            limit = Math.max(minLimit, current * BACKOFF_RATIO);
+        } else if (windowMaxInFlight * 2 >= current) {
+            limit = Math.min(maxLimit, current + 1);
+        }
+        
+        windowLatencyNanos = 0;
+        windowSamples = 0;
+        windowMaxInFlight = 0;
+        windowDropped = false;
+    }
+    
+    public int getLimit() {
+        return (int) limit;
+    }
+    
+    public int getInFlight() {
+        return inFlight.get();
+    }
+    
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.grpcapi.limit;
+
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sheds work the server should not do.
+ *
+ * Calls whose deadline has already passed when they reach the application executor, or
+ * by the time the request has arrived, are closed with DEADLINE_EXCEEDED without
+ * invoking the service. Unary calls also need a permit from the
+ * {@link AdaptiveConcurrencyLimiter}; without one they fail fast with RESOURCE_EXHAUSTED.
+ * Streaming calls are long-lived and are not limited.
+ */
+public class LoadSheddingInterceptor implements ServerInterceptor {
+    
+    private static final ServerCall.Listener<Object> NOOP_LISTENER = new ServerCall.Listener<Object>() {
+    };
+    
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final LongAdder expired = new LongAdder();
+    
+    public LoadSheddingInterceptor(AdaptiveConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+    
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                 Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        if (isExpired()) {
+            expired.increment();
+            call.close(Status.DEADLINE_EXCEEDED.withDescription("Deadline expired before processing"), new Metadata());
+            return noopListener();
+        }
+        
+        if (call.getMethodDescriptor().getType() != MethodDescriptor.MethodType.UNARY) {
+            return next.startCall(call, headers);
+        }
+        
+        if (!limiter.tryAcquire()) {
+            call.close(Status.RESOURCE_EXHAUSTED.withDescription("Server is at its concurrency limit"), new Metadata());
+            return noopListener();
+        }
+        
+        final PermitCall<ReqT, RespT> permitCall = new PermitCall<>(call, limiter);
+        ServerCall.Listener<ReqT> delegate;
+        try {
+            delegate = next.startCall(permitCall, headers);
+        } catch (RuntimeException e) {
+            permitCall.release(true);
+            throw e;
+        }
+        
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(delegate) {
+            @Override
+            public void onHalfClose() {
+                // Unary handlers run here; skip them if the client has given up meanwhile
+                if (isExpired()) {
+                    expired.increment();
+                    permitCall.close(Status.DEADLINE_EXCEEDED.withDescription("Deadline expired before processing"),
+                        new Metadata());
+                    return;
+                }
+                super.onHalfClose();
+            }
+            
+            @Override
+            public void onCancel() {
+                permitCall.release(true);
+                super.onCancel();
+            }
+        };
+    }
+    
+    public AdaptiveConcurrencyLimiter getLimiter() {
+        return limiter;
+    }
+    
+    public long getExpired() {
+        return expired.sum();
+    }
+    
+    private static boolean isExpired() {
+        Deadline deadline = Context.current().getDeadline();
+        return deadline != null && deadline.isExpired();
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <ReqT> ServerCall.Listener<ReqT> noopListener() {
+        return (ServerCall.Listener<ReqT>) NOOP_LISTENER;
+    }
+    
+    private static final class PermitCall<ReqT, RespT>
+            extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        
+        private static final AtomicIntegerFieldUpdater<PermitCall> RELEASED =
+            AtomicIntegerFieldUpdater.newUpdater(PermitCall.class, "released");
+        
+        private final AdaptiveConcurrencyLimiter limiter;
+        private final long startNanos = System.nanoTime();
+        private volatile int released;
+        
+        PermitCall(ServerCall<ReqT, RespT> delegate, AdaptiveConcurrencyLimiter limiter) {
+            super(delegate);
+            this.limiter = limiter;
+        }
+        
+        @Override
+        public void close(Status status, Metadata trailers) {
+            release(status.getCode() == Status.Code.DEADLINE_EXCEEDED || status.getCode() == Status.Code.CANCELLED);
+            super.close(status, trailers);
+        }
+        
+        void release(boolean dropped) {
+            if (RELEASED.compareAndSet(this, 0, 1)) {
+                limiter.release(System.nanoTime() - startNanos, dropped);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.example.grpcapi.metrics;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Records call counts, in-flight calls, status codes, message sizes and latency for
+ * every call into {@link ServerMetrics}.
+ *
+ * A call ends either when the service closes it or when the client cancels it;
+ * whichever happens first is recorded, so in-flight counts never drift.
+ */
+public class MetricsInterceptor implements ServerInterceptor {
+    
+    private final ServerMetrics metrics;
+    
+    public MetricsInterceptor(ServerMetrics metrics) {
+        this.metrics = metrics;
+    }
+    
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+                                                                 Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        ServerMetrics.MethodMetrics methodMetrics = metrics.forMethod(call.getMethodDescriptor().getFullMethodName());
+        final RecordingCall<ReqT, RespT> recordingCall = new RecordingCall<>(call, methodMetrics);
+        
+        return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(
+                next.startCall(recordingCall, headers)) {
+            @Override
+            public void onMessage(ReqT message) {
+                recordingCall.methodMetrics.messageReceived(sizeOf(message));
+                super.onMessage(message);
+            }
+            
+            @Override
+            public void onCancel() {
+                recordingCall.finish(Status.Code.CANCELLED);
+                super.onCancel();
+            }
+        };
+    }
+    
+    private static int sizeOf(Object message) {
+        // Protobuf memoizes the size, and the marshaller needs it anyway
+        if (message instanceof MessageLite) {
+            return ((MessageLite) message).getSerializedSize();
+        }
+        // Pre-serialized responses
+        return message instanceof byte[] ? ((byte[]) message).length : 0;
+    }
+    
+    private static final class RecordingCall<ReqT, RespT>
+            extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+        
+        private static final AtomicIntegerFieldUpdater<RecordingCall> FINISHED =
+            AtomicIntegerFieldUpdater.newUpdater(RecordingCall.class, "finished");
+        
+        private final ServerMetrics.MethodMetrics methodMetrics;
+        private final long startNanos = System.nanoTime();
+        private volatile int finished;
+        
+        RecordingCall(ServerCall<ReqT, RespT> delegate, ServerMetrics.MethodMetrics methodMetrics) {
+            super(delegate);
+            this.methodMetrics = methodMetrics;
+            methodMetrics.callStarted();
+        }
+        
+        @Override
+        public void sendMessage(RespT message) {
+            methodMetrics.messageSent(sizeOf(message));
+            super.sendMessage(message);
+        }
+        
+        @Override
+        public void close(Status status, Metadata trailers) {
+            finish(status.getCode());
+            super.close(status, trailers);
+        }
+        
+        void finish(Status.Code code) {
+            if (FINISHED.compareAndSet(this, 0, 1)) {
+                methodMetrics.callFinished(code, System.nanoTime() - startNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.grpcapi.metrics;
+
+import io.grpc.Status;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-method call metrics for the gRPC server, filled in by {@link MetricsInterceptor}.
+ */
+public class ServerMetrics {
+    
+    private final long startMillis = System.currentTimeMillis();
+    private final ConcurrentMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+    
+    public MethodMetrics forMethod(String fullMethodName) {
+        MethodMetrics metrics = methods.get(fullMethodName);
+        if (metrics == null) {
+            metrics = methods.computeIfAbsent(fullMethodName, name -> new MethodMetrics());
+        }
+        return metrics;
+    }
+    
+    public Map<String, MethodMetrics> getMethods() {
+        return methods;
+    }
+    
+    public long getUptimeMillis() {
+        return System.currentTimeMillis() - startMillis;
+    }
+    
+    public static class MethodMetrics {
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder inFlight = new LongAdder();
+        private final AtomicLongArray statusCounts = new AtomicLongArray(Status.Code.values().length);
+        private final LongAdder messagesReceived = new LongAdder();
+        private final LongAdder bytesReceived = new LongAdder();
+        private final LongAdder messagesSent = new LongAdder();
+        private final LongAdder bytesSent = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        
+        void callStarted() {
+            calls.increment();
+            inFlight.increment();
+        }
+        
+        void callFinished(Status.Code code, long nanos) {
+            inFlight.decrement();
+            statusCounts.incrementAndGet(code.ordinal());
+            latency.record(nanos);
+        }
+        
+        void messageReceived(int bytes) {
+            messagesReceived.increment();
+            bytesReceived.add(bytes);
+        }
+        
+        void messageSent(int bytes) {
+            messagesSent.increment();
+            bytesSent.add(bytes);
+        }
+        
+        public long getCalls() {
+            return calls.sum();
+        }
+        
+        public long getInFlight() {
+            return inFlight.sum();
+        }
+        
+        public long getStatusCount(Status.Code code) {
+            return statusCounts.get(code.ordinal());
+        }
+        
+        public long getMessagesReceived() {
+            return messagesReceived.sum();
+        }
+        
+        public long getBytesReceived() {
+            return bytesReceived.sum();
+        }
+        
+        public long getMessagesSent() {
+            return messagesSent.sum();
+        }
+        
+        public long getBytesSent() {
+            return bytesSent.sum();
+        }
+        
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.grpcapi.model;
+
+// A row as seen by incremental sync: the user, or a tombstone when it was deleted
+public class UserChange {
+    private final User user;
+    private final boolean deleted;
+    private final long updatedAtMillis;
+    private final long changeSeq;
+    
+    public UserChange(User user, boolean deleted, long updatedAtMillis, long changeSeq) {
+        this.user = user;
+        this.deleted = deleted;
+        this.updatedAtMillis = updatedAtMillis;
+        this.changeSeq = changeSeq;
+    }
+    
+    public User getUser() {
+        return user;
+    }
+    
+    public boolean isDeleted() {
+        return deleted;
+    }
+    
+    public long getUpdatedAtMillis() {
+        return updatedAtMillis;
+    }
+    
+    public long getChangeSeq() {
+        return changeSeq;
+    }
+    
+    @Override
+    public String toString() {
+        return "UserChange{" +
+                "user=" + user +
+                ", deleted=" + deleted +
+                ", updatedAtMillis=" + updatedAtMillis +
+                ", changeSeq=" + changeSeq +
+                '}';
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.grpcapi.repository;
+
+import java.util.TreeSet;
+
+/**
+ * Hands out change_seq values to writes and tracks which are not committed yet.
+ *
+ * A write that took a lower number can commit after one that took a higher number. A
+ * sync reader that moved its token past the higher one would never see the lower one,
+ * so reads stop just below the oldest write still in flight. There is one instance,
+ * matching the in-memory database that every repository in the JVM shares.
+ */
+final class ChangeSequence {
+    
+    static final ChangeSequence INSTANCE = new ChangeSequence();
+    
+    private long last;
+    // First value of every reserved range whose transaction has not finished
+    private final TreeSet<Long> inFlight = new TreeSet<>();
+    // Highest change_seq of any tombstone purged so far; a token below it may miss a delete
+    private long tombstoneHorizon;
+    
+    private ChangeSequence() {
+    }
+    
+    // Reserves count consecutive values and returns the first; pair with release(first)
+    synchronized long reserve(int count) {
+        long first = last + 1;
+        last += count;
+        inFlight.add(first);
+        return first;
+    }
+    
+    // Called once the reserving transaction has committed or rolled back
+    synchronized void release(long first) {
+        inFlight.remove(first);
+    }
+    
+    // Highest value below which every write has finished
+    synchronized long watermark() {
+        return inFlight.isEmpty() ? last : inFlight.first() - 1;
+    }
+    
+    synchronized void advanceTo(long seen) {
+        last = Math.max(last, seen);
+    }
+    
+    synchronized long tombstoneHorizon() {
+        return tombstoneHorizon;
+    }
+    
+    // Called before the tombstones up to purged are deleted, so a reader that checks the
+    // horizon after its query sees the move whenever the query could have missed one
+    synchronized void advanceTombstoneHorizon(long purged) {
+        tombstoneHorizon = Math.max(tombstoneHorizon, purged);
+    }
+}
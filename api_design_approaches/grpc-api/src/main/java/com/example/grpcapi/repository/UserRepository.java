@@ -1,147 +1,470 @@
-package com.example.grpcapi.repository;
-
-import com.example.grpcapi.model.User;
-
-import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Optional;
-
-public class UserRepository {
-    
-    private Connection getConnection() throws SQLException {
-        return DriverManager.getConnection("jdbc:h2:mem:userdb;DB_CLOSE_DELAY=-1", "sa", "");
-    }
-    
-    public UserRepository() {
-        try {
-            // Initialize the database and create the users table
-            Connection connection = getConnection();
-            Statement statement = connection.createStatement();
-            
-            // Create the users table
-            statement.execute(
-                "CREATE TABLE IF NOT EXISTS users (" +
-                "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
-                "name VARCHAR(255) NOT NULL, " +
-                "email VARCHAR(255) NOT NULL)"
-            );
-            
-            // Insert initial data if the table is empty
-            ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM users");
-            if (rs.next() && rs.getInt(1) == 0) {
-                statement.execute(
-                    "INSERT INTO users (name, email) VALUES " +
-                    "('John Doe', 'john@example.com'), " +
-                    "('Jane Smith', 'jane@example.com'), " +
-                    "('Bob Johnson', 'bob@example.com')"
-                );
-            }
-            
-            rs.close();
-            statement.close();
-            connection.close();
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to initialize database", e);
-        }
-    }
-    
-    public List<User> findAll() {
-        List<User> users = new ArrayList<>();
-        
-        try (Connection connection = getConnection();
-             Statement statement = connection.createStatement();
-             ResultSet rs = statement.executeQuery("SELECT id, name, email FROM users")) {
-            
-            while (rs.next()) {
-                User user = new User(
-                    rs.getLong("id"),
-                    rs.getString("name"),
-                    rs.getString("email")
-                );
-                users.add(user);
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to fetch users", e);
-        }
-        
-        return users;
-    }
-    
-    public Optional<User> findById(Long id) {
-        try (Connection connection = getConnection();
-             PreparedStatement statement = connection.prepareStatement(
-                 "SELECT id, name, email FROM users WHERE id = ?")) {
-            
-            statement.setLong(1, id);
-            ResultSet rs = statement.executeQuery();
-            
-            if (rs.next()) {
-                User user = new User(
-                    rs.getLong("id"),
-                    rs.getString("name"),
-                    rs.getString("email")
-                );
-                rs.close();
-                return Optional.of(user);
-            } else {
-                rs.close();
-                return Optional.empty();
-            }
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to fetch user with id: " + id, e);
-        }
-    }
-    
-    public User save(User user) {
-        if (user.getId() == null) {
-            // Insert new user
-            try (Connection connection = getConnection();
-                 PreparedStatement statement = connection.prepareStatement(
-                     "INSERT INTO users (name, email) VALUES (?, ?)",
-                     Statement.RETURN_GENERATED_KEYS)) {
-                
-                statement.setString(1, user.getName());
-                statement.setString(2, user.getEmail());
-                statement.executeUpdate();
-                
-                ResultSet generatedKeys = statement.getGeneratedKeys();
-                if (generatedKeys.next()) {
-                    user.setId(generatedKeys.getLong(1));
-                }
-                
-                generatedKeys.close();
-                return user;
-            } catch (SQLException e) {
-                throw new RuntimeException("Failed to create user", e);
-            }
-        } else {
-            // Update existing user
-            try (Connection connection = getConnection();
-                 PreparedStatement statement = connection.prepareStatement(
-                     "UPDATE users SET name = ?, email = ? WHERE id = ?")) {
-                
-                statement.setString(1, user.getName());
-                statement.setString(2, user.getEmail());
-                statement.setLong(3, user.getId());
-                statement.executeUpdate();
-                
-                return user;
-            } catch (SQLException e) {
-                throw new RuntimeException("Failed to update user with id: " + user.getId(), e);
-            }
-        }
-    }
-    
-    public void deleteById(Long id) {
-        try (Connection connection = getConnection();
-             PreparedStatement statement = connection.prepareStatement(
-                 "DELETE FROM users WHERE id = ?")) {
-            
-            statement.setLong(1, id);
-            statement.executeUpdate();
-        } catch (SQLException e) {
-            throw new RuntimeException("Failed to delete user with id: " + id, e);
-        }
-    }
+package com.example.grpcapi.repository;
+
+import com.example.grpcapi.model.User;
+import com.example.grpcapi.model.UserChange;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+public class UserRepository {
+    
+    // Columns that callers may project; field masks are validated against this list
+    public static final List<String> COLUMNS = Collections.unmodifiableList(Arrays.asList("id", "name", "email"));
+    
+    // Ids bound per IN list in findAllById
+    private static final int ID_CHUNK_SIZE = 256;
+    
+    private static final ChangeSequence CHANGES = ChangeSequence.INSTANCE;
+    
+    // Parameters: name, email, change_seq, id. Tombstoned rows are not revived.
+    private static final String UPDATE_SQL =
+        "UPDATE users SET name = ?, email = ?, updated_at = CURRENT_TIMESTAMP, change_seq = ? " +
+        "WHERE id = ? AND deleted = FALSE";
+    
+    private Connection getConnection() throws SQLException {
+        return DriverManager.getConnection("jdbc:h2:mem:userdb;DB_CLOSE_DELAY=-1", "sa", "");
+    }
+    
+    public UserRepository() {
+        try {
+            // Initialize the database and create the users table
+            Connection connection = getConnection();
+            Statement statement = connection.createStatement();
+            
+            // Create the users table. Deletes leave a tombstone (deleted = TRUE) and every
+            // write stamps the row with the next change_seq, so sync can read changes in order.
+            statement.execute(
+                "CREATE TABLE IF NOT EXISTS users (" +
+                "id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                "name VARCHAR(255) NOT NULL, " +
+                "email VARCHAR(255) NOT NULL, " +
+                "updated_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                "deleted BOOLEAN NOT NULL DEFAULT FALSE, " +
+                "change_seq BIGINT NOT NULL)"
+            );
+            statement.execute("CREATE INDEX IF NOT EXISTS users_change_seq ON users (change_seq)");
+            
+            ResultSet rs = statement.executeQuery("SELECT COALESCE(MAX(change_seq), 0) FROM users");
+            rs.next();
+            CHANGES.advanceTo(rs.getLong(1));
+            rs.close();
+            
+            // Insert initial data if the table is empty
+            rs = statement.executeQuery("SELECT COUNT(*) FROM users");
+            if (rs.next() && rs.getInt(1) == 0) {
+                long seq = CHANGES.reserve(3);
+                try {
+                    statement.execute(
+                        "INSERT INTO users (name, email, change_seq) VALUES " +
+                        "('John Doe', 'john@example.com', " + seq + "), " +
+                        "('Jane Smith', 'jane@example.com', " + (seq + 1) + "), " +
+                        "('Bob Johnson', 'bob@example.com', " + (seq + 2) + ")"
+                    );
+                } finally {
+                    CHANGES.release(seq);
+                }
+            }
+            
+            rs.close();
+            statement.close();
+            connection.close();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to initialize database", e);
+        }
+    }
+    
+    public List<User> findAll() {
+        return findAll(COLUMNS);
+    }
+    
+    // Only the given columns are selected; the others are left null on the returned users
+    public List<User> findAll(Collection<String> fields) {
+        List<User> users = new ArrayList<>();
+        
+        try (Connection connection = getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery("SELECT " + projection(fields) + " FROM users WHERE deleted = FALSE")) {
+            
+            while (rs.next()) {
+                users.add(mapRow(rs, fields));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to fetch users", e);
+        }
+        
+        return users;
+    }
+    
+    public Optional<User> findById(Long id) {
+        return findById(id, COLUMNS);
+    }
+    
+    public Optional<User> findById(Long id, Collection<String> fields) {
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                 "SELECT " + projection(fields) + " FROM users WHERE id = ? AND deleted = FALSE")) {
+            
+            statement.setLong(1, id);
+            ResultSet rs = statement.executeQuery();
+            
+            if (rs.next()) {
+                User user = mapRow(rs, fields);
+                rs.close();
+                return Optional.of(user);
+            } else {
+                rs.close();
+                return Optional.empty();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to fetch user with id: " + id, e);
+        }
+    }
+    
+    // Users with the given ids, keyed by id; ids that do not exist are absent. The id column
+    // is always read so the caller can tell which ids were found, whatever the projection.
+    public Map<Long, User> findAllById(Collection<Long> ids, Collection<String> fields) {
+        Map<Long, User> found = new HashMap<>(ids.size() * 2);
+        if (ids.isEmpty()) {
+            return found;
+        }
+        
+        Set<String> columns = new LinkedHashSet<>(fields);
+        columns.add("id");
+        Long[] idArray = ids.toArray(new Long[0]);
+        int chunk = Math.min(ID_CHUNK_SIZE, idArray.length);
+        StringBuilder sql = new StringBuilder("SELECT ").append(projection(columns)).append(" FROM users WHERE deleted = FALSE AND id IN (");
+        for (int i = 0; i < chunk; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(')');
+        
+        // One connection and one statement for every chunk
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+            
+            for (int start = 0; start < idArray.length; start += chunk) {
+                for (int i = 0; i < chunk; i++) {
+                    // The last chunk is padded by repeating its final id
+                    statement.setLong(i + 1, idArray[Math.min(start + i, idArray.length - 1)]);
+                }
+                try (ResultSet rs = statement.executeQuery()) {
+                    while (rs.next()) {
+                        found.put(rs.getLong("id"), mapRow(rs, fields));
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to fetch " + idArray.length + " users by id", e);
+        }
+        
+        return found;
+    }
+    
+    // Builds the select list from the known columns only, so caller input never reaches the SQL
+    private static String projection(Collection<String> fields) {
+        StringBuilder sb = new StringBuilder();
+        for (String column : COLUMNS) {
+            if (fields.contains(column)) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(column);
+            }
+        }
+        if (sb.length() == 0) {
+            throw new IllegalArgumentException("No known columns in " + fields);
+        }
+        return sb.toString();
+    }
+    
+    private static User mapRow(ResultSet rs, Collection<String> fields) throws SQLException {
+        User user = new User();
+        if (fields.contains("id")) {
+            user.setId(rs.getLong("id"));
+        }
+        if (fields.contains("name")) {
+            user.setName(rs.getString("name"));
+        }
+        if (fields.contains("email")) {
+            user.setEmail(rs.getString("email"));
+        }
+        return user;
+    }
+    
+    public User save(User user) {
+        long seq = CHANGES.reserve(1);
+        try {
+            return save(user, seq);
+        } finally {
+            CHANGES.release(seq);
+        }
+    }
+    
+    private User save(User user, long seq) {
+        if (user.getId() == null) {
+            // Insert new user
+            try (Connection connection = getConnection();
+                 PreparedStatement statement = connection.prepareStatement(
+                     "INSERT INTO users (name, email, change_seq) VALUES (?, ?, ?)",
+                     Statement.RETURN_GENERATED_KEYS)) {
+                
+                statement.setString(1, user.getName());
+                statement.setString(2, user.getEmail());
+                statement.setLong(3, seq);
+                statement.executeUpdate();
+                
+                ResultSet generatedKeys = statement.getGeneratedKeys();
+                if (generatedKeys.next()) {
+                    user.setId(generatedKeys.getLong(1));
+                }
+                
+                generatedKeys.close();
+                return user;
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to create user", e);
+            }
+        } else {
+            // Update existing user
+            try (Connection connection = getConnection();
+                 PreparedStatement statement = connection.prepareStatement(UPDATE_SQL)) {
+                
+                statement.setString(1, user.getName());
+                statement.setString(2, user.getEmail());
+                statement.setLong(3, seq);
+                statement.setLong(4, user.getId());
+                statement.executeUpdate();
+                
+                return user;
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to update user with id: " + user.getId(), e);
+            }
+        }
+    }
+    
+    // Update a user in one statement and read back the stored row. The returned user is
+    // empty when no row has the given id, so callers need no separate existence check.
+    public Optional<User> update(User user) {
+        long seq = CHANGES.reserve(1);
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                 "SELECT id, name, email FROM FINAL TABLE (" + UPDATE_SQL + ")")) {
+            
+            statement.setString(1, user.getName());
+            statement.setString(2, user.getEmail());
+            statement.setLong(3, seq);
+            statement.setLong(4, user.getId());
+            
+            try (ResultSet rs = statement.executeQuery()) {
+                return rs.next() ? Optional.of(mapRow(rs, COLUMNS)) : Optional.<User>empty();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to update user with id: " + user.getId(), e);
+        } finally {
+            CHANGES.release(seq);
+        }
+    }
+    
+    // Insert all users with one JDBC batch inside a single transaction
+    public List<User> saveAll(List<User> users) {
+        long seq = CHANGES.reserve(users.size());
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                insertBatch(connection, users, seq);
+                connection.commit();
+                return users;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to create " + users.size() + " users", e);
+        } finally {
+            CHANGES.release(seq);
+        }
+    }
+    
+    // Update users that carry an id and insert the rest (or ids that no longer exist)
+    // in a single transaction. Returns the number of rows that were updated.
+    public int upsertAll(List<User> users) {
+        List<User> inserts = new ArrayList<>();
+        List<User> updates = new ArrayList<>();
+        for (User user : users) {
+            if (user.getId() == null) {
+                inserts.add(user);
+            } else {
+                updates.add(user);
+            }
+        }
+        
+        // One change_seq per update, then one per insert; updates that miss are re-inserted,
+        // so inserts may need up to users.size() values. Unused values leave harmless gaps.
+        long seq = CHANGES.reserve(updates.size() + users.size());
+        try (Connection connection = getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                int updated = 0;
+                if (!updates.isEmpty()) {
+                    try (PreparedStatement statement = connection.prepareStatement(UPDATE_SQL)) {
+                        for (int i = 0; i < updates.size(); i++) {
+                            User user = updates.get(i);
+                            statement.setString(1, user.getName());
+                            statement.setString(2, user.getEmail());
+                            statement.setLong(3, seq + i);
+                            statement.setLong(4, user.getId());
+                            statement.addBatch();
+                        }
+                        int[] counts = statement.executeBatch();
+                        for (int i = 0; i < counts.length; i++) {
+                            if (counts[i] == 0) {
+                                // Row is gone, insert it under a freshly generated id
+                                User missing = updates.get(i);
+                                missing.setId(null);
+                                inserts.add(missing);
+                            } else {
+                                updated++;
+                            }
+                        }
+                    }
+                }
+                
+                insertBatch(connection, inserts, seq + updates.size());
+                connection.commit();
+                return updated;
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to upsert " + users.size() + " users", e);
+        } finally {
+            CHANGES.release(seq);
+        }
+    }
+    
+    private void insertBatch(Connection connection, List<User> users, long firstSeq) throws SQLException {
+        if (users.isEmpty()) {
+            return;
+        }
+        
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO users (name, email, change_seq) VALUES (?, ?, ?)",
+                Statement.RETURN_GENERATED_KEYS)) {
+            for (int i = 0; i < users.size(); i++) {
+                User user = users.get(i);
+                statement.setString(1, user.getName());
+                statement.setString(2, user.getEmail());
+                statement.setLong(3, firstSeq + i);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            
+            try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                int i = 0;
+                while (generatedKeys.next() && i < users.size()) {
+                    users.get(i++).setId(generatedKeys.getLong(1));
+                }
+            }
+        }
+    }
+    
+    // Turns the row into a tombstone that sync reports as a delete.
+    // Returns false when no live row had the given id.
+    public boolean deleteById(Long id) {
+        long seq = CHANGES.reserve(1);
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                 "UPDATE users SET deleted = TRUE, updated_at = CURRENT_TIMESTAMP, change_seq = ? " +
+                 "WHERE id = ? AND deleted = FALSE")) {
+            
+            statement.setLong(1, seq);
+            statement.setLong(2, id);
+            return statement.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to delete user with id: " + id, e);
+        } finally {
+            CHANGES.release(seq);
+        }
+    }
+    
+    // Deletes tombstones last written more than retentionMillis ago and returns how many went.
+    // Every tombstone at or below the highest purged change_seq goes with them, and that
+    // change_seq becomes the tombstone horizon: an incremental sync from an older token
+    // would miss deletes, so callers must turn such tokens away.
+    public int purgeTombstones(long retentionMillis) {
+        try (Connection connection = getConnection();
+             PreparedStatement select = connection.prepareStatement(
+                 "SELECT MAX(change_seq) FROM users WHERE deleted = TRUE AND updated_at <= ?");
+             PreparedStatement delete = connection.prepareStatement(
+                 "DELETE FROM users WHERE deleted = TRUE AND change_seq <= ?")) {
+            
+            select.setTimestamp(1, new Timestamp(System.currentTimeMillis() - retentionMillis));
+            long purgeUpTo;
+            try (ResultSet rs = select.executeQuery()) {
+                rs.next();
+                purgeUpTo = rs.getLong(1);
+                if (rs.wasNull()) {
+                    return 0;
+                }
+            }
+            
+            CHANGES.advanceTombstoneHorizon(purgeUpTo);
+            delete.setLong(1, purgeUpTo);
+            return delete.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to purge tombstones", e);
+        }
+    }
+    
+    // Oldest non-empty sync token that still sees every delete after it
+    public long getTombstoneHorizon() {
+        return CHANGES.tombstoneHorizon();
+    }
+    
+    // Highest change_seq that sync may read up to: every write at or below it has finished
+    public long getChangeWatermark() {
+        return CHANGES.watermark();
+    }
+    
+    // Changes with afterSeq < change_seq <= upToSeq, oldest first, read through the
+    // change_seq index so the cost follows the number of changes, not the table size.
+    // Tombstones are left out when includeDeleted is false (a full sync).
+    public List<UserChange> findChanges(long afterSeq, long upToSeq, boolean includeDeleted, int limit) {
+        List<UserChange> changes = new ArrayList<>();
+        
+        try (Connection connection = getConnection();
+             PreparedStatement statement = connection.prepareStatement(
+                 "SELECT id, name, email, deleted, updated_at, change_seq FROM users " +
+                 "WHERE change_seq > ? AND change_seq <= ?" +
+                 (includeDeleted ? "" : " AND deleted = FALSE") +
+                 " ORDER BY change_seq LIMIT ?")) {
+            
+            statement.setLong(1, afterSeq);
+            statement.setLong(2, upToSeq);
+            statement.setInt(3, limit);
+            
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    boolean deleted = rs.getBoolean("deleted");
+                    // Tombstones carry only the id
+                    User user = deleted ? new User(rs.getLong("id"), null, null) : mapRow(rs, COLUMNS);
+                    changes.add(new UserChange(user, deleted,
+                        rs.getTimestamp("updated_at").getTime(), rs.getLong("change_seq")));
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Failed to fetch changes after " + afterSeq, e);
+        }
+        
+        return changes;
+    }
 }
\ No newline at end of file
@@ -1,166 +1,917 @@
-package com.example.grpcapi.service;
-
-import com.example.grpcapi.model.User;
-import com.example.grpcapi.proto.Empty;
-import com.example.grpcapi.proto.UserList;
-import com.example.grpcapi.proto.UserRequest;
-import com.example.grpcapi.proto.UpdateUserRequest;
-import com.example.grpcapi.proto.UserServiceGrpc;
-import com.example.grpcapi.repository.UserRepository;
-import io.grpc.Status;
-import io.grpc.stub.StreamObserver;
-
-import java.util.List;
-import java.util.Optional;
-
-public class UserServiceImpl extends UserServiceGrpc.UserServiceImplBase {
-    
-    private final UserRepository userRepository;
-    
-    public UserServiceImpl() {
-        this.userRepository = new UserRepository();
-    }
-    
-    @Override
-    public void getAllUsers(Empty request, StreamObserver<UserList> responseObserver) {
-        try {
-            List<User> users = userRepository.findAll();
-            
-            // Convert model users to proto users
-            UserList.Builder userListBuilder = UserList.newBuilder();
-            for (User user : users) {
-                userListBuilder.addUsers(convertToProtoUser(user));
-            }
-            
-            // Send the response
-            responseObserver.onNext(userListBuilder.build());
-            responseObserver.onCompleted();
-        } catch (Exception e) {
-            responseObserver.onError(
-                Status.INTERNAL
-                    .withDescription("Internal server error: " + e.getMessage())
-                    .asRuntimeException()
-            );
-        }
-    }
-    
-    @Override
-    public void getUser(UserRequest request, StreamObserver<com.example.grpcapi.proto.User> responseObserver) {
-        try {
-            Optional<User> userOpt = userRepository.findById(request.getId());
-            
-            if (userOpt.isPresent()) {
-                User user = userOpt.get();
-                responseObserver.onNext(convertToProtoUser(user));
-                responseObserver.onCompleted();
-            } else {
-                responseObserver.onError(
-                    Status.NOT_FOUND
-                        .withDescription("User not found with id: " + request.getId())
-                        .asRuntimeException()
-                );
-            }
-        } catch (Exception e) {
-            responseObserver.onError(
-                Status.INTERNAL
-                    .withDescription("Internal server error: " + e.getMessage())
-                    .asRuntimeException()
-            );
-        }
-    }
-    
-    @Override
-    public void createUser(com.example.grpcapi.proto.User request, 
-                          StreamObserver<com.example.grpcapi.proto.User> responseObserver) {
-        try {
-            // Convert proto user to model user
-            User user = new User();
-            user.setName(request.getName());
-            user.setEmail(request.getEmail());
-            
-            // Save the user
-            User savedUser = userRepository.save(user);
-            
-            // Return the saved user
-            responseObserver.onNext(convertToProtoUser(savedUser));
-            responseObserver.onCompleted();
-        } catch (Exception e) {
-            responseObserver.onError(
-                Status.INTERNAL
-                    .withDescription("Failed to create user: " + e.getMessage())
-                    .asRuntimeException()
-            );
-        }
-    }
-    
-    @Override
-    public void updateUser(UpdateUserRequest request, 
-                          StreamObserver<com.example.grpcapi.proto.User> responseObserver) {
-        try {
-            Long userId = request.getId();
-            Optional<User> existingUserOpt = userRepository.findById(userId);
-            
-            if (existingUserOpt.isPresent()) {
-                User existingUser = existingUserOpt.get();
-                
-                // Update fields
-                existingUser.setName(request.getUser().getName());
-                existingUser.setEmail(request.getUser().getEmail());
-                
-                // Save the updated user
-                User updatedUser = userRepository.save(existingUser);
-                
-                // Return the updated user
-                responseObserver.onNext(convertToProtoUser(updatedUser));
-                responseObserver.onCompleted();
-            } else {
-                responseObserver.onError(
-                    Status.NOT_FOUND
-                        .withDescription("User not found with id: " + userId)
-                        .asRuntimeException()
-                );
-            }
-        } catch (Exception e) {
-            responseObserver.onError(
-                Status.INTERNAL
-                    .withDescription("Failed to update user: " + e.getMessage())
-                    .asRuntimeException()
-            );
-        }
-    }
-    
-    @Override
-    public void deleteUser(UserRequest request, StreamObserver<Empty> responseObserver) {
-        try {
-            Long userId = request.getId();
-            Optional<User> existingUserOpt = userRepository.findById(userId);
-            
-            if (existingUserOpt.isPresent()) {
-                userRepository.deleteById(userId);
-                responseObserver.onNext(Empty.newBuilder().build());
-                responseObserver.onCompleted();
-            } else {
-                responseObserver.onError(
-                    Status.NOT_FOUND
-                        .withDescription("User not found with id: " + userId)
-                        .asRuntimeException()
-                );
-            }
-        } catch (Exception e) {
-            responseObserver.onError(
-                Status.INTERNAL
-                    .withDescription("Failed to delete user: " + e.getMessage())
-                    .asRuntimeException()
-            );
-        }
-    }
-    
-    // Helper method to convert model User to proto User
-    private com.example.grpcapi.proto.User convertToProtoUser(User user) {
-        return com.example.grpcapi.proto.User.newBuilder()
-            .setId(user.getId())
-            .setName(user.getName())
-            .setEmail(user.getEmail())
-            .build();
-    }
+package com.example.grpcapi.service;
+
+import com.example.grpcapi.cache.LongKeyedCache;
+import com.example.grpcapi.limit.AdaptiveConcurrencyLimiter;
+import com.example.grpcapi.limit.LoadSheddingInterceptor;
+import com.example.grpcapi.metrics.LatencyHistogram;
+import com.example.grpcapi.metrics.ServerMetrics;
+import com.example.grpcapi.model.User;
+import com.example.grpcapi.model.UserChange;
+import com.example.grpcapi.proto.BatchUserRequest;
+import com.example.grpcapi.proto.BulkAck;
+import com.example.grpcapi.proto.BulkResult;
+import com.example.grpcapi.proto.CacheStats;
+import com.example.grpcapi.proto.Empty;
+import com.example.grpcapi.proto.ListUsersRequest;
+import com.example.grpcapi.proto.LoadSheddingStats;
+import com.example.grpcapi.proto.MethodStats;
+import com.example.grpcapi.proto.ServerStats;
+import com.example.grpcapi.proto.SyncRequest;
+import com.example.grpcapi.proto.UserList;
+import com.example.grpcapi.proto.UserRequest;
+import com.example.grpcapi.proto.UpdateUserRequest;
+import com.example.grpcapi.proto.UserServiceGrpc;
+import com.example.grpcapi.repository.UserRepository;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.FieldMask;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Parser;
+import com.google.protobuf.WireFormat;
+import io.grpc.Context;
+import io.grpc.Deadline;
+import io.grpc.MethodDescriptor;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class UserServiceImpl extends UserServiceGrpc.UserServiceImplBase {
+    
+    // Number of streamed users written per JDBC batch / transaction
+    private static final int BULK_BATCH_SIZE = Integer.getInteger("grpc.bulk.batchSize", 1000);
+    
+    // Most ids accepted by one BatchGetUsers call
+    private static final int BATCH_GET_MAX_IDS = Integer.getInteger("grpc.batchGet.maxIds", 10000);
+    
+    // Changes read per query while streaming SyncUsers
+    private static final int SYNC_PAGE_SIZE = Integer.getInteger("grpc.sync.pageSize", 1000);
+    
+    // How long deletes stay visible to incremental SyncUsers calls; clients that last synced
+    // longer ago than this are sent back to a full sync
+    private static final long TOMBSTONE_RETENTION_MILLIS =
+        Long.getLong("grpc.sync.tombstoneRetentionMillis", TimeUnit.DAYS.toMillis(7));
+    
+    // Bound for the GetUser cache; 0 disables it
+    private static final int USER_CACHE_MAX_ENTRIES = Integer.getInteger("grpc.userCache.maxEntries", 10000);
+    
+    private final UserRepository userRepository;
+    private final ServerMetrics serverMetrics;
+    // Serialized full users by id, filled by reads; every write path below invalidates its users
+    private final LongKeyedCache<byte[]> userCache;
+    // Bumped after every committed write; cached lists from older generations are stale
+    private final AtomicLong dataGeneration = new AtomicLong();
+    // Serialized UserList per field projection
+    private final ConcurrentMap<String, SerializedResponse> userListCache = new ConcurrentHashMap<>();
+    // Reported by GetServerStats when the server runs with load shedding
+    private volatile LoadSheddingInterceptor loadShedding;
+    
+    public UserServiceImpl() {
+        this(new ServerMetrics());
+    }
+    
+    public UserServiceImpl(ServerMetrics serverMetrics) {
+        this.userRepository = new UserRepository();
+        this.serverMetrics = serverMetrics;
+        this.userCache = USER_CACHE_MAX_ENTRIES > 0
+            ? new LongKeyedCache<byte[]>(USER_CACHE_MAX_ENTRIES)
+            : null;
+    }
+    
+    public void setLoadShedding(LoadSheddingInterceptor loadShedding) {
+        this.loadShedding = loadShedding;
+    }
+    
+    // GetAllUsers and GetUser are bound with a byte[] response marshaller so cached responses
+    // go out as stored bytes instead of being rebuilt and re-encoded on every call. The wire
+    // format is unchanged; clients still see UserList and User. Register this definition
+    // instead of the service itself (bindService() is final in the generated base class);
+    // a server that registers the service gets the same responses from the typed overrides
+    // below, parsed back from the bytes.
+    public ServerServiceDefinition bindPreSerializedService() {
+        ServerServiceDefinition typed = super.bindService();
+        ServerServiceDefinition.Builder builder =
+            ServerServiceDefinition.builder(typed.getServiceDescriptor().getName());
+        
+        for (ServerMethodDefinition<?, ?> method : typed.getMethods()) {
+            String name = method.getMethodDescriptor().getFullMethodName();
+            if (name.equals(UserServiceGrpc.getGetAllUsersMethod().getFullMethodName())) {
+                builder.addMethod(
+                    UserServiceGrpc.getGetAllUsersMethod().toBuilder(
+                        ProtoUtils.marshaller(ListUsersRequest.getDefaultInstance()), BytesMarshaller.INSTANCE).build(),
+                    ServerCalls.asyncUnaryCall(new ServerCalls.UnaryMethod<ListUsersRequest, byte[]>() {
+                        @Override
+                        public void invoke(ListUsersRequest request, StreamObserver<byte[]> responseObserver) {
+                            getAllUsersSerialized(request, responseObserver);
+                        }
+                    }));
+            } else if (name.equals(UserServiceGrpc.getGetUserMethod().getFullMethodName())) {
+                builder.addMethod(
+                    UserServiceGrpc.getGetUserMethod().toBuilder(
+                        ProtoUtils.marshaller(UserRequest.getDefaultInstance()), BytesMarshaller.INSTANCE).build(),
+                    ServerCalls.asyncUnaryCall(new ServerCalls.UnaryMethod<UserRequest, byte[]>() {
+                        @Override
+                        public void invoke(UserRequest request, StreamObserver<byte[]> responseObserver) {
+                            getUserSerialized(request, responseObserver);
+                        }
+                    }));
+            } else if (name.equals(UserServiceGrpc.getBatchGetUsersMethod().getFullMethodName())) {
+                builder.addMethod(
+                    UserServiceGrpc.getBatchGetUsersMethod().toBuilder(
+                        ProtoUtils.marshaller(BatchUserRequest.getDefaultInstance()), BytesMarshaller.INSTANCE).build(),
+                    ServerCalls.asyncUnaryCall(new ServerCalls.UnaryMethod<BatchUserRequest, byte[]>() {
+                        @Override
+                        public void invoke(BatchUserRequest request, StreamObserver<byte[]> responseObserver) {
+                            batchGetUsersSerialized(request, responseObserver);
+                        }
+                    }));
+            } else {
+                builder.addMethod(method);
+            }
+        }
+        return builder.build();
+    }
+    
+    @Override
+    public void getAllUsers(ListUsersRequest request, StreamObserver<UserList> responseObserver) {
+        getAllUsersSerialized(request, parsing(responseObserver, UserList.parser()));
+    }
+    
+    @Override
+    public void getUser(UserRequest request, StreamObserver<com.example.grpcapi.proto.User> responseObserver) {
+        getUserSerialized(request, parsing(responseObserver, com.example.grpcapi.proto.User.parser()));
+    }
+    
+    @Override
+    public void batchGetUsers(BatchUserRequest request, StreamObserver<UserList> responseObserver) {
+        batchGetUsersSerialized(request, parsing(responseObserver, UserList.parser()));
+    }
+    
+    // Hands the bytes of the serialized methods to a typed observer as parsed messages
+    private static <T> StreamObserver<byte[]> parsing(final StreamObserver<T> responseObserver, final Parser<T> parser) {
+        return new StreamObserver<byte[]>() {
+            @Override
+            public void onNext(byte[] bytes) {
+                try {
+                    responseObserver.onNext(parser.parseFrom(bytes));
+                } catch (InvalidProtocolBufferException e) {
+                    throw new IllegalStateException("Serialized response does not parse", e);
+                }
+            }
+            
+            @Override
+            public void onError(Throwable t) {
+                responseObserver.onError(t);
+            }
+            
+            @Override
+            public void onCompleted() {
+                responseObserver.onCompleted();
+            }
+        };
+    }
+    
+    // GetAllUsers: serves the cached UserList bytes while no write has happened since they were built
+    void getAllUsersSerialized(ListUsersRequest request, StreamObserver<byte[]> responseObserver) {
+        Collection<String> fields = resolveFields(request.getFieldMask(), responseObserver);
+        if (fields == null) {
+            return;
+        }
+        
+        try {
+            String key = fields.toString();
+            long generation = dataGeneration.get();
+            SerializedResponse cached = userListCache.get(key);
+            if (cached != null && cached.generation == generation) {
+                responseObserver.onNext(cached.bytes);
+                responseObserver.onCompleted();
+                return;
+            }
+            if (callerGone(responseObserver)) {
+                return;
+            }
+            
+            List<User> users = userRepository.findAll(fields);
+            
+            // Convert model users to proto users
+            UserList.Builder userListBuilder = UserList.newBuilder();
+            for (User user : users) {
+                userListBuilder.addUsers(convertToProtoUser(user));
+            }
+            
+            // Tagged with the generation read before the query, so a concurrent write makes it stale
+            byte[] bytes = userListBuilder.build().toByteArray();
+            userListCache.put(key, new SerializedResponse(generation, bytes));
+            
+            // Send the response
+            responseObserver.onNext(bytes);
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(
+                Status.INTERNAL
+                    .withDescription("Internal server error: " + e.getMessage())
+                    .asRuntimeException()
+            );
+        }
+    }
+    
+    // GetUser: whole users are served from the serialized user cache
+    void getUserSerialized(UserRequest request, StreamObserver<byte[]> responseObserver) {
+        Collection<String> fields = resolveFields(request.getFieldMask(), responseObserver);
+        if (fields == null) {
+            return;
+        }
+        
+        try {
+            long userId = request.getId();
+            // Only whole users are cached; projected reads keep their narrowed query
+            boolean wholeUser = userCache != null && request.getFieldMask().getPathsCount() == 0;
+            long stamp = 0;
+            if (wholeUser) {
+                byte[] cached = userCache.get(userId);
+                if (cached != null) {
+                    responseObserver.onNext(cached);
+                    responseObserver.onCompleted();
+                    return;
+                }
+                stamp = userCache.stamp(userId);
+            }
+            if (callerGone(responseObserver)) {
+                return;
+            }
+            
+            Optional<User> userOpt = userRepository.findById(userId, fields);
+            
+            if (userOpt.isPresent()) {
+                byte[] user = convertToProtoUser(userOpt.get()).toByteArray();
+                if (wholeUser) {
+                    userCache.putIfUnchanged(userId, user, stamp);
+                }
+                responseObserver.onNext(user);
+                responseObserver.onCompleted();
+            } else {
+                responseObserver.onError(
+                    Status.NOT_FOUND
+                        .withDescription("User not found with id: " + request.getId())
+                        .asRuntimeException()
+                );
+            }
+        } catch (Exception e) {
+            responseObserver.onError(
+                Status.INTERNAL
+                    .withDescription("Internal server error: " + e.getMessage())
+                    .asRuntimeException()
+            );
+        }
+    }
+    
+    // BatchGetUsers: cached users are copied as stored, the rest come from chunked IN-list
+    // queries on one connection. Users are returned in request order without duplicates.
+    void batchGetUsersSerialized(BatchUserRequest request, StreamObserver<byte[]> responseObserver) {
+        Collection<String> fields = resolveFields(request.getFieldMask(), responseObserver);
+        if (fields == null) {
+            return;
+        }
+        if (request.getIdsCount() > BATCH_GET_MAX_IDS) {
+            responseObserver.onError(
+                Status.INVALID_ARGUMENT
+                    .withDescription("At most " + BATCH_GET_MAX_IDS + " ids per call, got " + request.getIdsCount())
+                    .asRuntimeException()
+            );
+            return;
+        }
+        
+        try {
+            Set<Long> ids = new LinkedHashSet<>(request.getIdsList());
+            boolean wholeUsers = userCache != null && request.getFieldMask().getPathsCount() == 0;
+            Map<Long, byte[]> cached = new HashMap<>();
+            Map<Long, Long> stamps = new HashMap<>();
+            List<Long> toLoad = new ArrayList<>();
+            for (Long id : ids) {
+                byte[] user = wholeUsers ? userCache.get(id) : null;
+                if (user != null) {
+                    cached.put(id, user);
+                } else {
+                    if (wholeUsers) {
+                        stamps.put(id, userCache.stamp(id));
+                    }
+                    toLoad.add(id);
+                }
+            }
+            if (!toLoad.isEmpty() && callerGone(responseObserver)) {
+                return;
+            }
+            Map<Long, User> loaded = userRepository.findAllById(toLoad, fields);
+            
+            // Written field by field: each user is a length-delimited UserList.users entry,
+            // so cached bytes go in without being parsed again
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+            List<Long> missing = new ArrayList<>();
+            for (Long id : ids) {
+                byte[] user = cached.get(id);
+                if (user == null) {
+                    User model = loaded.get(id);
+                    if (model == null) {
+                        missing.add(id);
+                        continue;
+                    }
+                    user = convertToProtoUser(model).toByteArray();
+                    if (wholeUsers) {
+                        userCache.putIfUnchanged(id, user, stamps.get(id));
+                    }
+                }
+                out.writeByteArray(UserList.USERS_FIELD_NUMBER, user);
+            }
+            if (!missing.isEmpty()) {
+                // Packed, as proto3 encodes repeated scalars
+                int size = 0;
+                for (Long id : missing) {
+                    size += CodedOutputStream.computeInt64SizeNoTag(id);
+                }
+                out.writeTag(UserList.MISSING_IDS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                out.writeUInt32NoTag(size);
+                for (Long id : missing) {
+                    out.writeInt64NoTag(id);
+                }
+            }
+            out.flush();
+            
+            responseObserver.onNext(buffer.toByteArray());
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(
+                Status.INTERNAL
+                    .withDescription("Internal server error: " + e.getMessage())
+                    .asRuntimeException()
+            );
+        }
+    }
+    
+    @Override
+    public void createUser(com.example.grpcapi.proto.User request, 
+                          StreamObserver<com.example.grpcapi.proto.User> responseObserver) {
+        if (callerGone(responseObserver)) {
+            return;
+        }
+        try {
+            // Convert proto user to model user
+            User user = new User();
+            user.setName(request.getName());
+            user.setEmail(request.getEmail());
+            
+            // Save the user
+            User savedUser = userRepository.save(user);
+            com.example.grpcapi.proto.User response = convertToProtoUser(savedUser);
+            dataGeneration.incrementAndGet();
+            
+            // Return the saved user
+            responseObserver.onNext(response);
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(
+                Status.INTERNAL
+                    .withDescription("Failed to create user: " + e.getMessage())
+                    .asRuntimeException()
+            );
+        }
+    }
+    
+    @Override
+    public void updateUser(UpdateUserRequest request, 
+                          StreamObserver<com.example.grpcapi.proto.User> responseObserver) {
+        if (callerGone(responseObserver)) {
+            return;
+        }
+        try {
+            Long userId = request.getId();
+            User changes = new User(userId, request.getUser().getName(), request.getUser().getEmail());
+            
+            // Single statement: NOT_FOUND is decided by whether a row was updated
+            Optional<User> updatedUserOpt = userRepository.update(changes);
+            
+            if (updatedUserOpt.isPresent()) {
+                com.example.grpcapi.proto.User response = convertToProtoUser(updatedUserOpt.get());
+                // Invalidated rather than refreshed: two updates can commit in one order and
+                // get here in the other, and a put could also land after a concurrent delete
+                if (userCache != null) {
+                    userCache.invalidate(userId);
+                }
+                dataGeneration.incrementAndGet();
+                
+                // Return the updated user
+                responseObserver.onNext(response);
+                responseObserver.onCompleted();
+            } else {
+                if (userCache != null) {
+                    userCache.invalidate(userId);
+                }
+                responseObserver.onError(
+                    Status.NOT_FOUND
+                        .withDescription("User not found with id: " + userId)
+                        .asRuntimeException()
+                );
+            }
+        } catch (Exception e) {
+            responseObserver.onError(
+                Status.INTERNAL
+                    .withDescription("Failed to update user: " + e.getMessage())
+                    .asRuntimeException()
+            );
+        }
+    }
+    
+    @Override
+    public void deleteUser(UserRequest request, StreamObserver<Empty> responseObserver) {
+        if (callerGone(responseObserver)) {
+            return;
+        }
+        try {
+            Long userId = request.getId();
+            boolean deleted = userRepository.deleteById(userId);
+            if (userCache != null) {
+                userCache.invalidate(userId);
+            }
+            if (deleted) {
+                dataGeneration.incrementAndGet();
+            }
+            
+            if (deleted) {
+                responseObserver.onNext(Empty.newBuilder().build());
+                responseObserver.onCompleted();
+            } else {
+                responseObserver.onError(
+                    Status.NOT_FOUND
+                        .withDescription("User not found with id: " + userId)
+                        .asRuntimeException()
+                );
+            }
+        } catch (Exception e) {
+            responseObserver.onError(
+                Status.INTERNAL
+                    .withDescription("Failed to delete user: " + e.getMessage())
+                    .asRuntimeException()
+            );
+        }
+    }
+    
+    @Override
+    public StreamObserver<com.example.grpcapi.proto.User> bulkCreateUsers(
+            final StreamObserver<BulkResult> responseObserver) {
+        // Pull one batch at a time (plus one batch of lookahead that can arrive while the
+        // current one commits) so a fast client cannot outrun the database
+        final ServerCallStreamObserver<BulkResult> serverObserver =
+            (ServerCallStreamObserver<BulkResult>) responseObserver;
+        serverObserver.disableAutoRequest();
+        serverObserver.request(2 * BULK_BATCH_SIZE);
+        
+        return new StreamObserver<com.example.grpcapi.proto.User>() {
+            private final List<User> pending = new ArrayList<>(BULK_BATCH_SIZE);
+            private long count;
+            private int batches;
+            private boolean failed;
+            
+            @Override
+            public void onNext(com.example.grpcapi.proto.User request) {
+                if (failed) {
+                    return;
+                }
+                pending.add(new User(request.getName(), request.getEmail()));
+                if (pending.size() >= BULK_BATCH_SIZE && flush()) {
+                    serverObserver.request(BULK_BATCH_SIZE);
+                }
+            }
+            
+            @Override
+            public void onError(Throwable t) {
+                // Batches committed so far stay committed; drop the partial one
+                pending.clear();
+            }
+            
+            @Override
+            public void onCompleted() {
+                if (failed || !flush()) {
+                    return;
+                }
+                responseObserver.onNext(BulkResult.newBuilder()
+                    .setCount(count)
+                    .setBatches(batches)
+                    .build());
+                responseObserver.onCompleted();
+            }
+            
+            private boolean flush() {
+                if (pending.isEmpty()) {
+                    return true;
+                }
+                // The client has gone; do not commit batches nobody will be told about
+                if (Context.current().isCancelled()) {
+                    failed = true;
+                    pending.clear();
+                    return false;
+                }
+                try {
+                    userRepository.saveAll(pending);
+                    dataGeneration.incrementAndGet();
+                    count += pending.size();
+                    batches++;
+                    pending.clear();
+                    return true;
+                } catch (Exception e) {
+                    failed = true;
+                    pending.clear();
+                    responseObserver.onError(
+                        Status.INTERNAL
+                            .withDescription("Failed to create users after " + count + " rows: " + e.getMessage())
+                            .asRuntimeException()
+                    );
+                    return false;
+                }
+            }
+        };
+    }
+    
+    @Override
+    public StreamObserver<com.example.grpcapi.proto.User> bulkUpsertUsers(
+            final StreamObserver<BulkAck> responseObserver) {
+        final ServerCallStreamObserver<BulkAck> serverObserver =
+            (ServerCallStreamObserver<BulkAck>) responseObserver;
+        serverObserver.disableAutoRequest();
+        
+        return new StreamObserver<com.example.grpcapi.proto.User>() {
+            private final List<User> pending = new ArrayList<>(BULK_BATCH_SIZE);
+            private int batches;
+            private boolean failed;
+            // Set when an ack could not be written yet; more input is requested once the client drains
+            private boolean awaitingReady;
+            
+            {
+                serverObserver.setOnReadyHandler(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (awaitingReady && serverObserver.isReady()) {
+                            awaitingReady = false;
+                            serverObserver.request(BULK_BATCH_SIZE);
+                        }
+                    }
+                });
+                serverObserver.request(2 * BULK_BATCH_SIZE);
+            }
+            
+            @Override
+            public void onNext(com.example.grpcapi.proto.User request) {
+                if (failed) {
+                    return;
+                }
+                User user = new User(request.getName(), request.getEmail());
+                if (request.getId() != 0) {
+                    user.setId(request.getId());
+                }
+                pending.add(user);
+                
+                if (pending.size() >= BULK_BATCH_SIZE && flush()) {
+                    if (serverObserver.isReady()) {
+                        serverObserver.request(BULK_BATCH_SIZE);
+                    } else {
+                        awaitingReady = true;
+                    }
+                }
+            }
+            
+            @Override
+            public void onError(Throwable t) {
+                pending.clear();
+            }
+            
+            @Override
+            public void onCompleted() {
+                if (failed || !flush()) {
+                    return;
+                }
+                responseObserver.onCompleted();
+            }
+            
+            private boolean flush() {
+                if (pending.isEmpty()) {
+                    return true;
+                }
+                // The client has gone; do not commit batches nobody will be told about
+                if (Context.current().isCancelled()) {
+                    failed = true;
+                    pending.clear();
+                    return false;
+                }
+                try {
+                    int updated = userRepository.upsertAll(pending);
+                    dataGeneration.incrementAndGet();
+                    
+                    BulkAck.Builder ack = BulkAck.newBuilder()
+                        .setBatch(++batches)
+                        .setCreated(pending.size() - updated)
+                        .setUpdated(updated);
+                    for (User user : pending) {
+                        ack.addIds(user.getId());
+                        if (userCache != null) {
+                            userCache.invalidate(user.getId());
+                        }
+                    }
+                    pending.clear();
+                    
+                    responseObserver.onNext(ack.build());
+                    return true;
+                } catch (Exception e) {
+                    failed = true;
+                    pending.clear();
+                    responseObserver.onError(
+                        Status.INTERNAL
+                            .withDescription("Failed to upsert batch " + (batches + 1) + ": " + e.getMessage())
+                            .asRuntimeException()
+                    );
+                    return false;
+                }
+            }
+        };
+    }
+    
+    // SyncUsers: reads changes in change_seq order, one page at a time while the client keeps
+    // up with the stream. The stream ends at the watermark taken when the call started, so a
+    // steady flow of writes cannot keep it open.
+    @Override
+    public void syncUsers(SyncRequest request, final StreamObserver<com.example.grpcapi.proto.UserChange> responseObserver) {
+        final Collection<String> fields = resolveFields(request.getFieldMask(), responseObserver);
+        if (fields == null) {
+            return;
+        }
+        final long since;
+        try {
+            since = parseSyncToken(request.getSinceToken());
+        } catch (IllegalArgumentException e) {
+            responseObserver.onError(
+                Status.INVALID_ARGUMENT
+                    .withDescription("Invalid sync token: " + request.getSinceToken())
+                    .asRuntimeException()
+            );
+            return;
+        }
+        // Deletes older than the horizon have been purged, so an incremental sync from before
+        // it would leave deleted users behind on the client
+        if (since > 0 && since < userRepository.getTombstoneHorizon()) {
+            responseObserver.onError(tokenExpired(since));
+            return;
+        }
+        if (callerGone(responseObserver)) {
+            return;
+        }
+        
+        final ServerCallStreamObserver<com.example.grpcapi.proto.UserChange> serverObserver =
+            (ServerCallStreamObserver<com.example.grpcapi.proto.UserChange>) responseObserver;
+        final long upTo = userRepository.getChangeWatermark();
+        // A full sync starts from nothing, so it has no use for tombstones
+        final boolean includeDeleted = since > 0;
+        
+        serverObserver.setOnReadyHandler(new Runnable() {
+            private long position = since;
+            private boolean done;
+            
+            @Override
+            public void run() {
+                while (!done && serverObserver.isReady()) {
+                    if (serverObserver.isCancelled()) {
+                        done = true;
+                        return;
+                    }
+                    List<UserChange> page;
+                    try {
+                        page = userRepository.findChanges(position, upTo, includeDeleted, SYNC_PAGE_SIZE);
+                        // A purge that ran while the stream was open may have taken deletes
+                        // this page should have carried
+                        if (includeDeleted && position < userRepository.getTombstoneHorizon()) {
+                            done = true;
+                            responseObserver.onError(tokenExpired(position));
+                            return;
+                        }
+                    } catch (Exception e) {
+                        done = true;
+                        responseObserver.onError(
+                            Status.INTERNAL
+                                .withDescription("Failed to sync users after token " + position + ": " + e.getMessage())
+                                .asRuntimeException()
+                        );
+                        return;
+                    }
+                    for (UserChange change : page) {
+                        responseObserver.onNext(convertToProtoChange(change, fields));
+                        position = change.getChangeSeq();
+                    }
+                    if (page.size() < SYNC_PAGE_SIZE) {
+                        done = true;
+                        responseObserver.onCompleted();
+                    }
+                }
+            }
+        });
+    }
+    
+    // Removes tombstones older than the configured retention; run periodically by the server
+    public int purgeTombstones() {
+        return userRepository.purgeTombstones(TOMBSTONE_RETENTION_MILLIS);
+    }
+    
+    // Tells the client to drop its copy and sync again from an empty token
+    private StatusRuntimeException tokenExpired(long token) {
+        return Status.FAILED_PRECONDITION
+            .withDescription("Sync token " + token + " is older than the retained deletes (horizon "
+                + userRepository.getTombstoneHorizon() + "); start over with a full sync")
+            .asRuntimeException();
+    }
+    
+    @Override
+    public void getServerStats(Empty request, StreamObserver<ServerStats> responseObserver) {
+        ServerStats.Builder stats = ServerStats.newBuilder()
+            .setUptimeMillis(serverMetrics.getUptimeMillis());
+        
+        for (Map.Entry<String, ServerMetrics.MethodMetrics> entry : serverMetrics.getMethods().entrySet()) {
+            ServerMetrics.MethodMetrics metrics = entry.getValue();
+            LatencyHistogram latency = metrics.getLatency();
+            
+            MethodStats.Builder methodStats = MethodStats.newBuilder()
+                .setMethod(entry.getKey())
+                .setCalls(metrics.getCalls())
+                .setInFlight(metrics.getInFlight())
+                .setMessagesReceived(metrics.getMessagesReceived())
+                .setBytesReceived(metrics.getBytesReceived())
+                .setMessagesSent(metrics.getMessagesSent())
+                .setBytesSent(metrics.getBytesSent())
+                .setMeanLatencyMicros(latency.getMean() / 1000)
+                .setP50LatencyMicros(latency.getPercentile(50) / 1000)
+                .setP90LatencyMicros(latency.getPercentile(90) / 1000)
+                .setP99LatencyMicros(latency.getPercentile(99) / 1000)
+                .setMaxLatencyMicros(latency.getMax() / 1000);
+            for (Status.Code code : Status.Code.values()) {
+                long count = metrics.getStatusCount(code);
+                if (count > 0) {
+                    methodStats.putStatusCounts(code.name(), count);
+                }
+            }
+            stats.addMethods(methodStats);
+        }
+        
+        if (userCache != null) {
+            stats.setUserCache(CacheStats.newBuilder()
+                .setSize(userCache.size())
+                .setMaxEntries(userCache.getMaxEntries())
+                .setHits(userCache.getHits())
+                .setMisses(userCache.getMisses())
+                .setEvictions(userCache.getEvictions())
+                .setHitRate(userCache.getHitRate()));
+        }
+        
+        LoadSheddingInterceptor shedding = loadShedding;
+        if (shedding != null) {
+            AdaptiveConcurrencyLimiter limiter = shedding.getLimiter();
+            stats.setLoadShedding(LoadSheddingStats.newBuilder()
+                .setConcurrencyLimit(limiter.getLimit())
+                .setInFlight(limiter.getInFlight())
+                .setRejected(limiter.getRejected())
+                .setExpired(shedding.getExpired()));
+        }
+        
+        responseObserver.onNext(stats.build());
+        responseObserver.onCompleted();
+    }
+    
+    // True, after failing the call, when the caller's deadline has passed or it cancelled
+    // while the request waited; the repository is then not touched at all
+    private boolean callerGone(StreamObserver<?> responseObserver) {
+        Context context = Context.current();
+        if (!context.isCancelled()) {
+            return false;
+        }
+        Deadline deadline = context.getDeadline();
+        Status status = deadline != null && deadline.isExpired() ? Status.DEADLINE_EXCEEDED : Status.CANCELLED;
+        responseObserver.onError(
+            status
+                .withDescription("Call ended before the request was processed")
+                .asRuntimeException()
+        );
+        return true;
+    }
+    
+    // Maps a field mask to repository columns; an empty mask selects every column.
+    // Returns null after failing the call with INVALID_ARGUMENT for unknown paths.
+    private Collection<String> resolveFields(FieldMask mask, StreamObserver<?> responseObserver) {
+        if (mask.getPathsCount() == 0) {
+            return UserRepository.COLUMNS;
+        }
+        
+        Collection<String> fields = new LinkedHashSet<>(mask.getPathsList());
+        for (String path : fields) {
+            if (!UserRepository.COLUMNS.contains(path)) {
+                responseObserver.onError(
+                    Status.INVALID_ARGUMENT
+                        .withDescription("Unknown field in field_mask: " + path)
+                        .asRuntimeException()
+                );
+                return null;
+            }
+        }
+        return fields;
+    }
+    
+    // Sync tokens are the change_seq of the last change seen; clients treat them as opaque
+    private static long parseSyncToken(String token) {
+        if (token.isEmpty()) {
+            return 0;
+        }
+        long seq = Long.parseLong(token);
+        if (seq < 0) {
+            throw new IllegalArgumentException("Negative sync token: " + token);
+        }
+        return seq;
+    }
+    
+    // Helper method to convert model UserChange to proto UserChange, projected to the requested fields
+    private com.example.grpcapi.proto.UserChange convertToProtoChange(UserChange change, Collection<String> fields) {
+        User user = change.getUser();
+        // Keeps the ID whatever the projection, since a change cannot be applied without it
+        User projected = new User(user.getId(),
+            fields.contains("name") ? user.getName() : null,
+            fields.contains("email") ? user.getEmail() : null);
+        return com.example.grpcapi.proto.UserChange.newBuilder()
+            .setUser(convertToProtoUser(projected))
+            .setDeleted(change.isDeleted())
+            .setUpdatedAtMillis(change.getUpdatedAtMillis())
+            .setToken(Long.toString(change.getChangeSeq()))
+            .build();
+    }
+    
+    // Helper method to convert model User to proto User; fields left out of a projection stay unset
+    private com.example.grpcapi.proto.User convertToProtoUser(User user) {
+        com.example.grpcapi.proto.User.Builder builder = com.example.grpcapi.proto.User.newBuilder();
+        if (user.getId() != null) {
+            builder.setId(user.getId());
+        }
+        if (user.getName() != null) {
+            builder.setName(user.getName());
+        }
+        if (user.getEmail() != null) {
+            builder.setEmail(user.getEmail());
+        }
+        return builder.build();
+    }
+    
+    private static final class SerializedResponse {
+        private final long generation;
+        private final byte[] bytes;
+        
+        SerializedResponse(long generation, byte[] bytes) {
+            this.generation = generation;
+            this.bytes = bytes;
+        }
+    }
+    
+    // Passes already-encoded protobuf messages straight through to the transport
+    private static final class BytesMarshaller implements MethodDescriptor.Marshaller<byte[]> {
+        static final BytesMarshaller INSTANCE = new BytesMarshaller();
+        
+        @Override
+        public InputStream stream(byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+        
+        @Override
+        public byte[] parse(InputStream stream) {
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int n;
+                while ((n = stream.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+                return out.toByteArray();
+            } catch (IOException e) {
+                throw Status.INTERNAL.withDescription("Failed to read message").withCause(e).asRuntimeException();
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package com.example.grpcapi.cache;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class LongKeyedCacheTest extends TestCase {
+    
+    public void testLoadedValueIsServed() {
+        LongKeyedCache<String> cache = new LongKeyedCache<>(64);
+        assertNull(cache.get(1));
+        assertTrue(cache.putIfUnchanged(1, "one", cache.stamp(1)));
+        assertEquals("one", cache.get(1));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+    
+    public void testLoadStartedBeforeInvalidateIsNotStored() {
+        LongKeyedCache<String> cache = new LongKeyedCache<>(64);
+        long stamp = cache.stamp(1);
+        // A write commits and invalidates while the load is reading the old row
+        cache.invalidate(1);
+        assertFalse(cache.putIfUnchanged(1, "stale", stamp));
+        assertNull(cache.get(1));
+        assertTrue(cache.putIfUnchanged(1, "fresh", cache.stamp(1)));
+        assertEquals("fresh", cache.get(1));
+    }
+    
+    public void testInvalidateRemovesEntry() {
+        LongKeyedCache<String> cache = new LongKeyedCache<>(64);
+        cache.putIfUnchanged(7, "seven", cache.stamp(7));
+        cache.invalidate(7);
+        assertNull(cache.get(7));
+        assertEquals(0, cache.size());
+    }
+    
+    public void testSizeStaysWithinBound() {
+        LongKeyedCache<String> cache = new LongKeyedCache<>(64);
+        for (long key = 0; key < 10000; key++) {
+            cache.putIfUnchanged(key, "v" + key, cache.stamp(key));
+            assertTrue(cache.size() <= 64);
+        }
+        assertEquals(10000 - cache.size(), cache.getEvictions());
+    }
+    
+    // CLOCK: an entry read since the hand last passed it survives the next eviction
+    public void testReferencedEntrySurvivesEviction() {
+        // Four entries per segment
+        LongKeyedCache<String> cache = new LongKeyedCache<>(64);
+        List<Long> keys = keysInSameSegment(5);
+        for (int i = 0; i < 4; i++) {
+            cache.putIfUnchanged(keys.get(i), "v" + i, cache.stamp(keys.get(i)));
+        }
+        cache.get(keys.get(0));
+        cache.putIfUnchanged(keys.get(4), "v4", cache.stamp(keys.get(4)));
+        
+        assertEquals(1, cache.getEvictions());
+        assertEquals("v0", cache.get(keys.get(0)));
+        assertEquals("v4", cache.get(keys.get(4)));
+    }
+    
+    // Keys sharing a segment probe the same small table, so removals exercise backward-shift
+    // deletion; every key must stay reachable afterwards
+    public void testRandomPutsAndInvalidationsMatchMap() {
+        LongKeyedCache<Long> cache = new LongKeyedCache<>(16 * 64);
+        List<Long> keys = keysInSameSegment(60);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            long key = keys.get(random.nextInt(keys.size()));
+            if (random.nextInt(3) == 0) {
+                cache.invalidate(key);
+                expected.remove(key);
+            } else {
+                long value = random.nextLong();
+                assertTrue(cache.putIfUnchanged(key, value, cache.stamp(key)));
+                expected.put(key, value);
+            }
+            if (i % 100 == 0) {
+                for (Long k : keys) {
+                    assertEquals("key " + k + " after op " + i, expected.get(k), cache.get(k));
+                }
+            }
+        }
+        assertEquals(expected.size(), cache.size());
+        assertEquals(0, cache.getEvictions());
+    }
+    
+    public void testRejectsBoundBelowSegmentCount() {
+        try {
+            new LongKeyedCache<String>(8);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+    
+    // Same hash and segment selection as LongKeyedCache
+    private static List<Long> keysInSameSegment(int count) {
+        List<Long> keys = new ArrayList<>();
+        for (long key = 0; keys.size() < count; key++) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            int hash = (int) (h ^ (h >>> 32));
+            if (hash >>> 28 == 0) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.grpcapi.limit;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveConcurrencyLimiterTest extends TestCase {
+    
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(10);
+    
+    public void testRejectsCallsBeyondLimit() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 10, 0);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(limiter.tryAcquire());
+        }
+        assertFalse(limiter.tryAcquire());
+        assertEquals(1, limiter.getRejected());
+        assertEquals(4, limiter.getInFlight());
+        
+        limiter.release(FAST, false);
+        assertTrue(limiter.tryAcquire());
+    }
+    
+    public void testGrowsByOnePerWindowWhileLimitIsInUse() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 4, 100, 0);
+        window(limiter, 20, FAST, false);
+        assertEquals(21, limiter.getLimit());
+        window(limiter, 21, FAST, false);
+        assertEquals(22, limiter.getLimit());
+    }
+    
+    public void testDoesNotGrowWhileLimitIsMostlyIdle() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 4, 100, 0);
+        window(limiter, 1, FAST, false);
+        assertEquals(20, limiter.getLimit());
+    }
+    
+    public void testShrinksWhenACallIsDropped() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 4, 100, 0);
+        window(limiter, 20, FAST, true);
+        assertEquals(18, limiter.getLimit());
+    }
+    
+    public void testShrinksWhenLatencyRisesWellAboveBaseline() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 4, 100, 0);
+        window(limiter, 20, FAST, false);
+        assertEquals(21, limiter.getLimit());
+        window(limiter, 21, SLOW, false);
+        assertEquals(18, limiter.getLimit());
+    }
+    
+    public void testSlackAbsorbsJitterOnFastCalls() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(20, 4, 100, SLOW);
+        window(limiter, 20, FAST, false);
+        window(limiter, 21, FAST * 5, false);
+        assertEquals(22, limiter.getLimit());
+    }
+    
+    public void testStaysWithinBounds() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(5, 4, 6, 0);
+        for (int i = 0; i < 5; i++) {
+            window(limiter, limiter.getLimit(), FAST, true);
+        }
+        assertEquals(4, limiter.getLimit());
+        for (int i = 0; i < 5; i++) {
+            window(limiter, limiter.getLimit(), FAST, false);
+        }
+        assertEquals(6, limiter.getLimit());
+    }
+    
+    // Completes one window of calls, at most concurrent of them in flight at once; with
+    // dropLast the last one missed its deadline
+    private static void window(AdaptiveConcurrencyLimiter limiter, int concurrent, long latencyNanos, boolean dropLast) {
+        int size = Math.max(10, limiter.getLimit());
+        int done = 0;
+        while (done < size) {
+            int batch = Math.min(concurrent, size - done);
+            for (int i = 0; i < batch; i++) {
+                assertTrue(limiter.tryAcquire());
+            }
+            for (int i = 0; i < batch; i++) {
+                limiter.release(latencyNanos, dropLast && done + i == size - 1);
+            }
+            done += batch;
+        }
+        assertEquals(0, limiter.getInFlight());
+    }
+}
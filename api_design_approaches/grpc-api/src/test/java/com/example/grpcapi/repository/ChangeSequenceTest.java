@@ -0,0 +1,68 @@
+package com.example.grpcapi.repository;
+
+import junit.framework.TestCase;
+
+// The sequence is a JVM-wide singleton, so these tests only compare against values it
+// handed out during the test itself
+public class ChangeSequenceTest extends TestCase {
+    
+    private final ChangeSequence sequence = ChangeSequence.INSTANCE;
+    
+    public void testReservesConsecutiveRanges() {
+        long first = sequence.reserve(3);
+        long next = sequence.reserve(1);
+        sequence.release(first);
+        sequence.release(next);
+        
+        assertEquals(first + 3, next);
+        assertTrue(sequence.watermark() >= next);
+    }
+    
+    public void testWatermarkStopsBelowOldestWriteInFlight() {
+        long low = sequence.reserve(1);
+        long high = sequence.reserve(2);
+        assertEquals(low - 1, sequence.watermark());
+        
+        // The higher write commits first; the lower one can still land below it
+        sequence.release(high);
+        assertEquals(low - 1, sequence.watermark());
+        
+        sequence.release(low);
+        assertTrue(sequence.watermark() >= high + 1);
+    }
+    
+    public void testWatermarkMovesToNextWriteInFlight() {
+        long low = sequence.reserve(1);
+        long middle = sequence.reserve(1);
+        long high = sequence.reserve(1);
+        
+        sequence.release(low);
+        assertEquals(middle - 1, sequence.watermark());
+        sequence.release(high);
+        assertEquals(middle - 1, sequence.watermark());
+        sequence.release(middle);
+        assertTrue(sequence.watermark() >= high);
+    }
+    
+    public void testRolledBackRangeDoesNotHoldWatermark() {
+        long rolledBack = sequence.reserve(5);
+        sequence.release(rolledBack);
+        
+        assertTrue(sequence.watermark() >= rolledBack + 4);
+    }
+    
+    public void testAdvanceToNeverMovesBack() {
+        long seq = sequence.reserve(1);
+        sequence.release(seq);
+        
+        sequence.advanceTo(seq - 1);
+        long next = sequence.reserve(1);
+        sequence.release(next);
+        assertEquals(seq + 1, next);
+        
+        sequence.advanceTo(next + 100);
+        long after = sequence.reserve(1);
+        sequence.release(after);
+        assertEquals(next + 101, after);
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.grpcapi.service;
+
+import com.example.grpcapi.proto.BatchUserRequest;
+import com.example.grpcapi.proto.ListUsersRequest;
+import com.example.grpcapi.proto.SyncRequest;
+import com.example.grpcapi.proto.User;
+import com.example.grpcapi.proto.UserChange;
+import com.example.grpcapi.proto.UserList;
+import com.example.grpcapi.proto.UserRequest;
+import com.example.grpcapi.proto.UserServiceGrpc;
+import com.example.grpcapi.repository.UserRepository;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import junit.framework.TestCase;
+
+import java.util.Iterator;
+
+// The read RPCs answer the same whether the service is registered as is or through
+// bindPreSerializedService(); SyncUsers turns away tokens from before purged deletes
+public class UserServiceImplTest extends TestCase {
+    
+    private Server typedServer;
+    private Server serializedServer;
+    private ManagedChannel typedChannel;
+    private ManagedChannel serializedChannel;
+    
+    @Override
+    protected void setUp() throws Exception {
+        UserServiceImpl service = new UserServiceImpl();
+        typedServer = InProcessServerBuilder.forName("typed").directExecutor()
+            .addService(service).build().start();
+        serializedServer = InProcessServerBuilder.forName("serialized").directExecutor()
+            .addService(service.bindPreSerializedService()).build().start();
+        typedChannel = InProcessChannelBuilder.forName("typed").directExecutor().build();
+        serializedChannel = InProcessChannelBuilder.forName("serialized").directExecutor().build();
+    }
+    
+    @Override
+    protected void tearDown() {
+        typedChannel.shutdownNow();
+        serializedChannel.shutdownNow();
+        typedServer.shutdownNow();
+        serializedServer.shutdownNow();
+    }
+    
+    public void testGetUser() {
+        UserRequest request = UserRequest.newBuilder().setId(1).build();
+        User typed = UserServiceGrpc.newBlockingStub(typedChannel).getUser(request);
+        assertEquals(1, typed.getId());
+        // The second call is served from the cache
+        assertEquals(typed, UserServiceGrpc.newBlockingStub(typedChannel).getUser(request));
+        assertEquals(typed, UserServiceGrpc.newBlockingStub(serializedChannel).getUser(request));
+    }
+    
+    public void testGetAllUsers() {
+        UserList typed = UserServiceGrpc.newBlockingStub(typedChannel).getAllUsers(ListUsersRequest.getDefaultInstance());
+        assertTrue(typed.getUsersCount() > 0);
+        assertEquals(typed, UserServiceGrpc.newBlockingStub(serializedChannel).getAllUsers(ListUsersRequest.getDefaultInstance()));
+    }
+    
+    public void testBatchGetUsers() {
+        BatchUserRequest request = BatchUserRequest.newBuilder().addIds(1).addIds(-1).build();
+        UserList typed = UserServiceGrpc.newBlockingStub(typedChannel).batchGetUsers(request);
+        assertEquals(1, typed.getUsersCount());
+        assertEquals(1, typed.getUsers(0).getId());
+        assertEquals(-1, typed.getMissingIds(0));
+        assertEquals(typed, UserServiceGrpc.newBlockingStub(serializedChannel).batchGetUsers(request));
+    }
+    
+    public void testSyncTokenBeforePurgedDeleteNeedsFullSync() {
+        UserServiceGrpc.UserServiceBlockingStub stub = UserServiceGrpc.newBlockingStub(typedChannel);
+        User created = stub.createUser(User.newBuilder().setName("Purged").setEmail("purged@example.com").build());
+        String before = lastToken(stub, "");
+        stub.deleteUser(UserRequest.newBuilder().setId(created.getId()).build());
+        
+        Iterator<UserChange> changes = stub.syncUsers(SyncRequest.newBuilder().setSinceToken(before).build());
+        UserChange delete = changes.next();
+        assertTrue(delete.getDeleted());
+        assertEquals(created.getId(), delete.getUser().getId());
+        String after = delete.getToken();
+        
+        assertTrue(new UserRepository().purgeTombstones(0) > 0);
+        try {
+            lastToken(stub, before);
+            fail("Token from before the purged delete was accepted");
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.FAILED_PRECONDITION, e.getStatus().getCode());
+        }
+        // The delete's own token and a full sync still work
+        assertEquals(after, lastToken(stub, after));
+        assertFalse(lastToken(stub, "").isEmpty());
+    }
+    
+    // Token of the last change streamed after since, or since itself when nothing changed
+    private static String lastToken(UserServiceGrpc.UserServiceBlockingStub stub, String since) {
+        String token = since;
+        Iterator<UserChange> changes = stub.syncUsers(SyncRequest.newBuilder().setSinceToken(since).build());
+        while (changes.hasNext()) {
+            token = changes.next().getToken();
+        }
+        return token;
+    }
+}